@@ -0,0 +1,46 @@
+package model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Request construction, with and without maxTokens sizing, and the raw token estimate it relies on
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestFactoryBenchmark {
+    @Param({ "1", "10", "100" })
+    public int sizeKb;
+
+    private String text;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(3);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < sizeKb * 1024) {
+            sb.append("word".repeat(1 + r.nextInt(3))).append(r.nextInt(8) == 0 ? ". " : " ");
+        }
+        text = sb.toString();
+    }
+
+    @Benchmark
+    public WritingRequest build() {
+        return RequestFactory.build(WritingMode.ACADEMIC, text, 4096);
+    }
+
+    @Benchmark
+    public WritingRequest buildSized() {
+        return RequestFactory.build(WritingMode.ACADEMIC, text, 4096, 16384);
+    }
+
+    @Benchmark
+    public int estimateTokens() {
+        return TokenEstimator.rawCount(text);
+    }
+}
@@ -0,0 +1,74 @@
+package service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Prompt assembly: bounded decoding of one attachment, merging several (uncached and through
+// AttachmentCache), and the old approach of reading the whole file and taking a substring.
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AttachmentBenchmark {
+    @Param({ "1", "10", "100" })
+    public int sizeKb;
+
+    private Path dir;
+    private List<Path> files;
+    private AttachmentCache cache;
+    private String essay;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("attach-bench");
+        files = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Path f = dir.resolve("ref" + i + ".txt");
+            Files.writeString(f, Payloads.essay(sizeKb * 1024, i), StandardCharsets.UTF_8);
+            files.add(f);
+        }
+        cache = new AttachmentCache(64L << 20);
+        essay = Payloads.essay(4 * 1024, 99);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        cache.close();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public AttachmentLoader.Attachment boundedRead() {
+        return AttachmentLoader.read(files.get(0), 6000);
+    }
+
+    @Benchmark
+    public String readWholeThenSubstring() throws IOException {
+        String content = Files.readString(files.get(0), StandardCharsets.UTF_8);
+        return content.length() > 6000 ? content.substring(0, 6000) : content;
+    }
+
+    @Benchmark
+    public String mergeUncached() {
+        return AttachmentLoader.mergeAsync(essay, files, null).join();
+    }
+
+    @Benchmark
+    public String mergeCached() {
+        return AttachmentLoader.mergeAsync(essay, files, null, cache).join();
+    }
+}
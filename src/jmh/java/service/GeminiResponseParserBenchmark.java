@@ -0,0 +1,49 @@
+package service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.WritingResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Response decoding: the streaming parser (full body and a single SSE event) against readTree.
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeminiResponseParserBenchmark {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Param({ "1", "10", "100" })
+    public int sizeKb;
+
+    private byte[] body;
+    private String sseEvent;
+
+    @Setup
+    public void setup() {
+        body = Payloads.response(sizeKb * 1024);
+        sseEvent = new String(Payloads.response(256), StandardCharsets.UTF_8); // typical streamed fragment
+    }
+
+    @Benchmark
+    public WritingResponse parse() {
+        return GeminiResponseParser.parse(body);
+    }
+
+    @Benchmark
+    public GeminiResponseParser.Result parseChunk() {
+        return GeminiResponseParser.parseChunk(sseEvent);
+    }
+
+    @Benchmark
+    public String jacksonTree() throws Exception {
+        JsonNode root = MAPPER.readTree(body);
+        return root.path("candidates").path(0).path("content").path("parts").path(0).path("text").asText();
+    }
+}
@@ -0,0 +1,59 @@
+package service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// Realistic essay-like text for the benchmarks: mixed-length words, punctuation, quotes,
+// paragraph breaks and a sprinkling of non-ASCII, so escaping and decoding paths are all exercised.
+
+final class Payloads {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String[] WORDS = {
+            "the", "argument", "however", "students", "evidence", "suggests", "that", "a", "more",
+            "nuanced", "approach", "is", "needed", "in", "this", "essay", "café", "naïve", "résumé",
+            "\"quoted\"", "analysis", "of", "climate", "policy", "and", "its", "long-term", "effects",
+            "on", "communities", "—", "which", "remain", "under-studied", "to", "date", "100%", "C:\\path"
+    };
+
+    private Payloads() {}
+
+    // About 'bytes' bytes of UTF-8 essay text
+    static String essay(int bytes, long seed) {
+        Random r = new Random(seed);
+        StringBuilder sb = new StringBuilder(bytes + 64);
+        int sentence = 0;
+        while (sb.length() < bytes) {
+            String w = WORDS[r.nextInt(WORDS.length)];
+            sb.append(sentence == 0 ? Character.toUpperCase(w.charAt(0)) + w.substring(1) : w);
+            sentence++;
+            if (sentence > 8 + r.nextInt(12)) {
+                sb.append(". ");
+                sentence = 0;
+                if (r.nextInt(5) == 0) sb.append("\n\n");
+            } else {
+                sb.append(r.nextInt(10) == 0 ? ", " : " ");
+            }
+        }
+        return sb.toString();
+    }
+
+    // A generateContent response body whose candidate text is about 'bytes' long
+    static byte[] response(int bytes) {
+        String text = "Awesome start to your essay! I recommend the following tips:\n- Tip one\n- Tip two\n\n"
+                + "Here is also a reworded essay that you can reference:\n" + essay(bytes, 7);
+        String quoted;
+        try {
+            quoted = MAPPER.writeValueAsString(text);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        return ("{\"candidates\":[{\"content\":{\"parts\":[{\"text\":" + quoted + "}],\"role\":\"model\"},"
+                + "\"finishReason\":\"STOP\",\"index\":0}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":812,\"candidatesTokenCount\":" + bytes / 4
+                + ",\"totalTokenCount\":" + (812 + bytes / 4) + "},\"modelVersion\":\"gemini-2.5-flash\"}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -1,3 +1,7 @@
+import batch.BatchCli;
+import controller.Startup;
+import tools.LoadGenerator;
+import tools.MockGeminiServer;
 import view.MainFrame;
 import javax.swing.*;
 import javax.swing.UIManager;
@@ -6,6 +10,21 @@ import javax.swing.UIManager;
 
 public class Main {
     public static void main(String[] args) {
+        // headless batch mode: Main --batch <dir | file.jsonl | -> [--out file.jsonl] [--mode ...] [--parallel n] [--resume]
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            System.exit(BatchCli.run(args));
+        }
+        // local Gemini stand-in for load and fault testing: Main --mock-gemini [--port n] [--latency ...] ...
+        if (args.length > 0 && "--mock-gemini".equals(args[0])) {
+            System.exit(MockGeminiServer.run(args));
+        }
+        // load driver: Main --load [--base-url url] [--loop open|closed] [--rate 5,10,20] [--duration s] [--csv f] ...
+        if (args.length > 0 && "--load".equals(args[0])) {
+            System.exit(LoadGenerator.run(args));
+        }
+
+        // config loading and connection pre-warming start before the window is built
+        Startup startup = Startup.begin();
         SwingUtilities.invokeLater(() -> {
             try {
                 UIManager.setLookAndFeel("com.sun.java.swing.plaf.motif.MotifLookAndFeel");
@@ -14,7 +33,8 @@ public class Main {
                     UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
                 } catch (Exception ignored) {}
             }
-            new MainFrame(); // launches main app window
+            new MainFrame(startup); // launches main app window
+            startup.windowShown();
         });
     }
 }
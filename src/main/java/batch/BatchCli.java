@@ -0,0 +1,94 @@
+package batch;
+
+import model.APIClient;
+import model.WritingMode;
+import service.APIService;
+import service.CachingAPIService;
+import service.DiskResponseCache;
+import service.ResponseCache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+// Command-line front end for batch mode, started with `Main --batch ...`.
+//
+//   --batch <dir | file.jsonl | ->   inputs (a directory of .txt/.md files, JSONL, or stdin)
+//   --out <file.jsonl | ->           results (default: stdout)
+//   --mode CREATIVE|PROFESSIONAL|ACADEMIC|...   default mode for inputs that don't set one (any registered mode)
+//   --parallel <n>                   max requests in flight (default 8)
+//   --resume                         skip ids that already have an "ok" record in --out and append
+//
+// Results go to stdout and the summary to stderr, so `... --batch - < in.jsonl > out.jsonl` works as a filter.
+
+public class BatchCli {
+
+    public static int run(String[] args) {
+        String input = null;
+        String output = "-";
+        String modeName = WritingMode.ACADEMIC.name();
+        int parallel = 8;
+        boolean resume = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--batch" -> input = value(args, ++i);
+                case "--out" -> output = value(args, ++i);
+                case "--mode" -> modeName = value(args, ++i);
+                case "--parallel" -> parallel = Integer.parseInt(value(args, ++i));
+                case "--resume" -> resume = true;
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (input == null) throw new IllegalArgumentException("Missing --batch <dir | file.jsonl | ->");
+
+        APIClient client = APIClient.getInstance();
+        DiskResponseCache disk = DiskResponseCache.fromConfig(client);
+        APIService api = new CachingAPIService(new APIService(), ResponseCache.fromConfig(client), disk);
+        // resolved after the service is set up, so modes registered in config are known
+        WritingMode mode = WritingMode.valueOf(modeName);
+        BatchRunner runner = new BatchRunner(api, mode, client.defaultMaxTokens(), parallel);
+
+        boolean toStdout = "-".equals(output);
+        try (BatchSource source = BatchSource.open(input);
+             JsonlResultWriter out = new JsonlResultWriter(toStdout ? System.out : open(Path.of(output), resume), !toStdout)) {
+            Set<String> done = resume && !toStdout ? JsonlResultWriter.completedIds(Path.of(output)) : Set.of();
+            BatchRunner.Summary summary = runner.run(source, out, done);
+            System.err.println(summary);
+            return summary.getFailed() == 0 ? 0 : 1;
+        } catch (IOException e) {
+            System.err.println("Batch failed: " + e.getMessage());
+            return 2;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 130;
+        } finally {
+            if (disk != null) {
+                try {
+                    disk.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    // When resuming, make sure a record torn by a crash doesn't get glued onto the next one
+    private static OutputStream open(Path out, boolean resume) throws IOException {
+        if (!resume) return Files.newOutputStream(out);
+        if (Files.exists(out) && Files.size(out) > 0) {
+            try (RandomAccessFile raf = new RandomAccessFile(out.toFile(), "rw")) {
+                raf.seek(raf.length() - 1);
+                if (raf.read() != '\n') raf.write('\n');
+            }
+        }
+        return Files.newOutputStream(out, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}
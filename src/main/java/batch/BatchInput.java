@@ -0,0 +1,29 @@
+package batch;
+
+import model.WritingMode;
+
+// One essay to process in batch mode: a stable id (used for resuming), the text and an optional mode override.
+// A record that can't be processed as given (e.g. an unknown mode) carries an error and is written as a failure.
+
+public class BatchInput {
+    private final String id;
+    private final String text;
+    private final WritingMode mode; // null = use the batch default
+    private final String error; // null = valid
+
+    public BatchInput(String id, String text, WritingMode mode) {
+        this(id, text, mode, null);
+    }
+
+    public BatchInput(String id, String text, WritingMode mode, String error) {
+        this.id = id;
+        this.text = text;
+        this.mode = mode;
+        this.error = error;
+    }
+
+    public String getId() { return id; }
+    public String getText() { return text; }
+    public WritingMode getMode() { return mode; }
+    public String getError() { return error; }
+}
@@ -0,0 +1,145 @@
+package batch;
+
+import model.RequestFactory;
+import model.WritingMode;
+import model.WritingRequest;
+import model.WritingResponse;
+import service.APIService;
+import service.LatencyTracker;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Runs a stream of inputs through RequestFactory and APIService without the UI.
+// Each input gets its own virtual thread, but a semaphore caps how many are in flight, so the
+// source is only read as fast as results come back. Pacing is left to the service's rate limiter
+// (and retries to its RetryPolicy); the parallelism cap only bounds memory and open connections.
+
+public class BatchRunner {
+    private final APIService api;
+    private final WritingMode defaultMode;
+    private final int maxTokens;
+    private final int parallelism;
+
+    public BatchRunner(APIService api, WritingMode defaultMode, int maxTokens, int parallelism) {
+        this.api = api;
+        this.defaultMode = defaultMode;
+        this.maxTokens = maxTokens;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // Totals for the end-of-run report
+    public static final class Summary {
+        private final long succeeded;
+        private final long failed;
+        private final long skipped;
+        private final long totalTokens;
+        private final long elapsedMs;
+        private final LatencyTracker latencies;
+
+        Summary(long succeeded, long failed, long skipped, long totalTokens, long elapsedMs, LatencyTracker latencies) {
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.skipped = skipped;
+            this.totalTokens = totalTokens;
+            this.elapsedMs = elapsedMs;
+            this.latencies = latencies;
+        }
+
+        public long getSucceeded() { return succeeded; }
+        public long getFailed() { return failed; }
+        public long getSkipped() { return skipped; }
+        public long getTotalTokens() { return totalTokens; }
+        public long getElapsedMs() { return elapsedMs; }
+        public long latencyPercentile(double p) { return latencies.percentile(p); }
+
+        @Override
+        public String toString() {
+            double secs = Math.max(1, elapsedMs) / 1000.0;
+            long done = succeeded + failed;
+            return String.format(
+                    "%d ok, %d failed, %d skipped in %.1f s | %.2f req/s, %.0f tokens/s | latency ms p50=%d p95=%d p99=%d max=%d",
+                    succeeded, failed, skipped, secs, done / secs, totalTokens / secs,
+                    latencies.percentile(50), latencies.percentile(95), latencies.percentile(99), latencies.percentile(100));
+        }
+    }
+
+    // Processes every input whose id isn't in 'completed', writing one record per input as it finishes.
+    // If a record can't be written the run stops taking new inputs and throws once the rest have finished,
+    // since the output is the checkpoint and a missing record would otherwise go unnoticed.
+    public Summary run(Iterator<BatchInput> inputs, JsonlResultWriter out, Set<String> completed)
+            throws InterruptedException, IOException {
+        AtomicLong ok = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicLong tokens = new AtomicLong();
+        AtomicReference<IOException> writeError = new AtomicReference<>();
+        long skipped = 0;
+        LatencyTracker latencies = new LatencyTracker(1 << 16);
+        Semaphore permits = new Semaphore(parallelism);
+        long start = System.nanoTime();
+
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (writeError.get() == null && inputs.hasNext()) {
+                BatchInput in = inputs.next();
+                if (completed.contains(in.getId())) {
+                    skipped++;
+                    continue;
+                }
+                permits.acquire(); // backpressure on the source
+                pool.execute(() -> {
+                    try {
+                        process(in, out, ok, failed, tokens, latencies, writeError);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        } // close() waits for the remaining tasks
+
+        if (writeError.get() != null) throw writeError.get();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        return new Summary(ok.get(), failed.get(), skipped, tokens.get(), elapsedMs, latencies);
+    }
+
+    private void process(BatchInput in, JsonlResultWriter out, AtomicLong ok, AtomicLong failed,
+                         AtomicLong tokens, LatencyTracker latencies, AtomicReference<IOException> writeError) {
+        WritingMode mode = in.getMode() != null ? in.getMode() : defaultMode;
+        String error = in.getError(); // set when the record was rejected as it was read; it is never sent
+        WritingResponse resp = null;
+        long ms = 0;
+        if (error == null) {
+            long t0 = System.nanoTime();
+            try {
+                resp = api.generateText(RequestFactory.build(mode, in.getText(), maxTokens));
+                ms = (System.nanoTime() - t0) / 1_000_000;
+                latencies.record(ms);
+            } catch (RuntimeException e) {
+                // not only API errors: a bug or unexpected exception still gets its error row
+                ms = (System.nanoTime() - t0) / 1_000_000;
+                error = APIService.asAPIException(e).getMessage();
+            }
+        }
+
+        try {
+            if (error == null) out.success(in.getId(), mode, resp, ms);
+            else out.failure(in.getId(), mode, error, ms);
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            IOException io = e instanceof IOException x ? x : new IOException("Could not write the result for " + in.getId(), e);
+            if (!writeError.compareAndSet(null, io)) writeError.get().addSuppressed(io);
+            return;
+        }
+        if (error != null) {
+            failed.incrementAndGet();
+        } else {
+            ok.incrementAndGet();
+            tokens.addAndGet(resp.getTotalTokens());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package batch;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import model.WritingMode;
+import service.AttachmentLoader;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+// Lazily reads batch inputs so arbitrarily large batches never sit in memory at once.
+// Two formats are accepted:
+//   - a directory: every .txt/.md file is one input, its path relative to the directory is the id;
+//     files are decoded the way attachments are (charset sniffed), and one that can't be read becomes a failed record
+//   - JSONL (a file or stdin): one {"id": ..., "text": ..., "mode": ...} object per line;
+//     id defaults to the line number and mode to the batch default. Lines that aren't JSON are taken as raw text.
+
+public class BatchSource implements Iterator<BatchInput>, Closeable {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final Iterator<BatchInput> it;
+    private final Closeable resource;
+
+    private BatchSource(Iterator<BatchInput> it, Closeable resource) {
+        this.it = it;
+        this.resource = resource;
+    }
+
+    // "-" means stdin; a directory is walked; anything else is read as JSONL
+    public static BatchSource open(String arg) throws IOException {
+        if ("-".equals(arg)) return jsonl(System.in);
+        Path p = Path.of(arg);
+        if (Files.isDirectory(p)) return directory(p);
+        return jsonl(Files.newInputStream(p));
+    }
+
+    public static BatchSource directory(Path dir) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            // sorted so ids come out in a stable order across runs
+            files = walk.filter(Files::isRegularFile)
+                    .filter(f -> {
+                        String n = f.getFileName().toString().toLowerCase(Locale.ROOT);
+                        return n.endsWith(".txt") || n.endsWith(".md");
+                    })
+                    .sorted()
+                    .toList();
+        }
+        Iterator<Path> paths = files.iterator();
+        Iterator<BatchInput> inputs = new Iterator<>() {
+            @Override public boolean hasNext() { return paths.hasNext(); }
+            @Override public BatchInput next() {
+                Path f = paths.next();
+                String id = dir.relativize(f).toString().replace('\\', '/');
+                try {
+                    // no decoded file has more chars than bytes, so this reads it whole
+                    int maxChars = (int) Math.min(Integer.MAX_VALUE - 16, Files.size(f) + 1);
+                    AttachmentLoader.Attachment a = AttachmentLoader.read(f, maxChars);
+                    if (a.getError() != null) return new BatchInput(id, "", null, "Could not read file: " + a.getError());
+                    return new BatchInput(id, a.getText(), null);
+                } catch (IOException e) {
+                    return new BatchInput(id, "", null, "Could not read file: " + e.getMessage());
+                }
+            }
+        };
+        return new BatchSource(inputs, () -> { });
+    }
+
+    public static BatchSource jsonl(InputStream in) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Iterator<BatchInput> inputs = new Iterator<>() {
+            private BatchInput next;
+            private long lineNo = 0;
+
+            @Override public boolean hasNext() {
+                if (next != null) return true;
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lineNo++;
+                        if (line.isBlank()) continue;
+                        next = parseLine(line, lineNo);
+                        return true;
+                    }
+                    return false;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override public BatchInput next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                BatchInput r = next;
+                next = null;
+                return r;
+            }
+        };
+        return new BatchSource(inputs, reader);
+    }
+
+    static BatchInput parseLine(String line, long lineNo) {
+        String fallbackId = String.valueOf(lineNo);
+        if (!line.stripLeading().startsWith("{")) return new BatchInput(fallbackId, line, null);
+
+        String id = fallbackId;
+        String text = "";
+        WritingMode mode = null;
+        String error = null;
+        try (JsonParser p = JSON.createParser(line)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return new BatchInput(fallbackId, line, null);
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken v = p.nextToken();
+                switch (field) {
+                    case "id" -> id = p.getValueAsString(fallbackId);
+                    case "text" -> text = p.getValueAsString("");
+                    case "mode" -> {
+                        String name = p.getValueAsString();
+                        mode = parseMode(name);
+                        if (mode == null && name != null && !name.isBlank()) error = "Unknown mode: " + name;
+                    }
+                    default -> {
+                        if (v.isStructStart()) p.skipChildren();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // not valid JSON after all: keep the whole line as text rather than dropping the record
+            return new BatchInput(fallbackId, line, null);
+        }
+        return new BatchInput(id, text, mode, error);
+    }
+
+    // null for a missing or unknown mode
+    static WritingMode parseMode(String s) {
+        if (s == null || s.isBlank()) return null;
+        try {
+            return WritingMode.valueOf(s.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override public boolean hasNext() { return it.hasNext(); }
+    @Override public BatchInput next() { return it.next(); }
+
+    @Override
+    public void close() throws IOException {
+        resource.close();
+    }
+}
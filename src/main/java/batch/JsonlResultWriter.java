@@ -0,0 +1,109 @@
+package batch;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import model.WritingMode;
+import model.WritingResponse;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+// Streams one JSON object per finished input. Each record is flushed as soon as it is written,
+// so the output file doubles as the checkpoint: completedIds() reads it back to resume a run.
+
+public class JsonlResultWriter implements Closeable {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final JsonGenerator gen;
+
+    public JsonlResultWriter(OutputStream out) throws IOException {
+        this(out, true);
+    }
+
+    // closeTarget=false leaves the stream open on close(), for stdout
+    public JsonlResultWriter(OutputStream out, boolean closeTarget) throws IOException {
+        this.gen = JSON.createGenerator(out, JsonEncoding.UTF8);
+        this.gen.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, closeTarget);
+        this.gen.setRootValueSeparator(null); // endRecord() writes the newline itself
+    }
+
+    public synchronized void success(String id, WritingMode mode, WritingResponse r, long latencyMs) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("id", id);
+        gen.writeStringField("mode", String.valueOf(mode));
+        gen.writeStringField("status", "ok");
+        gen.writeStringField("text", r.getText());
+        gen.writeStringField("finishReason", r.getFinishReason());
+        gen.writeNumberField("promptTokens", r.getPromptTokens());
+        gen.writeNumberField("completionTokens", r.getCompletionTokens());
+        gen.writeNumberField("totalTokens", r.getTotalTokens());
+        gen.writeNumberField("latencyMs", latencyMs);
+        gen.writeEndObject();
+        endRecord();
+    }
+
+    public synchronized void failure(String id, WritingMode mode, String error, long latencyMs) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("id", id);
+        gen.writeStringField("mode", String.valueOf(mode));
+        gen.writeStringField("status", "error");
+        gen.writeStringField("error", error);
+        gen.writeNumberField("latencyMs", latencyMs);
+        gen.writeEndObject();
+        endRecord();
+    }
+
+    // caller holds the lock
+    private void endRecord() throws IOException {
+        gen.writeRaw('\n');
+        gen.flush();
+    }
+
+    // Ids that already have an "ok" record in an earlier output file. Failed records are retried,
+    // and a line torn by a crash mid-write is ignored.
+    public static Set<String> completedIds(Path output) throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!Files.exists(output)) return done;
+        try (BufferedReader r = Files.newBufferedReader(output, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] idStatus = readIdAndStatus(line);
+                if (idStatus != null && "ok".equals(idStatus[1])) done.add(idStatus[0]);
+            }
+        }
+        return done;
+    }
+
+    private static String[] readIdAndStatus(String line) {
+        String id = null, status = null;
+        try (JsonParser p = JSON.createParser(line)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken v = p.nextToken();
+                if ("id".equals(field)) id = p.getValueAsString();
+                else if ("status".equals(field)) status = p.getValueAsString();
+                else if (v.isStructStart()) p.skipChildren();
+            }
+            if (p.currentToken() != JsonToken.END_OBJECT) return null;
+        } catch (IOException e) {
+            return null;
+        }
+        return id == null ? null : new String[] { id, status };
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        gen.close();
+    }
+}
@@ -2,8 +2,22 @@ package controller;
 
 import model.*;
 import service.APIService;
+import service.AttachmentCache;
+import service.CachingAPIService;
+import service.ChunkedGenerator;
+import service.DiskResponseCache;
+import service.DocumentChunker;
+import service.IncrementalGenerator;
+import service.ResponseCache;
+import service.ServiceExecutors;
 
 import javax.swing.*;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /* coordinates interactions between the view and the model.
     Handles user requests & triggers API calls asynchronously.
@@ -14,55 +28,144 @@ public class MainController {
     private final SessionModel session;
     // Handles actual API calls to the Gemini API
     private final APIService api;
+    // Splits documents too long for one request and sends the parts in parallel
+    private final ChunkedGenerator chunked;
+    // Resubmits after an edit send only the changed paragraphs (null = always the whole text)
+    private final IncrementalGenerator incremental;
+    // Memory-mapped response cache on disk, closed with the window (null when disabled or in tests)
+    private final DiskResponseCache disk;
+    // Decoded attachments and their directory watcher, closed with the window (null in tests)
+    private final AttachmentCache attachments;
 
     public MainController(SessionModel session) {
         this.session = session;
-        this.api = new APIService();
+        // repeated submits of the same text and mode are answered from memory, or from disk after a restart
+        APIClient client = APIClient.getInstance();
+        this.disk = DiskResponseCache.fromConfig(client);
+        this.api = new CachingAPIService(new APIService(), ResponseCache.fromConfig(client), disk);
+        this.chunked = ChunkedGenerator.fromConfig(api, client);
+        this.incremental = IncrementalGenerator.fromConfig(api, client);
+        this.attachments = AttachmentCache.fromConfig(client);
     }
 
     // For j-unit tests
     public MainController(SessionModel session, APIService apiService) {
         this.session = session;
         this.api = apiService;
+        this.chunked = new ChunkedGenerator(apiService, DocumentChunker.DEFAULT_MAX_TOKENS, 4);
+        this.incremental = null;
+        this.disk = null;
+        this.attachments = null;
+    }
+
+
+    // Latest-wins: each submit gets a new epoch, and anything from an older epoch is cancelled or dropped
+    private final AtomicLong epoch = new AtomicLong();
+    private final AtomicReference<Generation> current = new AtomicReference<>();
+
+    // The futures belonging to one submit, so all of them can be cancelled together
+    private static final class Generation {
+        final long epoch;
+        volatile CompletableFuture<WritingResponse> outer;
+        volatile CompletableFuture<WritingResponse> inner; // the API call itself, once started
+
+        Generation(long epoch) { this.epoch = epoch; }
+
+        void cancel() {
+            CompletableFuture<WritingResponse> i = inner, o = outer;
+            if (o != null) o.cancel(true);
+            if (i != null) i.cancel(true);
+        }
     }
 
     // Called when the user presses "Enter" or submits text in the editor panel
-    // Builds a WritingRequest
-    public void onGenerate(String input, WritingMode mode) {
+    // Builds a WritingRequest and returns a future for the response.
+    // The work is composed as futures off the EDT; only SessionModel updates hop back onto it.
+    // A new submit cancels the previous one: its rate-limit slot is released, its HTTP exchange
+    // is aborted, and any result that still arrives late is ignored.
+    public CompletableFuture<WritingResponse> onGenerate(String input, WritingMode mode) {
+        Generation gen = new Generation(epoch.incrementAndGet());
+        Generation previous = current.getAndSet(gen);
+        if (previous != null) previous.cancel();
+
         session.setErrorMessage("");
         session.setMode(mode);
         session.setLoading(true);
 
-        // Performs the API call in a background threat so the UI remains responsive.
-        SwingWorker<Void, Void> worker = new SwingWorker<>() {
-            private String resultText;
-            private String error;
-
-            @Override protected Void doInBackground() {
-                try {
+        CompletableFuture<WritingResponse> call = CompletableFuture
+                .supplyAsync(() -> {
                     // Builds the API request based on the selected writing mode
-                    int maxTokens = APIClient.getInstance().defaultMaxTokens();
-                    WritingRequest req = RequestFactory.build(mode, input, maxTokens); //  Makes the call to Gemini API
-                    WritingResponse resp = api.generateText(req);
-                    resultText = resp.getText();
-                } catch (Exception ex) {
-                    error = ex.getMessage();
-                    // Captures any exceptions or API errors for display in the UI
-                }
-                return null;
-            }
+                    // maxTokens is sized from the local token estimate so long answers aren't cut off
+                    APIClient client = APIClient.getInstance();
+                    return RequestFactory.build(mode, input, client.defaultMaxTokens(), client.maxOutputTokens());
+                }, ServiceExecutors.virtualThreads())
+                .thenCompose(req -> {
+                    //  Makes the call to Gemini API; long documents go out as parallel chunks and are stitched back together
+                    Supplier<CompletableFuture<WritingResponse>> full = () -> chunked.needsChunking(input)
+                            ? chunked.generate(mode, input, APIClient.getInstance().defaultMaxTokens())
+                            : APIClient.getInstance().streaming()
+                            // reading an SSE stream blocks, so it gets its own (interruptible) virtual thread
+                            ? ServiceExecutors.supplyInterruptibly(() -> api.generateTextStream(req,
+                                    chunk -> onEdt(gen, () -> session.appendResponseChunk(chunk))))
+                            : api.generateTextAsync(req);
+                    // After an edit, only the changed paragraphs are sent and merged into the previous result
+                    CompletableFuture<WritingResponse> inner = incremental == null ? full.get()
+                            : incremental.generate(mode, input, APIClient.getInstance().defaultMaxTokens(), full);
+                    gen.inner = inner;
+                    if (!isCurrent(gen)) inner.cancel(true); // superseded while the request was being built
+                    return inner;
+                });
+        gen.outer = call;
 
-            @Override protected void done() {
-                // Marks loading as complete
-                session.setLoading(false);
-                if (error != null && !error.isBlank()) { // Logic of error handling
-                    session.setErrorMessage(error);
-                } else {
-                    session.setResponseText(resultText == null ? "" : resultText.trim());
-                }
+        call.whenComplete((resp, ex) -> onEdt(gen, () -> {
+            // Marks loading as complete
+            session.setLoading(false);
+            if (ex != null) { // Logic of error handling
+                String error = rootCause(ex).getMessage();
+                session.setErrorMessage(error == null || error.isBlank() ? "Request failed" : error);
+            } else {
+                String resultText = resp.getText();
+                session.setResponseText(resultText == null ? "" : resultText.trim());
             }
-        };
-        worker.execute(); // background worker
+        }));
+        return call;
     }
+
+    private boolean isCurrent(Generation gen) { return epoch.get() == gen.epoch; }
+
+    // Runs a SessionModel update on the EDT, unless a newer submit has taken over by then
+    private void onEdt(Generation gen, Runnable update) {
+        SwingUtilities.invokeLater(() -> {
+            if (isCurrent(gen)) update.run();
+        });
+    }
+
     public SessionModel getSession() { return session; } //
+
+    public AttachmentCache attachmentCache() { return attachments; }
+
+    // Flushes and unmaps the disk cache and releases its directory lock, and stops the attachment
+    // watcher; called when the window closes
+    public void close() {
+        if (attachments != null) {
+            try {
+                attachments.close();
+            } catch (IOException e) {
+                System.err.println("Attachment cache close failed: " + e.getMessage());
+            }
+        }
+        if (disk == null) return;
+        try {
+            disk.close();
+        } catch (IOException e) {
+            System.err.println("Disk cache close failed: " + e.getMessage());
+        }
+    }
+
+    // Strips the CompletionException wrappers that futures add around the real failure
+    private static Throwable rootCause(Throwable ex) {
+        Throwable t = ex;
+        while (t instanceof CompletionException && t.getCause() != null) t = t.getCause();
+        return t;
+    }
 }
@@ -0,0 +1,112 @@
+package controller;
+
+import model.APIClient;
+import model.SessionModel;
+import model.strategy.StrategyRegistry;
+import service.AttachmentCache;
+import service.Prewarmer;
+import service.ServiceExecutors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Start-up sequence for the desktop app: the window is shown straight away while everything that
+// does I/O runs in the background, and the first generation finds a warm connection and compiled code.
+//   config    loading config.properties, building the HttpClient, registering configured strategies
+//   services  MainController with its APIService, response caches and attachment cache
+//   dns       resolving the GEMINI_BASE_URL host
+//   connect   opening the HTTP/2 (TLS) connection with a models.get call, on the client APIService uses
+//   jit       running request encoding and response parsing until compiled
+// Phase durations go to stderr on one line once everything has finished.
+
+public class Startup {
+    private static final int JIT_ITERATIONS = 2_000;
+
+    // What the window needs from the background phases
+    public static final class Services {
+        private final MainController controller;
+
+        Services(MainController controller) {
+            this.controller = controller;
+        }
+
+        public MainController controller() { return controller; }
+        // owned by the controller, which closes it with the window
+        public AttachmentCache attachmentCache() { return controller.attachmentCache(); }
+    }
+
+    private final long started = System.nanoTime();
+    private final List<String> phases = new ArrayList<>(); // "name 12 ms", guarded by itself
+    private final CompletableFuture<APIClient> config;
+    private final CompletableFuture<Void> prewarm;
+
+    private Startup() {
+        this.config = CompletableFuture.supplyAsync(() -> {
+            long t = System.nanoTime();
+            APIClient c = APIClient.getInstance();
+            StrategyRegistry.installFromConfig(c);
+            phase("config", t, "");
+            return c;
+        }, ServiceExecutors.virtualThreads());
+        this.prewarm = config.thenComposeAsync(this::warm, ServiceExecutors.virtualThreads());
+    }
+
+    // Starts loading config and pre-warming; call before building the window
+    public static Startup begin() {
+        return new Startup();
+    }
+
+    // Builds the controller for the window's session once config is loaded.
+    // Fails with the config error (e.g. a missing API key) so the window can report it.
+    public CompletableFuture<Services> services(SessionModel session) {
+        CompletableFuture<Services> s = config.thenApplyAsync(c -> {
+            long t = System.nanoTime();
+            Services built = new Services(new MainController(session));
+            phase("services", t, "");
+            return built;
+        }, ServiceExecutors.virtualThreads());
+        CompletableFuture.allOf(s, prewarm).whenComplete((v, ex) -> report(ex));
+        return s;
+    }
+
+    // Called on the EDT once the window is visible
+    public void windowShown() {
+        phase("window", started, "");
+    }
+
+    private CompletableFuture<Void> warm(APIClient c) {
+        long t = System.nanoTime();
+        try {
+            int addresses = Prewarmer.resolve(c.baseUrl());
+            phase("dns", t, " (" + addresses + " addresses)");
+        } catch (Exception e) {
+            phase("dns", t, " (failed: " + e.getMessage() + ")");
+        }
+        long connecting = System.nanoTime();
+        return Prewarmer.connect(c.http(), c.baseUrl(), c.model(), c.apiKey())
+                .handle((status, ex) -> {
+                    phase("connect", connecting, ex == null ? " (HTTP " + status + ")" : " (failed)");
+                    long jit = System.nanoTime();
+                    Prewarmer.warmCodecs(JIT_ITERATIONS);
+                    phase("jit", jit, "");
+                    return null;
+                });
+    }
+
+    private void phase(String name, long sinceNanos, String note) {
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sinceNanos);
+        synchronized (phases) {
+            phases.add(name + " " + ms + " ms" + note);
+        }
+    }
+
+    private void report(Throwable failure) {
+        long total = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        synchronized (phases) {
+            System.err.println("[startup] " + String.join(", ", phases) + "; done after " + total + " ms"
+                    + (failure == null ? "" : " (failed: " + failure.getMessage() + ")"));
+        }
+    }
+}
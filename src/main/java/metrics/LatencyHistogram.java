@@ -0,0 +1,83 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock-free log-linear histogram of durations in microseconds.
+// Each power of two is split into 16 linear sub-buckets, so any recorded value is reported within
+// about 6% of its true size, from 1 us up to hours, in a fixed 1 KB-ish array. Recording is one
+// array increment plus two adders, so it is safe to call on every request from any thread.
+
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40; // 2^40 us is ~12 days; anything above lands in the last bucket
+
+    private final AtomicLongArray buckets = new AtomicLongArray((MAX_EXPONENT + 1) * SUB_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        recordMicros(Math.max(0, nanos) / 1_000);
+    }
+
+    public void recordMicros(long micros) {
+        long v = Math.max(0, micros);
+        buckets.incrementAndGet(indexOf(v));
+        count.increment();
+        sum.add(v);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    public long count() { return count.sum(); }
+    public long maxMicros() { return max.get(); }
+
+    public double meanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // Value at the given percentile (0-100), in microseconds; 0 when empty
+    public long percentileMicros(double p) {
+        long n = count.sum();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    public double percentileMillis(double p) {
+        return percentileMicros(p) / 1000.0;
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    // Values below 16 get exact buckets; above that, the top 4 bits after the leading one pick the sub-bucket
+    static int indexOf(long v) {
+        if (v < SUB_COUNT) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v); // >= SUB_BITS
+        if (exp > MAX_EXPONENT) return (MAX_EXPONENT + 1) * SUB_COUNT - 1;
+        int sub = (int) ((v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    // Largest value that maps to bucket i
+    static long upperBound(int i) {
+        if (i < SUB_COUNT) return i;
+        int exp = i / SUB_COUNT + SUB_BITS - 1;
+        int sub = i % SUB_COUNT;
+        long base = (1L << exp) + ((long) sub << (exp - SUB_BITS));
+        return base + (1L << (exp - SUB_BITS)) - 1;
+    }
+}
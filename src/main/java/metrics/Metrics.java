@@ -0,0 +1,138 @@
+package metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide registry of API call metrics. Everything is lock-free (histograms, LongAdders,
+// a concurrent map of named counters) so APIService can record on every call without contention.
+//
+//   queue   - time spent waiting for the rate limiter
+//   network - time from sending the request to having the full response
+//   parse   - time to decode the response body
+//   total   - whole call as the caller sees it, including retries
+
+public class Metrics implements MetricsMBean {
+    private static final Metrics GLOBAL = new Metrics();
+    public static final String OBJECT_NAME = "writingassistant:type=Metrics";
+
+    private final LatencyHistogram queue = new LatencyHistogram();
+    private final LatencyHistogram network = new LatencyHistogram();
+    private final LatencyHistogram parse = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder promptTokens = new LongAdder();
+    private final LongAdder completionTokens = new LongAdder();
+    private final RateMeter tokenRate = new RateMeter();
+    private final RateMeter requestRate = new RateMeter();
+
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    public static Metrics global() { return GLOBAL; }
+
+    public LatencyHistogram queue() { return queue; }
+    public LatencyHistogram network() { return network; }
+    public LatencyHistogram parse() { return parse; }
+    public LatencyHistogram total() { return total; }
+
+    // Bumps a named counter, e.g. "mode.ACADEMIC", "status.429", "finish.MAX_TOKENS"
+    public void increment(String name) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    public long counter(String name) {
+        LongAdder a = counters.get(name);
+        return a == null ? 0 : a.sum();
+    }
+
+    // One finished call (after retries), as seen by the caller
+    public void callFinished(long totalNanos, boolean ok) {
+        total.recordNanos(totalNanos);
+        requests.increment();
+        requestRate.add(1);
+        if (!ok) failures.increment();
+    }
+
+    public void tokens(int prompt, int completion) {
+        promptTokens.add(Math.max(0, prompt));
+        completionTokens.add(Math.max(0, completion));
+        tokenRate.add(Math.max(0, prompt) + Math.max(0, completion));
+    }
+
+    // Registers this registry with the platform MBean server; safe to call more than once
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) server.registerMBean(this, name);
+        } catch (InstanceAlreadyExistsException ignored) {
+            // registered concurrently
+        } catch (JMException | SecurityException e) {
+            System.err.println("Metrics MBean not registered: " + e.getMessage());
+        }
+    }
+
+    @Override public long getRequests() { return requests.sum(); }
+    @Override public long getFailures() { return failures.sum(); }
+    @Override public double getTotalP50Ms() { return total.percentileMillis(50); }
+    @Override public double getTotalP99Ms() { return total.percentileMillis(99); }
+    @Override public double getQueueP50Ms() { return queue.percentileMillis(50); }
+    @Override public double getQueueP99Ms() { return queue.percentileMillis(99); }
+    @Override public double getNetworkP50Ms() { return network.percentileMillis(50); }
+    @Override public double getNetworkP99Ms() { return network.percentileMillis(99); }
+    @Override public double getParseP50Ms() { return parse.percentileMillis(50); }
+    @Override public double getParseP99Ms() { return parse.percentileMillis(99); }
+    @Override public long getPromptTokens() { return promptTokens.sum(); }
+    @Override public long getCompletionTokens() { return completionTokens.sum(); }
+    @Override public double getTokensPerSecond() { return tokenRate.perSecond(); }
+    @Override public double getRequestsPerSecond() { return requestRate.perSecond(); }
+
+    @Override
+    public String getCounters() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : countersSnapshot().entrySet()) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(e.getKey()).append('=').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    // Counters sorted by name
+    public Map<String, Long> countersSnapshot() {
+        Map<String, Long> out = new TreeMap<>();
+        counters.forEach((k, v) -> out.put(k, v.sum()));
+        return out;
+    }
+
+    @Override
+    public String dump() {
+        return String.format(
+                "requests=%d failures=%d | total p50=%.1fms p99=%.1fms | queue p50=%.1fms p99=%.1fms"
+                        + " | network p50=%.1fms p99=%.1fms | parse p50=%.2fms p99=%.2fms"
+                        + " | tokens in=%d out=%d (%.1f/s) | %s",
+                getRequests(), getFailures(), getTotalP50Ms(), getTotalP99Ms(), getQueueP50Ms(), getQueueP99Ms(),
+                getNetworkP50Ms(), getNetworkP99Ms(), getParseP50Ms(), getParseP99Ms(),
+                getPromptTokens(), getCompletionTokens(), getTokensPerSecond(), getCounters());
+    }
+
+    @Override
+    public void reset() {
+        queue.reset();
+        network.reset();
+        parse.reset();
+        total.reset();
+        requests.reset();
+        failures.reset();
+        promptTokens.reset();
+        completionTokens.reset();
+        counters.clear();
+    }
+}
@@ -0,0 +1,29 @@
+package metrics;
+
+// JMX view of the metrics registry (ObjectName writingassistant:type=Metrics).
+// Latencies are in milliseconds; rates are per second over the last minute.
+
+public interface MetricsMBean {
+    long getRequests();
+    long getFailures();
+
+    double getTotalP50Ms();
+    double getTotalP99Ms();
+    double getQueueP50Ms();
+    double getQueueP99Ms();
+    double getNetworkP50Ms();
+    double getNetworkP99Ms();
+    double getParseP50Ms();
+    double getParseP99Ms();
+
+    long getPromptTokens();
+    long getCompletionTokens();
+    double getTokensPerSecond();
+    double getRequestsPerSecond();
+
+    // "name=value" pairs for the per-mode, per-status and per-finishReason counters
+    String getCounters();
+
+    String dump();
+    void reset();
+}
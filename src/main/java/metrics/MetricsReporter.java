@@ -0,0 +1,67 @@
+package metrics;
+
+import model.APIClient;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Periodically writes the metrics registry out, either as a line on stderr or as a CSV row.
+// Controlled by METRICS_INTERVAL_SECONDS (0 = off) and METRICS_CSV (empty = log to stderr).
+
+public class MetricsReporter {
+    static final String CSV_HEADER = "timestamp,requests,failures,total_p50_ms,total_p99_ms,queue_p50_ms,queue_p99_ms,"
+            + "network_p50_ms,network_p99_ms,parse_p50_ms,parse_p99_ms,prompt_tokens,completion_tokens,tokens_per_s,requests_per_s";
+
+    private static final AtomicBoolean INSTALLED = new AtomicBoolean();
+
+    // Registers the MBean and starts the reporter described by config.properties, once per process
+    public static void installFromConfig(APIClient c) {
+        if (!INSTALLED.compareAndSet(false, true)) return;
+        Metrics.global().registerMBean();
+        if (c.metricsIntervalSeconds() > 0) {
+            String csv = c.metricsCsv();
+            start(Metrics.global(), c.metricsIntervalSeconds(), csv.isEmpty() ? null : Path.of(csv));
+        }
+    }
+
+    // csv == null logs to stderr instead
+    public static ScheduledExecutorService start(Metrics m, long intervalSeconds, Path csv) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(() -> {
+            try {
+                if (csv == null) System.err.println("[metrics] " + m.dump());
+                else appendCsv(m, csv);
+            } catch (IOException e) {
+                System.err.println("[metrics] could not write " + csv + ": " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        return timer;
+    }
+
+    static void appendCsv(Metrics m, Path csv) throws IOException {
+        boolean fresh = !Files.exists(csv) || Files.size(csv) == 0;
+        try (Writer w = Files.newBufferedWriter(csv, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (fresh) w.write(CSV_HEADER + "\n");
+            w.write(String.format(Locale.ROOT, "%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.2f,%.2f,%d,%d,%.2f,%.3f%n",
+                    Instant.now(), m.getRequests(), m.getFailures(), m.getTotalP50Ms(), m.getTotalP99Ms(),
+                    m.getQueueP50Ms(), m.getQueueP99Ms(), m.getNetworkP50Ms(), m.getNetworkP99Ms(),
+                    m.getParseP50Ms(), m.getParseP99Ms(), m.getPromptTokens(), m.getCompletionTokens(),
+                    m.getTokensPerSecond(), m.getRequestsPerSecond()));
+        }
+    }
+}
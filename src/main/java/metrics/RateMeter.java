@@ -0,0 +1,49 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+// Per-second rate over the last minute, kept in 60 one-second slots.
+// A slot is recycled the first time it is touched in a new second, so there is no background timer.
+
+public class RateMeter {
+    private static final int SLOTS = 60;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray seconds = new AtomicLongArray(SLOTS); // which second each slot holds
+    private final LongSupplier nanoClock;
+
+    public RateMeter() {
+        this(System::nanoTime);
+    }
+
+    // for unit tests that need to control time
+    RateMeter(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        long now = currentSecond();
+        for (int i = 0; i < SLOTS; i++) seconds.set(i, now - SLOTS);
+    }
+
+    public void add(long n) {
+        long sec = currentSecond();
+        int i = (int) Math.floorMod(sec, SLOTS);
+        long held = seconds.get(i);
+        // first writer in a new second resets the slot; a racing add may land in the old count, which is fine for a gauge
+        if (held != sec && seconds.compareAndSet(i, held, sec)) counts.set(i, 0);
+        counts.addAndGet(i, n);
+    }
+
+    // Average per second over the trailing minute
+    public double perSecond() {
+        long now = currentSecond();
+        long total = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            if (now - seconds.get(i) < SLOTS) total += counts.get(i);
+        }
+        return total / (double) SLOTS;
+    }
+
+    private long currentSecond() {
+        return Math.floorDiv(nanoClock.getAsLong(), 1_000_000_000L);
+    }
+}
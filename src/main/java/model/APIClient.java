@@ -3,9 +3,15 @@ package model;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import java.net.http.HttpClient;
+import java.nio.file.Path;
 
 // Class that manages configuration and HTTP setup for connecting to Gemini API
 
@@ -17,12 +23,52 @@ public final class APIClient {
     private final String model;
     private final String baseUrl;
     private final int maxTokens;
+    private final int maxOutputTokens;
     private final long minIntervalMs;
+    private final boolean streaming;
+    private final String rateLimiter;
+    private final double requestsPerMinute;
+    private final int burst;
+    private final long tokensPerMinute;
+    private final int cacheMaxEntries;
+    private final long cacheMaxBytes;
+    private final long cacheTtlSeconds;
+    private final boolean diskCacheEnabled;
+    private final String diskCacheDir;
+    private final long diskCacheMaxBytes;
+    private final long diskCacheTtlSeconds;
+    private final int retryMaxAttempts;
+    private final long retryBaseDelayMs;
+    private final long retryMaxDelayMs;
+    private final long requestDeadlineMs;
+    private final boolean hedgeEnabled;
+    private final long hedgeAfterMs;
+    private final int chunkMaxTokens;
+    private final int chunkConcurrency;
+    private final long attachmentCacheMaxBytes;
+    private final long metricsIntervalSeconds;
+    private final String metricsCsv;
+    private final List<String> writingStrategies;
+    private final boolean contextCacheEnabled;
+    private final long contextCacheTtlSeconds;
+    private final int contextCacheMinTokens;
+    private final List<String> apiKeys;
+    private final long keyEjectSeconds;
+    private final long keyForbiddenEjectSeconds;
+    private final List<String> models;
+    private final Map<String, List<String>> modelsByMode;
+    private final String lightModel;
+    private final int lightModelMaxInputTokens;
+    private final long modelCooldownSeconds;
+    private final boolean incrementalEnabled;
+    private final double incrementalMaxChangedFraction;
 
     // Loads API credentials and settings from environment or config.properties
 
     private APIClient() {
+        // HTTP/2 so every call (and the startup pre-warm) multiplexes over one pooled TLS connection
         this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
                 .connectTimeout(Duration.ofSeconds(30))
                 .build();
 
@@ -40,15 +86,78 @@ public final class APIClient {
         }
 
         // Loads values from config file or environment variables
-        this.apiKey = Optional.ofNullable(System.getenv("GEMINI_API_KEY"))
+        String singleKey = Optional.ofNullable(System.getenv("GEMINI_API_KEY"))
                 .orElse(p.getProperty("GEMINI_API_KEY", "")).trim();
         this.model = p.getProperty("GEMINI_MODEL", "gemini-2.5-flash").trim();
         this.baseUrl = p.getProperty("GEMINI_BASE_URL", "https://generativelanguage.googleapis.com").trim();
         this.maxTokens = Integer.parseInt(p.getProperty("GEMINI_MAX_TOKENS", "1024").trim());
+        // upper bound when maxTokens is sized up for long input
+        this.maxOutputTokens = Integer.parseInt(p.getProperty("GEMINI_MAX_OUTPUT_TOKENS", "16384").trim());
         this.minIntervalMs = Long.parseLong(p.getProperty("REQUEST_MIN_INTERVAL_MS", "1200").trim());
+        // Without explicit quotas the limiter falls back to REQUEST_MIN_INTERVAL_MS spacing with no bursts
+        this.rateLimiter = p.getProperty("RATE_LIMITER", "token-bucket").trim();
+        this.requestsPerMinute = Double.parseDouble(p.getProperty("GEMINI_RPM",
+                String.valueOf(minIntervalMs > 0 ? 60_000.0 / minIntervalMs : 0)).trim());
+        this.burst = Integer.parseInt(p.getProperty("GEMINI_BURST", "1").trim());
+        this.tokensPerMinute = Long.parseLong(p.getProperty("GEMINI_TPM", "0").trim());
+        this.streaming = Boolean.parseBoolean(p.getProperty("GEMINI_STREAMING", "true").trim());
+        this.cacheMaxEntries = Integer.parseInt(p.getProperty("CACHE_MAX_ENTRIES", "256").trim());
+        this.cacheMaxBytes = Long.parseLong(p.getProperty("CACHE_MAX_BYTES", "16777216").trim());
+        this.cacheTtlSeconds = Long.parseLong(p.getProperty("CACHE_TTL_SECONDS", "1800").trim());
+        this.diskCacheEnabled = Boolean.parseBoolean(p.getProperty("DISK_CACHE_ENABLED", "true").trim());
+        this.diskCacheDir = p.getProperty("DISK_CACHE_DIR",
+                Path.of(System.getProperty("user.home"), ".writing-assistant", "cache").toString()).trim();
+        this.diskCacheMaxBytes = Long.parseLong(p.getProperty("DISK_CACHE_MAX_BYTES", "67108864").trim());
+        this.diskCacheTtlSeconds = Long.parseLong(p.getProperty("DISK_CACHE_TTL_SECONDS", "604800").trim());
+        this.retryMaxAttempts = Integer.parseInt(p.getProperty("RETRY_MAX_ATTEMPTS", "4").trim());
+        this.retryBaseDelayMs = Long.parseLong(p.getProperty("RETRY_BASE_DELAY_MS", "500").trim());
+        this.retryMaxDelayMs = Long.parseLong(p.getProperty("RETRY_MAX_DELAY_MS", "20000").trim());
+        this.requestDeadlineMs = Long.parseLong(p.getProperty("REQUEST_DEADLINE_MS", "120000").trim());
+        // HEDGE_AFTER_MS=0 hedges at the observed p95 latency instead of a fixed delay
+        this.hedgeEnabled = Boolean.parseBoolean(p.getProperty("HEDGE_ENABLED", "false").trim());
+        this.hedgeAfterMs = Long.parseLong(p.getProperty("HEDGE_AFTER_MS", "0").trim());
+        this.chunkMaxTokens = Integer.parseInt(p.getProperty("CHUNK_MAX_TOKENS", "3000").trim());
+        this.chunkConcurrency = Integer.parseInt(p.getProperty("CHUNK_CONCURRENCY", "4").trim());
+        this.attachmentCacheMaxBytes = Long.parseLong(p.getProperty("ATTACHMENT_CACHE_MAX_BYTES", "33554432").trim());
+        this.metricsIntervalSeconds = Long.parseLong(p.getProperty("METRICS_INTERVAL_SECONDS", "0").trim());
+        this.metricsCsv = p.getProperty("METRICS_CSV", "").trim();
+        // extra WritingStrategy classes to offer as modes, comma-separated
+        this.writingStrategies = Arrays.stream(p.getProperty("WRITING_STRATEGIES", "").split(","))
+                .map(String::trim).filter(s -> !s.isEmpty()).toList();
+        // system prompts shorter than the API's minimum cacheable size are always sent inline
+        this.contextCacheEnabled = Boolean.parseBoolean(p.getProperty("CONTEXT_CACHE_ENABLED", "true").trim());
+        this.contextCacheTtlSeconds = Long.parseLong(p.getProperty("CONTEXT_CACHE_TTL_SECONDS", "3600").trim());
+        this.contextCacheMinTokens = Integer.parseInt(p.getProperty("CONTEXT_CACHE_MIN_TOKENS", "1024").trim());
+
+        // key pool: "key" or "key@https://endpoint" entries, comma-separated; defaults to GEMINI_API_KEY alone
+        String keys = Optional.ofNullable(System.getenv("GEMINI_API_KEYS"))
+                .orElse(p.getProperty("GEMINI_API_KEYS", "")).trim();
+        this.apiKeys = keys.isEmpty()
+                ? (singleKey.isEmpty() ? List.of() : List.of(singleKey))
+                : Arrays.stream(keys.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toList();
+        // apiKey() is the first pool key when only GEMINI_API_KEYS is set
+        this.apiKey = !singleKey.isEmpty() || apiKeys.isEmpty() ? singleKey : apiKeys.get(0).split("@", 2)[0].trim();
+        this.keyEjectSeconds = Long.parseLong(p.getProperty("KEY_EJECT_SECONDS", "30").trim());
+        this.keyForbiddenEjectSeconds = Long.parseLong(p.getProperty("KEY_FORBIDDEN_EJECT_SECONDS", "600").trim());
+        // model routing: ordered fallback lists, GEMINI_MODELS_<MODE> overriding GEMINI_MODELS for that mode
+        this.models = modelList(p.getProperty("GEMINI_MODELS", ""), model);
+        Map<String, List<String>> perMode = new HashMap<>();
+        for (String name : p.stringPropertyNames()) {
+            if (name.startsWith("GEMINI_MODELS_")) {
+                perMode.put(name.substring("GEMINI_MODELS_".length()).toUpperCase(Locale.ROOT),
+                        modelList(p.getProperty(name), model));
+            }
+        }
+        this.modelsByMode = Map.copyOf(perMode);
+        this.lightModel = p.getProperty("GEMINI_LIGHT_MODEL", "").trim();
+        this.lightModelMaxInputTokens = Integer.parseInt(p.getProperty("LIGHT_MODEL_MAX_INPUT_TOKENS", "400").trim());
+        this.modelCooldownSeconds = Long.parseLong(p.getProperty("MODEL_COOLDOWN_SECONDS", "15").trim());
+        // resubmits send only edited paragraphs unless more than this fraction of them changed
+        this.incrementalEnabled = Boolean.parseBoolean(p.getProperty("INCREMENTAL_ENABLED", "true").trim());
+        this.incrementalMaxChangedFraction = Double.parseDouble(p.getProperty("INCREMENTAL_MAX_CHANGED_FRACTION", "0.5").trim());
 
         if (apiKey.isEmpty()) {
-            throw new IllegalStateException("Missing GEMINI_API_KEY (env var or resources/config.properties).");
+            throw new IllegalStateException("Missing GEMINI_API_KEY or GEMINI_API_KEYS (env var or resources/config.properties).");
         }
     }
 
@@ -63,5 +172,49 @@ public final class APIClient {
     public String model() { return model; }
     public String baseUrl() { return baseUrl; }
     public int defaultMaxTokens() { return maxTokens; }
+    public int maxOutputTokens() { return maxOutputTokens; }
     public long minIntervalMs() { return minIntervalMs; }
+    public boolean streaming() { return streaming; }
+    public String rateLimiter() { return rateLimiter; }
+    public double requestsPerMinute() { return requestsPerMinute; }
+    public int burst() { return burst; }
+    public long tokensPerMinute() { return tokensPerMinute; }
+    public int cacheMaxEntries() { return cacheMaxEntries; }
+    public long cacheMaxBytes() { return cacheMaxBytes; }
+    public long cacheTtlSeconds() { return cacheTtlSeconds; }
+    public boolean diskCacheEnabled() { return diskCacheEnabled; }
+    public String diskCacheDir() { return diskCacheDir; }
+    public long diskCacheMaxBytes() { return diskCacheMaxBytes; }
+    public long diskCacheTtlSeconds() { return diskCacheTtlSeconds; }
+    public int retryMaxAttempts() { return retryMaxAttempts; }
+    public long retryBaseDelayMs() { return retryBaseDelayMs; }
+    public long retryMaxDelayMs() { return retryMaxDelayMs; }
+    public long requestDeadlineMs() { return requestDeadlineMs; }
+    public boolean hedgeEnabled() { return hedgeEnabled; }
+    public long hedgeAfterMs() { return hedgeAfterMs; }
+    public int chunkMaxTokens() { return chunkMaxTokens; }
+    public int chunkConcurrency() { return chunkConcurrency; }
+    public long attachmentCacheMaxBytes() { return attachmentCacheMaxBytes; }
+    public long metricsIntervalSeconds() { return metricsIntervalSeconds; }
+    public String metricsCsv() { return metricsCsv; }
+    public List<String> writingStrategies() { return writingStrategies; }
+    public boolean contextCacheEnabled() { return contextCacheEnabled; }
+    public long contextCacheTtlSeconds() { return contextCacheTtlSeconds; }
+    public int contextCacheMinTokens() { return contextCacheMinTokens; }
+    public List<String> apiKeys() { return apiKeys; }
+    public long keyEjectSeconds() { return keyEjectSeconds; }
+    public long keyForbiddenEjectSeconds() { return keyForbiddenEjectSeconds; }
+    public List<String> models() { return models; }
+    public Map<String, List<String>> modelsByMode() { return modelsByMode; }
+    public String lightModel() { return lightModel; }
+    public int lightModelMaxInputTokens() { return lightModelMaxInputTokens; }
+    public long modelCooldownSeconds() { return modelCooldownSeconds; }
+    public boolean incrementalEnabled() { return incrementalEnabled; }
+    public double incrementalMaxChangedFraction() { return incrementalMaxChangedFraction; }
+
+    // comma-separated model names; an empty list means just the fallback
+    private static List<String> modelList(String value, String fallback) {
+        List<String> list = Arrays.stream(value.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toList();
+        return list.isEmpty() ? List.of(fallback) : list;
+    }
 }
@@ -1,23 +1,55 @@
 package model;
 
 // Runtime exception used for handling API-related errors.
-// Stores both an error message and a HTTP status code (optional).
+// Stores an error message, a HTTP status code (optional) and what kind of failure it was.
 
 public class APIException extends RuntimeException {
+    // HTTP: the API answered with an error status. NETWORK: the exchange failed on I/O or timed out.
+    // CANCELLED: the caller gave up. OTHER: anything else (bad response body, deadline, internal errors).
+    public enum Kind { HTTP, NETWORK, CANCELLED, OTHER }
+
     private final int status;
+    private final long retryAfterMs; // server-requested wait before retrying, or -1 if none was given
+    private final Kind kind;
 
     // Creates an APIException with only a message
     public APIException(String message) {
+        this(Kind.OTHER, message);
+    }
+
+    // Creates an APIException of the given kind without a status code
+    public APIException(Kind kind, String message) {
         super(message);
         this.status = -1;
+        this.retryAfterMs = -1;
+        this.kind = kind;
     }
 
     // Creates an APIException with both a status code and a message
     public APIException(int status, String message) {
+        this(status, message, -1);
+    }
+
+    // Creates an APIException for a throttled or unavailable response that said when to retry
+    public APIException(int status, String message, long retryAfterMs) {
         super(message);
         this.status = status;
+        this.retryAfterMs = retryAfterMs;
+        this.kind = Kind.HTTP;
+    }
+
+    // The caller cancelled or was interrupted
+    public static APIException cancelled() {
+        return new APIException(Kind.CANCELLED, "Request cancelled");
     }
 
     // Returns the HTTP status code associated with this exception
     public int getStatus() { return status; }
+
+    // Returns the Retry-After hint in milliseconds, or -1 if the server didn't send one
+    public long getRetryAfterMs() { return retryAfterMs; }
+
+    public Kind getKind() { return kind; }
+
+    public boolean isCancelled() { return kind == Kind.CANCELLED; }
 }
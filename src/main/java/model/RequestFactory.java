@@ -1,8 +1,6 @@
 package model;
 
-import model.strategy.AcademicStrategy;
-import model.strategy.CreativeStrategy;
-import model.strategy.ProfessionalStrategy;
+import model.strategy.StrategyRegistry;
 import model.strategy.WritingStrategy;
 
 // Factory class that builds WritingRequest objects based on the selected WritingMode
@@ -10,21 +8,24 @@ import model.strategy.WritingStrategy;
 public class RequestFactory {
 
     public static WritingRequest build(WritingMode mode, String userText, int defaultMaxTokens) {
-        // Chooses the appropriate writing strategy based on the selected mode
-        WritingStrategy strategy = switch (mode) {
-            case CREATIVE -> new CreativeStrategy();
-            case PROFESSIONAL -> new ProfessionalStrategy();
-            case ACADEMIC -> new AcademicStrategy();
-        };
+        return build(mode, userText, defaultMaxTokens, 0);
+    }
+
+    // Sizes maxTokens from the local token estimate so long input isn't cut off at MAX_TOKENS:
+    // at least defaultMaxTokens, at most maxOutputTokens (0 keeps defaultMaxTokens as is)
+    public static WritingRequest build(WritingMode mode, String userText, int defaultMaxTokens, int maxOutputTokens) {
+        // Looks up the shared strategy registered for the selected mode
+        WritingStrategy strategy = StrategyRegistry.shared().get(mode);
 
         // Builds the request using the chosen strategy's parameters
         return new WritingRequest(
+                mode,
                 userText,
                 strategy.systemPrompt(),
                 strategy.temperature(),
                 strategy.topP(),
                 strategy.presencePenalty(),
-                defaultMaxTokens
+                TokenEstimator.shared().planMaxTokens(userText, defaultMaxTokens, maxOutputTokens)
         );
     }
 }
\ No newline at end of file
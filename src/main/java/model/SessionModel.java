@@ -36,6 +36,11 @@ public class SessionModel {
         this.responseText = newVal;
         pcs.firePropertyChange("responseText", old, newVal);
     }
+    // Streamed fragments are announced as they arrive; the full text still lands in setResponseText when done
+    public void appendResponseChunk(String chunk) {
+        if (chunk == null || chunk.isEmpty()) return;
+        pcs.firePropertyChange("responseChunk", null, chunk);
+    }
     public void setErrorMessage(String newVal) {
         String old = this.errorMessage;
         this.errorMessage = newVal;
@@ -0,0 +1,134 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fast local token estimate, so budgets can be decided before a request is sent.
+// The raw count is a single pass over the characters with no allocation: a word costs one token per
+// 6 letters (so most English words are one token), digits and punctuation one each, CJK characters one each, whitespace nothing.
+// Two factors are then calibrated from real usage reported by the API (exponentially weighted):
+// how real prompt tokens compare to the raw count, and how much output (including thinking) a
+// request produces per input token. Calibration starts neutral, so estimates work from the first call.
+
+public class TokenEstimator {
+    private static final TokenEstimator SHARED = new TokenEstimator();
+
+    private static final double ALPHA = 0.2;           // weight of each new observation
+    private static final double DEFAULT_OUTPUT_RATIO = 1.5;
+    private static final int OUTPUT_OVERHEAD = 300;   // tips list and template framing
+    private static final int MAX_TOKENS_STEP = 1024;  // smallest planned budget step
+
+    // doubles stored as raw long bits so updates can be CAS'd
+    private final AtomicLong promptScale = new AtomicLong(Double.doubleToLongBits(1.0));
+    private final AtomicLong outputRatio = new AtomicLong(Double.doubleToLongBits(DEFAULT_OUTPUT_RATIO));
+
+    public static TokenEstimator shared() { return SHARED; }
+
+    // Uncalibrated count
+    public static int rawCount(CharSequence s) {
+        if (s == null) return 0;
+        int tokens = 0;
+        int run = 0; // current letter run length
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 128 ? isAsciiLetter(c) : Character.isLetter(c) && !isCjk(c)) {
+                run++;
+                continue;
+            }
+            tokens += (run + 5) / 6;
+            run = 0;
+            if (c == ' ' || c == '\n' || c == '\t' || c == '\r') continue;
+            if (Character.isLowSurrogate(c)) continue; // counted with its high surrogate
+            tokens++; // digit, punctuation, CJK, emoji
+        }
+        return tokens + (run + 5) / 6;
+    }
+
+    public int estimate(CharSequence s) {
+        return (int) Math.ceil(rawCount(s) * get(promptScale));
+    }
+
+    // Prompt tokens for a request: user text plus system instruction
+    public int estimatePrompt(WritingRequest r) {
+        return (int) Math.ceil((rawCount(r.getUserText()) + rawCount(r.getSystemPrompt())) * get(promptScale));
+    }
+
+    // Output budget for a request: expected output plus 25% headroom, never below 'floor' or above 'ceiling'.
+    // A ceiling at or below the floor turns planning off and returns the floor.
+    // The budget goes up in doublings from the floor, so the calibrated ratio drifting a little doesn't
+    // change it and the same text keeps planning the same request (in-flight coalescing compares requests).
+    public int planMaxTokens(CharSequence userText, int floor, int ceiling) {
+        if (ceiling <= floor) return floor;
+        double needed = (estimate(userText) * get(outputRatio) + OUTPUT_OVERHEAD) * 1.25;
+        long planned = Math.max(floor, MAX_TOKENS_STEP);
+        while (planned < needed && planned < ceiling) planned <<= 1;
+        return (int) Math.max(floor, Math.min(ceiling, planned));
+    }
+
+    // Length of the longest prefix of s estimated to fit in maxTokens
+    public int prefixWithin(CharSequence s, int maxTokens) {
+        if (s == null) return 0;
+        double scale = get(promptScale);
+        int budget = (int) Math.floor(maxTokens / scale);
+        int tokens = 0;
+        int run = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            boolean letter = c < 128 ? isAsciiLetter(c) : Character.isLetter(c) && !isCjk(c);
+            int cost;
+            if (letter) {
+                cost = run % 6 == 0 ? 1 : 0; // every 6th letter of a word starts a new token
+                run++;
+            } else {
+                run = 0;
+                boolean free = c == ' ' || c == '\n' || c == '\t' || c == '\r' || Character.isLowSurrogate(c);
+                cost = free ? 0 : 1;
+            }
+            if (tokens + cost > budget) return i;
+            tokens += cost;
+        }
+        return s.length();
+    }
+
+    // Feeds the usage the API reported for a request back into the estimates
+    public void observe(WritingRequest req, WritingResponse resp) {
+        int raw = rawCount(req.getUserText()) + rawCount(req.getSystemPrompt());
+        int prompt = resp.getPromptTokens();
+        if (raw <= 0 || prompt <= 0) return;
+        update(promptScale, clamp((double) prompt / raw, 0.3, 4.0));
+
+        // total - prompt also counts thinking tokens, which share the maxOutputTokens budget
+        int output = resp.getTotalTokens() - prompt;
+        int user = estimate(req.getUserText());
+        if (output > 0 && user > 50 && "STOP".equals(resp.getFinishReason())) {
+            update(outputRatio, clamp(Math.max(0, output - OUTPUT_OVERHEAD) / (double) user, 0.2, 10.0));
+        }
+    }
+
+    public double promptScale() { return get(promptScale); }
+    public double outputRatio() { return get(outputRatio); }
+
+    private static void update(AtomicLong bits, double sample) {
+        long cur;
+        long next;
+        do {
+            cur = bits.get();
+            next = Double.doubleToLongBits(Double.longBitsToDouble(cur) * (1 - ALPHA) + sample * ALPHA);
+        } while (!bits.compareAndSet(cur, next));
+    }
+
+    private static double get(AtomicLong bits) {
+        return Double.longBitsToDouble(bits.get());
+    }
+
+    private static double clamp(double v, double lo, double hi) {
+        return Math.max(lo, Math.min(hi, v));
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '\'';
+    }
+
+    private static boolean isCjk(char c) {
+        return c >= 0x2E80 && c <= 0x9FFF || c >= 0xAC00 && c <= 0xD7AF || c >= 0xF900 && c <= 0xFAFF;
+    }
+}
@@ -1,5 +1,51 @@
 package model;
 
-public enum WritingMode {
-    CREATIVE, PROFESSIONAL, ACADEMIC
+import model.strategy.StrategyRegistry;
+import model.strategy.WritingStrategy;
+
+import java.util.Locale;
+
+// Name of a writing mode. The built-in modes are constants; any other mode comes from a strategy
+// registered in StrategyRegistry, so adding one needs no change here.
+// StrategyRegistry keeps one instance per registered id, so modes can still be compared with == as
+// when this was an enum, and names from config or batch input can't add modes that don't exist.
+
+public final class WritingMode {
+    public static final WritingMode CREATIVE = new WritingMode("CREATIVE");
+    public static final WritingMode PROFESSIONAL = new WritingMode("PROFESSIONAL");
+    public static final WritingMode ACADEMIC = new WritingMode("ACADEMIC");
+
+    private final String name;
+
+    private WritingMode(String name) {
+        this.name = name;
+    }
+
+    // The mode of a registered strategy (case-insensitive); IllegalArgumentException for any other name
+    public static WritingMode of(String name) {
+        WritingMode m = name == null ? null : StrategyRegistry.shared().mode(name);
+        if (m == null) throw new IllegalArgumentException("No writing mode " + name);
+        return m;
+    }
+
+    // Same as of, under the name it had when this was an enum
+    public static WritingMode valueOf(String name) {
+        return of(name);
+    }
+
+    // For StrategyRegistry, which calls this once per newly registered id; look modes up with of
+    public static WritingMode forStrategy(WritingStrategy s) {
+        String id = s.id().trim().toUpperCase(Locale.ROOT);
+        return switch (id) {
+            case "CREATIVE" -> CREATIVE;
+            case "PROFESSIONAL" -> PROFESSIONAL;
+            case "ACADEMIC" -> ACADEMIC;
+            default -> new WritingMode(id);
+        };
+    }
+
+    public String name() { return name; }
+
+    @Override
+    public String toString() { return name; }
 }
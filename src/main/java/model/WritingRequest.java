@@ -1,9 +1,12 @@
 package model;
 
+import java.util.Objects;
+
 // Represents a single request sent to the Gemini API
 // Holds all user input and AI configuration parameters
 
 public class WritingRequest {
+    private final WritingMode mode; // mode the request was built for (null when built directly)
     private final String userText; // user's input text
     private final String systemPrompt; // system's instructions guiding tone/style
     private final double temperature; // controls randomness
@@ -14,6 +17,13 @@ public class WritingRequest {
     // Initializes a new writing request with all require parameters.
     public WritingRequest(String userText, String systemPrompt, double temperature,
                           double topP, double presencePenalty, int maxTokens) {
+        this(null, userText, systemPrompt, temperature, topP, presencePenalty, maxTokens);
+    }
+
+    // Same as above, but remembers which writing mode produced the request
+    public WritingRequest(WritingMode mode, String userText, String systemPrompt, double temperature,
+                          double topP, double presencePenalty, int maxTokens) {
+        this.mode = mode;
         this.userText = userText;
         this.systemPrompt = systemPrompt;
         this.temperature = temperature;
@@ -23,10 +33,31 @@ public class WritingRequest {
     }
 
     // Getters for all requests fields
+    public WritingMode getMode() { return mode; }
     public String getUserText() { return userText; }
     public String getSystemPrompt() { return systemPrompt; }
     public double getTemperature() { return temperature; }
     public double getTopP() { return topP; }
     public double getPresencePenalty() { return presencePenalty; }
     public int getMaxTokens() { return maxTokens; }
+
+    // Two requests are equal when they would produce the same API call
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof WritingRequest)) return false;
+        WritingRequest r = (WritingRequest) o;
+        return mode == r.mode
+                && Double.compare(temperature, r.temperature) == 0
+                && Double.compare(topP, r.topP) == 0
+                && Double.compare(presencePenalty, r.presencePenalty) == 0
+                && maxTokens == r.maxTokens
+                && Objects.equals(userText, r.userText)
+                && Objects.equals(systemPrompt, r.systemPrompt);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mode, userText, systemPrompt, temperature, topP, presencePenalty, maxTokens);
+    }
 }
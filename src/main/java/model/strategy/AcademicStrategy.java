@@ -31,4 +31,6 @@ Rules:
     @Override public double presencePenalty() { return 0.0; }
     // Controls how much the AI avoids repeating ideas or topics.
     // Set to 0 since academic text should maintain consistency and depth.
+    @Override public boolean allowsLightModel() { return false; }
+    // Academic feedback stays on the full model even for short input, where precision matters more than speed.
 }
@@ -0,0 +1,107 @@
+package model.strategy;
+
+import model.APIClient;
+import model.WritingMode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Writing strategies by mode name, so adding a mode means adding a strategy rather than editing
+// WritingMode, RequestFactory and the Mode menu.
+// The built-in strategies are always registered; more are discovered with ServiceLoader
+// (META-INF/services/model.strategy.WritingStrategy) and loaded from the class names in WRITING_STRATEGIES.
+// Strategies are shared singletons, which lets the request encoder keep one pre-encoded template per strategy.
+
+public final class StrategyRegistry {
+    private static final StrategyRegistry SHARED = discover();
+    private static final AtomicBoolean CONFIGURED = new AtomicBoolean();
+
+    // replaced as a whole on registration, so lookups never lock; insertion order is menu order
+    private volatile Map<String, Registered> byId = Map.of();
+
+    // A strategy and the WritingMode instance for its id, which outlives re-registrations of the id
+    private record Registered(WritingStrategy strategy, WritingMode mode) {}
+
+    // Only the built-in strategies; for tests
+    StrategyRegistry() {
+        register(new CreativeStrategy());
+        register(new ProfessionalStrategy());
+        register(new AcademicStrategy());
+    }
+
+    public static StrategyRegistry shared() { return SHARED; }
+
+    private static StrategyRegistry discover() {
+        StrategyRegistry r = new StrategyRegistry();
+        Iterator<WritingStrategy> it = ServiceLoader.load(WritingStrategy.class).iterator();
+        while (true) {
+            try {
+                if (!it.hasNext()) break;
+                r.register(it.next());
+            } catch (ServiceConfigurationError e) {
+                System.err.println("[strategies] skipping provider: " + e.getMessage());
+            }
+        }
+        return r;
+    }
+
+    // Loads the strategies listed in WRITING_STRATEGIES, once per process
+    public static void installFromConfig(APIClient c) {
+        if (!CONFIGURED.compareAndSet(false, true)) return;
+        for (String className : c.writingStrategies()) SHARED.register(instantiate(className));
+    }
+
+    static WritingStrategy instantiate(String className) {
+        try {
+            Object o = Class.forName(className).getDeclaredConstructor().newInstance();
+            if (o instanceof WritingStrategy s) return s;
+            throw new IllegalStateException(className + " does not implement WritingStrategy");
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load writing strategy " + className + ": " + e, e);
+        }
+    }
+
+    // A strategy with the same id replaces the earlier one, so config can override a built-in mode
+    public synchronized void register(WritingStrategy s) {
+        String id = s.id().trim().toUpperCase(Locale.ROOT);
+        Registered old = byId.get(id);
+        Map<String, Registered> next = new LinkedHashMap<>(byId);
+        next.put(id, new Registered(s, old != null ? old.mode() : WritingMode.forStrategy(s)));
+        byId = next;
+    }
+
+    // null when no strategy is registered under that name
+    public WritingStrategy find(String id) {
+        Registered r = lookup(id);
+        return r == null ? null : r.strategy();
+    }
+
+    // The mode for a registered id, or null; backs WritingMode.of
+    public WritingMode mode(String id) {
+        Registered r = lookup(id);
+        return r == null ? null : r.mode();
+    }
+
+    public WritingStrategy get(WritingMode mode) {
+        Registered r = byId.get(mode.name());
+        if (r == null) throw new IllegalArgumentException("No strategy registered for mode " + mode);
+        return r.strategy();
+    }
+
+    public List<WritingStrategy> all() {
+        List<WritingStrategy> all = new ArrayList<>(byId.size());
+        for (Registered r : byId.values()) all.add(r.strategy());
+        return all;
+    }
+
+    private Registered lookup(String id) {
+        return id == null ? null : byId.get(id.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -1,5 +1,7 @@
 package model.strategy;
 
+import java.util.Locale;
+
 // Defines the structure for the different strategies used in the writing modes
 
 public interface WritingStrategy {
@@ -12,4 +14,20 @@ public interface WritingStrategy {
     double presencePenalty();
     // Controls how much the Ai avoids repeating ideas/phrases
     // Positive values = encourages novelty, zero = consistent output
+
+    // Whether short inputs may go to the lighter, cheaper model (GEMINI_LIGHT_MODEL) when one is configured
+    default boolean allowsLightModel() { return true; }
+
+    // Mode name the strategy is registered under; CreativeStrategy -> "CREATIVE"
+    default String id() {
+        String n = getClass().getSimpleName();
+        if (n.endsWith("Strategy") && n.length() > 8) n = n.substring(0, n.length() - 8);
+        return n.toUpperCase(Locale.ROOT);
+    }
+
+    // Name shown in the Mode menu; "CREATIVE" -> "Creative"
+    default String label() {
+        String id = id();
+        return id.charAt(0) + id.substring(1).toLowerCase(Locale.ROOT);
+    }
 }
@@ -1,194 +1,646 @@
 package service;
 
+import metrics.Metrics;
+import metrics.MetricsReporter;
 import model.*;
+import model.strategy.StrategyRegistry;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 // Handles communication with Gemini API
 // Builds requests, sends them, and parses responses into WritingResponse objects
 
 public class APIService {
     private final HttpClient http;
-    private final String apiKey;
-    private final String modelName;
-    private final String baseUrl;
-    private final long minIntervalMs;
 
-    // Rate limiting
-    private final Object rateLock = new Object();
-    private long lastCallEpochMs = 0L;
+    // Which model each attempt goes to, from latency and error profiles per model
+    private final ModelRouter router;
+
+    // API keys with their endpoints, rate limits (requests and estimated tokens per minute),
+    // context caches and health; each exchange goes to the least-loaded healthy key
+    private final KeyPool keys;
+
+    // Retries, deadline and hedging; latencies of successful attempts feed the hedge threshold
+    private final RetryPolicy retryPolicy;
+    private final LatencyTracker latencies;
+
+    // Call latencies, status codes, finish reasons and token counts (also visible over JMX)
+    private static final Metrics METRICS = Metrics.global();
+
+    // "retryDelay": "12s" inside a google.rpc.RetryInfo error detail
+    private static final Pattern RETRY_DELAY = Pattern.compile("\"retryDelay\"\\s*:\\s*\"(\\d+(?:\\.\\d+)?)s\"");
+
+    // Identical requests issued while one is already in flight share its result
+    private final SingleFlight<WritingRequest, WritingResponse> inFlight = new SingleFlight<>();
 
     public APIService() {
         APIClient c = APIClient.getInstance();
         this.http = c.http();
-        this.apiKey = c.apiKey();
-        this.modelName = c.model();
-        this.baseUrl = c.baseUrl();
-        this.minIntervalMs = c.minIntervalMs();
+        this.router = ModelRouter.fromConfig(c);
+        this.keys = KeyPool.fromConfig(c);
+        this.retryPolicy = RetryPolicy.fromConfig(c);
+        this.latencies = new LatencyTracker(128);
+        MetricsReporter.installFromConfig(c);
+        StrategyRegistry.installFromConfig(c);
     }
 
     // for unit tests
     public APIService(HttpClient http, String apiKey, String modelName, String baseUrl, long minIntervalMs) {
+        this(http, apiKey, modelName, baseUrl, RateLimiter.fixedInterval(minIntervalMs));
+    }
+
+    public APIService(HttpClient http, String apiKey, String modelName, String baseUrl, RateLimiter rateLimiter) {
+        this(http, apiKey, modelName, baseUrl, rateLimiter, RetryPolicy.none());
+    }
+
+    public APIService(HttpClient http, String apiKey, String modelName, String baseUrl,
+                      RateLimiter rateLimiter, RetryPolicy retryPolicy) {
+        this(http, apiKey, modelName, baseUrl, rateLimiter, retryPolicy, null);
+    }
+
+    public APIService(HttpClient http, String apiKey, String modelName, String baseUrl,
+                      RateLimiter rateLimiter, RetryPolicy retryPolicy, ContextCache contextCache) {
+        this(http, modelName, KeyPool.single(apiKey, baseUrl, Objects.requireNonNull(rateLimiter), contextCache), retryPolicy);
+    }
+
+    public APIService(HttpClient http, String modelName, KeyPool keys, RetryPolicy retryPolicy) {
+        this(http, ModelRouter.single(modelName), keys, retryPolicy);
+    }
+
+    public APIService(HttpClient http, ModelRouter router, KeyPool keys, RetryPolicy retryPolicy) {
         this.http = Objects.requireNonNull(http);
-        this.apiKey = apiKey;
-        this.modelName = modelName;
-        this.baseUrl = baseUrl;
-        this.minIntervalMs = minIntervalMs;
+        this.router = Objects.requireNonNull(router);
+        this.keys = Objects.requireNonNull(keys);
+        this.retryPolicy = Objects.requireNonNull(retryPolicy);
+        this.latencies = new LatencyTracker(128);
+    }
+
+    // for decorators that wrap another service and reuse its configuration
+    protected APIService(APIService other) {
+        this.http = other.http;
+        this.router = other.router;
+        this.keys = other.keys;
+        this.retryPolicy = other.retryPolicy;
+        this.latencies = other.latencies;
     }
 
     // Sends a text-generation request to Gemini and returns the parsed response
     public WritingResponse generateText(WritingRequest req) {
-        enforceRateLimit();
-        try {
-            // Build request URL
-            String url = baseUrl + "/v1/models/" + modelName
-                    + ":generateContent?key=" + URLEncoder.encode(apiKey, StandardCharsets.UTF_8);
+        return await(generateTextAsync(req));
+    }
 
-            // Prepare HTTP request body
-            String bodyJson = buildGeminiJson(req);
+    // Non-blocking variant of generateText. The rate-limit wait is scheduled rather than slept,
+    // and the exchange runs on HttpClient.sendAsync, so no thread is held while waiting.
+    // Failures complete the future with an APIException (wrapped in a CompletionException by join()).
+    // Concurrent calls with an equal WritingRequest share one HTTP call and one rate-limit slot.
+    public CompletableFuture<WritingResponse> generateTextAsync(WritingRequest req) {
+        return inFlight.execute(req, () -> send(req));
+    }
 
-            // Build and send request
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .timeout(Duration.ofSeconds(60))
-                    .header("Content-Type", "application/json; charset=utf-8")
-                    .POST(HttpRequest.BodyPublishers.ofString(bodyJson, StandardCharsets.UTF_8))
-                    .build();
+    // Number of distinct requests currently being generated
+    public int inFlightCount() { return inFlight.inFlight(); }
 
-            HttpResponse<String> resp = http.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    // Runs attempts until one succeeds, the error isn't retryable, attempts run out or the deadline passes.
+    // Cancelling the returned future cancels whichever attempt or backoff timer is current.
+    private CompletableFuture<WritingResponse> send(WritingRequest req) {
+        long started = System.nanoTime();
+        METRICS.increment("mode." + (req.getMode() == null ? "OTHER" : req.getMode()));
+        CompletableFuture<WritingResponse> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<?>> current = new AtomicReference<>();
+        long deadlineMs = retryPolicy.deadlineMs();
+        long deadline = deadlineMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs) : Long.MAX_VALUE;
 
-            // Throw error
-            if (resp.statusCode() / 100 != 2) {
-                throw new APIException(resp.statusCode(), "Gemini error " + resp.statusCode() + ": " + resp.body());
-            }
-            // Parse and return response
-            return parseGeminiResponse(resp.body());
-        } catch (APIException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new APIException("Network error: " + e.getMessage());
+        if (deadlineMs > 0) {
+            ScheduledFuture<?> timer = ServiceExecutors.schedule(
+                    () -> result.completeExceptionally(timedOut(deadlineMs)), deadlineMs, TimeUnit.MILLISECONDS);
+            result.whenComplete((r, ex) -> timer.cancel(false)); // finished calls don't keep the timer (and result) around
         }
+        result.whenComplete((r, ex) -> {
+            CompletableFuture<?> c = current.get();
+            if (ex != null && c != null) c.cancel(true); // cancelled or timed out: stop the running attempt
+            METRICS.callFinished(System.nanoTime() - started, ex == null);
+        });
+
+        attempt(req, 1, deadline, result, current);
+        return result;
     }
 
-    // Rate limiting
-    private void enforceRateLimit() {
-        synchronized (rateLock) {
-            long now = System.currentTimeMillis();
-            long wait = (lastCallEpochMs + minIntervalMs) - now;
-            if (wait > 0) {
-                try { Thread.sleep(wait); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); }
+    private void attempt(WritingRequest req, int n, long deadline, CompletableFuture<WritingResponse> result,
+                         AtomicReference<CompletableFuture<?>> current) {
+        if (result.isDone()) return;
+        CompletableFuture<WritingResponse> a = hedged(req, deadline);
+        current.set(a);
+        if (result.isDone()) {
+            a.cancel(true);
+            return;
+        }
+        a.whenComplete((r, ex) -> {
+            if (ex == null) {
+                result.complete(r);
+                return;
             }
-            lastCallEpochMs = System.currentTimeMillis();
+            APIException err = asAPIException(ex);
+            long delay = failoverOrBackoff(req, n, err);
+            if (delay < 0 || result.isDone()
+                    || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) >= deadline) {
+                result.completeExceptionally(err);
+                return;
+            }
+            METRICS.increment("retries");
+            CompletableFuture<Void> backoff = CompletableFuture.runAsync(() -> { },
+                    CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, ServiceExecutors.virtualThreads()));
+            current.set(backoff);
+            if (result.isDone()) backoff.cancel(true);
+            backoff.thenRun(() -> attempt(req, n + 1, deadline, result, current));
+        });
+    }
+
+    // One attempt, optionally hedged: if it is still running after the hedge delay (p95 of recent
+    // latencies by default), a second identical exchange is started and whichever succeeds first wins.
+    // The loser is cancelled; the attempt only fails once every exchange it started has failed.
+    private CompletableFuture<WritingResponse> hedged(WritingRequest req, long deadline) {
+        long start = System.nanoTime();
+        long hedgeAfter = retryPolicy.hedgeDelayMs(latencies);
+        CompletableFuture<WritingResponse> winner = new CompletableFuture<>();
+        CompletableFuture<WritingResponse> primary = sendOnce(req, deadline);
+        AtomicReference<CompletableFuture<WritingResponse>> backup = new AtomicReference<>();
+        AtomicInteger pending = new AtomicInteger(1);
+
+        Consumer<CompletableFuture<WritingResponse>> race = f -> f.whenComplete((r, ex) -> {
+            if (ex == null) {
+                if (winner.complete(r)) latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } else if (pending.decrementAndGet() == 0) {
+                winner.completeExceptionally(ex);
+            }
+        });
+        race.accept(primary);
+
+        if (hedgeAfter >= 0) {
+            CompletableFuture.delayedExecutor(hedgeAfter, TimeUnit.MILLISECONDS, ServiceExecutors.virtualThreads())
+                    .execute(() -> {
+                        // only hedge while the primary is still the sole live exchange
+                        if (winner.isDone() || !pending.compareAndSet(1, 2)) return;
+                        METRICS.increment("hedges");
+                        CompletableFuture<WritingResponse> b = sendOnce(req, deadline);
+                        backup.set(b);
+                        race.accept(b);
+                        if (winner.isDone()) b.cancel(true);
+                    });
         }
+
+        winner.whenComplete((r, ex) -> {
+            primary.cancel(true); // no-op for the one that already finished
+            CompletableFuture<WritingResponse> b = backup.get();
+            if (b != null) b.cancel(true);
+        });
+        return winner;
     }
 
-    // Escapes special character for JSON string building
-    private static String escape(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\r", "\\r")
-                .replace("\n", "\\n")
-                .replace("\t", "\\t");
-    }
-
-    // Builds the request body sent to Gemini
-    private String buildGeminiJson(WritingRequest r) {
-        String sys = escape(r.getSystemPrompt());
-        String usr = escape(r.getUserText());
-        String merged = sys + "\\n\\n" + usr;
-
-        return "{"
-                + "\"contents\":[{\"role\":\"user\",\"parts\":[{\"text\":\"" + merged + "\"}]}],"
-                + "\"generationConfig\":{"
-                + "\"candidateCount\":1,"
-                + "\"temperature\":" + r.getTemperature() + ","
-                + "\"topP\":" + r.getTopP() + ","
-                + "\"maxOutputTokens\":" + r.getMaxTokens()
-                + "}"
-                + "}";
-    }
-
-    // Parses Gemini's JSON response into a WritingResponse object
-    private WritingResponse parseGeminiResponse(String json) {
-        if (json == null || json.isBlank()) {
-            throw new APIException("Empty response from API");
+    // Wait before attempt n + 1, or -1 to give up. A key that was just ejected for a 429 or 403, or a
+    // model that was just cooled down for a 429 or 5xx, is failed over straight away (a bounded number
+    // of times) instead of backing off.
+    private long failoverOrBackoff(WritingRequest req, int n, APIException err) {
+        if (n <= keys.size() && keys.failsOver(err)) {
+            METRICS.increment("keys.failover");
+            return 0;
         }
-        if (json.contains("\"error\"")) {
-            throw new APIException("API returned error JSON: " + json);
+        if (n <= router.candidates(req).size() && router.failsOver(req, err)) {
+            METRICS.increment("models.failover");
+            return 0;
         }
+        return retryPolicy.delayBeforeRetry(n, err);
+    }
+
+    // Time left before a System.nanoTime() deadline, or 0 for none
+    private static long budgetMs(long deadline) {
+        if (deadline == Long.MAX_VALUE) return 0;
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    // One attempt's exchange on the routed model and the least-loaded healthy key; its outcome feeds
+    // that key's health
+    private CompletableFuture<WritingResponse> sendOnce(WritingRequest req, long deadline) {
+        String model = router.route(req, budgetMs(deadline));
+        KeyPool.Lane lane = keys.acquire();
+        CompletableFuture<WritingResponse> f = sendOnce(lane, model, req);
+        // the key is released before anyone waiting on the attempt sees its outcome
+        CompletableFuture<WritingResponse> released = f.whenComplete((r, ex) ->
+                keys.release(lane, ex == null ? null : asAPIException(ex)));
+        released.whenComplete((r, ex) -> {
+            if (released.isCancelled()) f.cancel(true);
+        });
+        return released;
+    }
+
+    // Refers to the cached system prompt when the key has a live cache entry. If the API no longer
+    // knows that entry (expired or evicted), the call is resent once with the prompt inline; that
+    // resend is part of the same attempt rather than a retry.
+    private CompletableFuture<WritingResponse> sendOnce(KeyPool.Lane lane, String model, WritingRequest req) {
+        ContextCache contextCache = lane.contextCache();
+        String cached = contextCache == null ? null : contextCache.lookup(req, model);
+        if (cached == null) return exchange(lane, model, req, null);
+
+        CompletableFuture<WritingResponse> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<WritingResponse>> current = new AtomicReference<>(exchange(lane, model, req, cached));
+        current.get().whenComplete((r, ex) -> {
+            if (ex == null) {
+                result.complete(r);
+                return;
+            }
+            APIException err = asAPIException(ex);
+            if (result.isDone() || !contextCache.rejected(cached, err)) {
+                result.completeExceptionally(err);
+                return;
+            }
+            METRICS.increment("context_cache.fallback");
+            CompletableFuture<WritingResponse> inline = exchange(lane, model, req, null);
+            current.set(inline);
+            if (result.isDone()) inline.cancel(true);
+            inline.whenComplete((r2, ex2) -> {
+                if (ex2 == null) result.complete(r2);
+                else result.completeExceptionally(asAPIException(ex2));
+            });
+        });
+        result.whenComplete((r, ex) -> {
+            if (result.isCancelled()) current.get().cancel(true);
+        });
+        return result;
+    }
+
+    // One rate-limited exchange, whose latency or failure goes into the model's profile. Cancelling the
+    // returned future gives back a slot that hasn't been reached yet and aborts the HTTP exchange if it
+    // has already started.
+    private CompletableFuture<WritingResponse> exchange(KeyPool.Lane lane, String model, WritingRequest req, String cachedContent) {
+        RateLimiter rateLimiter = lane.rateLimiter();
+        long cost = estimateCost(req);
+        long queued = System.nanoTime();
+        long[] sent = { 0L };
+        CompletableFuture<WritingResponse> result = new CompletableFuture<>();
+        RateLimiter.Reservation slot = rateLimiter.reserveSlot(cost);
+        CompletableFuture<Void> gate = RateLimiter.waitFor(slot);
+        AtomicReference<CompletableFuture<?>> exchange = new AtomicReference<>();
+
+        gate.thenCompose(v -> {
+                    if (result.isDone()) return CompletableFuture.<HttpResponse<byte[]>>failedFuture(new CancellationException());
+                    sent[0] = System.nanoTime();
+                    METRICS.queue().recordNanos(sent[0] - queued);
+                    CompletableFuture<HttpResponse<byte[]>> x = http.sendAsync(buildRequest(lane, model, req, cachedContent), HttpResponse.BodyHandlers.ofByteArray());
+                    exchange.set(x);
+                    if (result.isDone()) x.cancel(true); // cancelled while we were starting it
+                    return x;
+                })
+                .thenApply(resp -> {
+                    METRICS.network().recordNanos(System.nanoTime() - sent[0]);
+                    return settle(rateLimiter, slot, req, cost, handleResponse(resp));
+                })
+                .whenComplete((r, ex) -> {
+                    if (ex == null) {
+                        router.record(model, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent[0]), null);
+                        result.complete(r);
+                        return;
+                    }
+                    APIException err = asAPIException(ex);
+                    if (!result.isCancelled()) {
+                        if (err.getKind() == APIException.Kind.NETWORK) METRICS.increment("status.network");
+                        router.record(model, 0, err);
+                    }
+                    result.completeExceptionally(err);
+                });
+
+        result.whenComplete((r, ex) -> {
+            if (!result.isCancelled()) return;
+            if (gate.cancel(true)) rateLimiter.refund(slot, 1, cost); // never reached its slot
+            CompletableFuture<?> x = exchange.get();
+            if (x != null) x.cancel(true);
+        });
+        return result;
+    }
+
+    // Builds the generateContent HTTP request
+    private HttpRequest buildRequest(KeyPool.Lane lane, String model, WritingRequest req, String cachedContent) {
+        // Build request URL
+        String url = endpoint(lane, model, ":generateContent?", cachedContent);
 
-        String text = findFirst(
-                json,
-                "\"candidates\"\\s*:\\s*\\[\\s*\\{[^}]*?\"content\"\\s*:\\s*\\{[^}]*?\"parts\"\\s*:\\s*\\[\\s*\\{\\s*\"text\"\\s*:\\s*\"(.*?)\"",
-                Pattern.DOTALL);
+        // Prepare HTTP request body
+        byte[] body = GeminiRequestEncoder.encode(req, cachedContent);
 
-        // fallbacks
-        if (text == null) {
-            text = findFirst(json, "\"parts\"\\s*:\\s*\\[\\s*\\{[^}]*?\"text\"\\s*:\\s*\"(.*?)\"", Pattern.DOTALL);
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json; charset=utf-8")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+
+    // cachedContent is a v1beta feature, so calls that use it go to the v1beta endpoint
+    private String endpoint(KeyPool.Lane lane, String model, String methodAndQuery, String cachedContent) {
+        return lane.baseUrl() + (cachedContent == null ? "/v1/models/" : "/v1beta/models/") + model
+                + methodAndQuery + "key=" + URLEncoder.encode(lane.apiKey(), StandardCharsets.UTF_8);
+    }
+
+    // Turns an HTTP response into a WritingResponse, or throws for non-2xx statuses
+    private WritingResponse handleResponse(HttpResponse<byte[]> resp) {
+        METRICS.increment("status." + resp.statusCode());
+        // Throw error
+        if (resp.statusCode() / 100 != 2) {
+            String body = new String(resp.body(), StandardCharsets.UTF_8);
+            throw new APIException(resp.statusCode(), "Gemini error " + resp.statusCode() + ": " + body,
+                    retryAfterMs(resp, body));
         }
-        if (text == null) {
-            text = findFirst(json, "\"text\"\\s*:\\s*\"(.*?)\"", Pattern.DOTALL);
+        // Parse and return response
+        long t0 = System.nanoTime();
+        WritingResponse parsed = GeminiResponseParser.parse(resp.body());
+        METRICS.parse().recordNanos(System.nanoTime() - t0);
+        return parsed;
+    }
+
+    // Server's hint for when to retry: the Retry-After header (seconds or HTTP-date), else RetryInfo in the body
+    static long retryAfterMs(HttpResponse<?> resp, String body) {
+        String h = resp.headers().firstValue("Retry-After").orElse(null);
+        if (h != null) {
+            try {
+                return Math.max(0, Long.parseLong(h.trim()) * 1000L);
+            } catch (NumberFormatException notSeconds) {
+                try {
+                    ZonedDateTime at = ZonedDateTime.parse(h.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                    return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis());
+                } catch (Exception ignored) {
+                    // fall through to the body
+                }
+            }
+        }
+        if (body != null) {
+            Matcher m = RETRY_DELAY.matcher(body);
+            if (m.find()) return (long) (Double.parseDouble(m.group(1)) * 1000);
+        }
+        return -1;
+    }
+
+    // Unwraps CompletionException layers and maps anything that isn't already an APIException.
+    // Only I/O failures count as network errors; bugs such as an NPE are not something to retry.
+    public static APIException asAPIException(Throwable ex) {
+        Throwable t = ex;
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        if (t instanceof UncheckedIOException && t.getCause() != null) t = t.getCause();
+        if (t instanceof APIException api) return api;
+        if (t instanceof CancellationException || t instanceof InterruptedException) return APIException.cancelled();
+        // HttpTimeoutException is an IOException too
+        if (t instanceof IOException) return new APIException(APIException.Kind.NETWORK, "Network error: " + t.getMessage());
+        return new APIException("Internal error: " + t);
+    }
+
+    // Streams a generation from Gemini over SSE, handing each text fragment to onChunk as it arrives.
+    // Returns the full response once the stream ends. If an identical request is already in flight,
+    // this caller waits for it instead and receives the whole text as a single chunk.
+    public WritingResponse generateTextStream(WritingRequest req, Consumer<String> onChunk) {
+        boolean[] leader = { false };
+        CompletableFuture<WritingResponse> shared = inFlight.execute(req, () -> {
+            leader[0] = true;
+            return ServiceExecutors.supplyInterruptibly(() -> stream(req, onChunk));
+        });
+        WritingResponse resp = await(shared);
+        if (!leader[0] && onChunk != null) onChunk.accept(resp.getText());
+        return resp;
+    }
+
+    // Blocks for a shared future and rethrows its failure as an APIException.
+    // Interrupting the waiting thread detaches it from the shared call (cancelling the call if it was the last waiter).
+    private static WritingResponse await(CompletableFuture<WritingResponse> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException ie) {
+            f.cancel(true);
+            Thread.currentThread().interrupt();
+            throw APIException.cancelled();
+        } catch (CancellationException e) {
+            throw APIException.cancelled();
+        } catch (ExecutionException e) {
+            throw asAPIException(e);
         }
+    }
 
-        String finish = findFirst(json, "\"finishReason\"\\s*:\\s*\"(.*?)\"", 0);
-        if (finish == null) finish = "";
-
-        // token metadata
-        int pt = parseInt(json, "\"promptTokenCount\"\\s*:\\s*(\\d+)");
-        int ct = parseInt(json, "\"candidatesTokenCount\"\\s*:\\s*(\\d+)");
-        int tt = parseInt(json, "\"totalTokenCount\"\\s*:\\s*(\\d+)");
-        if (pt == 0 || ct == 0 || tt == 0) {
-            pt = Math.max(pt, parseInt(json, "\"inputTokenCount\"\\s*:\\s*(\\d+)"));
-            ct = Math.max(ct, parseInt(json, "\"outputTokenCount\"\\s*:\\s*(\\d+)"));
-            if (tt == 0 && (pt > 0 || ct > 0)) tt = pt + ct;
+    // Retries failed streams the same way as send(), but only while nothing has been delivered yet:
+    // once a chunk has reached the caller, a retry would repeat text, so the error is surfaced instead.
+    private WritingResponse stream(WritingRequest req, Consumer<String> onChunk) {
+        long started = System.nanoTime();
+        METRICS.increment("mode." + (req.getMode() == null ? "OTHER" : req.getMode()));
+        boolean ok = false;
+        try {
+            WritingResponse resp = streamWithRetries(req, onChunk);
+            ok = true;
+            return resp;
+        } finally {
+            METRICS.callFinished(System.nanoTime() - started, ok);
         }
+    }
 
-        // safety
-        if (text == null || text.isEmpty()) {
-            String block = findFirst(json, "\"blockReason\"\\s*:\\s*\"(.*?)\"", 0);
-            if (block != null) {
-                return new WritingResponse("[Response blocked by safety: " + block + "]", finish, pt, ct, tt);
+    private WritingResponse streamWithRetries(WritingRequest req, Consumer<String> onChunk) {
+        long deadlineMs = retryPolicy.deadlineMs();
+        long deadline = deadlineMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs) : Long.MAX_VALUE;
+        boolean[] delivered = { false };
+        Consumer<String> tracking = onChunk == null ? null : piece -> {
+            delivered[0] = true;
+            onChunk.accept(piece);
+        };
+        for (int n = 1; ; n++) {
+            try {
+                return streamOnce(req, tracking, deadline);
+            } catch (APIException e) {
+                long delay = delivered[0] ? -1 : failoverOrBackoff(req, n, e);
+                if (delay < 0 || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) >= deadline) throw e;
+                METRICS.increment("retries");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw APIException.cancelled();
+                }
             }
-            if ("MAX_TOKENS".equals(finish)) {
-                return new WritingResponse(
-                        "[Model stopped early (MAX_TOKENS) and returned no text. Increase GEMINI_MAX_OUTPUT_TOKENS in config.]",
-                        finish, pt, ct, tt);
+        }
+    }
+
+    // Like sendOnce: picks a key, and a stream rejected for its cached content is reopened once with the
+    // prompt inline (the rejection arrives as an error status, before any chunk has been delivered)
+    private WritingResponse streamOnce(WritingRequest req, Consumer<String> onChunk, long deadline) {
+        String model = router.route(req, budgetMs(deadline));
+        KeyPool.Lane lane = keys.acquire();
+        APIException failure = null;
+        try {
+            ContextCache contextCache = lane.contextCache();
+            String cached = contextCache == null ? null : contextCache.lookup(req, model);
+            try {
+                return streamExchange(lane, model, req, onChunk, cached, deadline);
+            } catch (APIException e) {
+                if (cached == null || !contextCache.rejected(cached, e)) throw e;
+                METRICS.increment("context_cache.fallback");
+                return streamExchange(lane, model, req, onChunk, null, deadline);
             }
-            return new WritingResponse("[Model returned no text in candidates.]", finish, pt, ct, tt);
+        } catch (APIException e) {
+            failure = e;
+            throw e;
+        } finally {
+            keys.release(lane, failure);
         }
+    }
+
+    // The deadline covers the whole stream: the request timeout bounds the wait for headers, and a timer
+    // closes the line stream if events are still arriving (or have stalled) when it passes.
+    private WritingResponse streamExchange(KeyPool.Lane lane, String model, WritingRequest req, Consumer<String> onChunk,
+                                           String cachedContent, long deadline) {
+        RateLimiter rateLimiter = lane.rateLimiter();
+        long cost = estimateCost(req);
+        long queued = System.nanoTime();
+        RateLimiter.Reservation slot = rateLimiter.acquireSlot(cost);
+        if (slot == null) throw APIException.cancelled();
+        long sent = System.nanoTime();
+        METRICS.queue().recordNanos(sent - queued);
+        long deadlineMs = retryPolicy.deadlineMs();
+        AtomicBoolean expired = new AtomicBoolean();
+        try {
+            String url = endpoint(lane, model, ":streamGenerateContent?alt=sse&", cachedContent);
+            long headerTimeoutMs = deadline == Long.MAX_VALUE ? 60_000 : Math.min(60_000, budgetMs(deadline));
+
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(url))
+                    .timeout(Duration.ofMillis(headerTimeoutMs))
+                    .header("Content-Type", "application/json; charset=utf-8")
+                    .header("Accept", "text/event-stream")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(GeminiRequestEncoder.encode(req, cachedContent)))
+                    .build();
+
+            HttpResponse<Stream<String>> resp = http.send(request, HttpResponse.BodyHandlers.ofLines());
+            METRICS.increment("status." + resp.statusCode());
+
+            ScheduledFuture<?> timer = null;
+            try (Stream<String> lines = resp.body()) {
+                if (deadline != Long.MAX_VALUE) {
+                    timer = ServiceExecutors.schedule(() -> {
+                        expired.set(true);
+                        lines.close(); // wakes the reader below with an IOException
+                    }, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+                if (resp.statusCode() / 100 != 2) {
+                    String body = String.join("\n", (Iterable<String>) lines::iterator);
+                    throw new APIException(resp.statusCode(), "Gemini error " + resp.statusCode() + ": " + body,
+                            retryAfterMs(resp, body));
+                }
+
+                StringBuilder text = new StringBuilder();
+                String finish = "";
+                String block = null;
+                int pt = 0, ct = 0, tt = 0;
+                boolean sawData = false;
+
+                // Each SSE event is a "data: {...}" line holding one GenerateContentResponse
+                Iterator<String> it = lines.iterator();
+                while (it.hasNext()) {
+                    String line = it.next();
+                    if (!line.startsWith("data:")) continue;
+                    String data = line.substring(5).trim();
+                    if (data.isEmpty() || "[DONE]".equals(data)) continue;
+                    sawData = true;
+
+                    GeminiResponseParser.Result chunk = GeminiResponseParser.parseChunk(data);
+                    String piece = chunk.getText();
+                    if (!piece.isEmpty()) {
+                        text.append(piece);
+                        if (onChunk != null) onChunk.accept(piece);
+                    }
+                    if (!chunk.getFinishReason().isEmpty()) finish = chunk.getFinishReason();
+                    if (chunk.getBlockReason() != null) block = chunk.getBlockReason();
+                    // usage metadata is cumulative, so the last chunk carries the totals
+                    pt = Math.max(pt, chunk.getPromptTokens());
+                    ct = Math.max(ct, chunk.getCompletionTokens());
+                    tt = Math.max(tt, chunk.getTotalTokens());
+                }
 
-        return new WritingResponse(unescape(text), finish, pt, ct, tt);
+                if (!sawData) {
+                    throw new APIException("Empty response from API");
+                }
+                // for streams, network time runs until the last event, chunk parsing included
+                METRICS.network().recordNanos(System.nanoTime() - sent);
+                router.record(model, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent), null);
+                return settle(rateLimiter, slot, req, cost, GeminiResponseParser.toResponse(
+                        text.length() == 0 ? null : text.toString(), finish, block, pt, ct, tt));
+            } finally {
+                if (timer != null) timer.cancel(false);
+            }
+        } catch (APIException e) {
+            router.record(model, 0, e);
+            throw e;
+        } catch (Exception e) {
+            // an interrupt means the caller cancelled; closing the line stream has already aborted the exchange
+            if (e instanceof InterruptedException || Thread.currentThread().isInterrupted()) {
+                throw APIException.cancelled();
+            }
+            if (expired.get() || e instanceof HttpTimeoutException && System.nanoTime() >= deadline) {
+                APIException err = timedOut(deadlineMs);
+                router.record(model, 0, err);
+                throw err;
+            }
+            APIException err = asAPIException(e);
+            if (err.getKind() == APIException.Kind.NETWORK) METRICS.increment("status.network");
+            router.record(model, 0, err);
+            throw err;
+        }
     }
-    // unescapes characters
-    private static String unescape(String s) {
-        return s.replace("\\n", "\n")
-                .replace("\\r", "\r")
-                .replace("\\t", "\t")
-                .replace("\\\"", "\"")
-                .replace("\\\\", "\\");
+
+    private static APIException timedOut(long deadlineMs) {
+        return new APIException("Request timed out after " + deadlineMs + " ms");
     }
 
-    private static String findFirst(String text, String regex, int flags) {
-        Pattern p = Pattern.compile(regex, flags);
-        Matcher m = p.matcher(text);
-        if (m.find()) return m.group(1);
-        return null;
+    public KeyPool keys() { return keys; }
+
+    public ModelRouter router() { return router; }
+
+    public RetryPolicy retryPolicy() { return retryPolicy; }
+
+    // Recent successful-attempt latencies, used for the hedge threshold
+    public LatencyTracker latencies() { return latencies; }
+
+    // Tokens charged against the TPM budget up front: the estimated prompt plus the output allowance
+    private static long estimateCost(WritingRequest req) {
+        return TokenEstimator.shared().estimatePrompt(req) + Math.max(0, req.getMaxTokens());
     }
 
-    // Parses integer value from the JSON text
-    private static int parseInt(String text, String regex) {
-        String v = findFirst(text, regex, 0);
-        if (v == null) return 0;
-        try { return Integer.parseInt(v); } catch (NumberFormatException e) { return 0; }
+    // Once the real usage is known, the unused part of the up-front estimate goes back to the budget
+    // (into the slot it was booked in) and the local estimator is recalibrated against it
+    private static WritingResponse settle(RateLimiter rateLimiter, RateLimiter.Reservation slot, WritingRequest req,
+                                          long estimated, WritingResponse resp) {
+        long actual = resp.getTotalTokens();
+        if (actual > 0 && actual < estimated) rateLimiter.refund(slot, 0, estimated - actual);
+        TokenEstimator.shared().observe(req, resp);
+        METRICS.tokens(resp.getPromptTokens(), resp.getCompletionTokens());
+        String finish = resp.getFinishReason();
+        METRICS.increment("finish." + (finish == null || finish.isEmpty() ? "NONE" : finish));
+        return resp;
     }
 }
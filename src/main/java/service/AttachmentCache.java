@@ -0,0 +1,266 @@
+package service;
+
+import model.APIClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keeps decoded attachment text per file so resubmitting with the same reference files costs no I/O.
+// Each entry remembers the file key, mtime and size it was read at, and every hit is checked against
+// them (one stat, no read). A file whose attributes moved while it was being read, or that got a watch
+// event meanwhile, is not cached. Directories holding cached entries are watched with a WatchService
+// so events drop the affected entries early; events are matched per file, so a sibling changing does
+// not touch them. Watch events can arrive late, so they back up the attribute check rather than
+// replace it. Entries are evicted LRU within a byte budget.
+
+public class AttachmentCache implements Closeable {
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private final long maxBytes;
+    private final WatchService watcher; // null if the file system can't watch
+
+    // access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<Path, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, Watched> dirs = new HashMap<>();
+    private final Map<Path, Reading> reading = new HashMap<>(); // files with a read in progress
+    private long weightBytes = 0L;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static final class Entry {
+        final AttachmentLoader.Attachment attachment;
+        final int maxChars;
+        final Object fileKey;
+        final long mtime;
+        final long size;
+        final long weight;
+
+        Entry(AttachmentLoader.Attachment attachment, int maxChars, BasicFileAttributes attrs) {
+            this.attachment = attachment;
+            this.maxChars = maxChars;
+            this.fileKey = attrs.fileKey();
+            this.mtime = attrs.lastModifiedTime().toMillis();
+            this.size = attrs.size();
+            String text = attachment.getText();
+            this.weight = (text == null ? 0 : text.length() * 2L) + ENTRY_OVERHEAD_BYTES;
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return Objects.equals(fileKey, attrs.fileKey())
+                    && mtime == attrs.lastModifiedTime().toMillis()
+                    && size == attrs.size();
+        }
+    }
+
+    // A watched directory and the number of cached entries in it
+    private static final class Watched {
+        final WatchKey key;
+        int entries;
+
+        Watched(WatchKey key) { this.key = key; }
+    }
+
+    // A file being read, with a counter bumped on every watch event for that file
+    private static final class Reading {
+        int readers;
+        long events;
+    }
+
+    public AttachmentCache(long maxBytes) {
+        this.maxBytes = Math.max(1, maxBytes);
+        WatchService w;
+        try {
+            w = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            w = null;
+        }
+        this.watcher = w;
+        if (watcher != null) {
+            Thread.ofVirtual().name("attachment-watch").start(this::watchLoop);
+        }
+    }
+
+    public static AttachmentCache fromConfig(APIClient c) {
+        return new AttachmentCache(c.attachmentCacheMaxBytes());
+    }
+
+    // Returns the decoded file, reading it only if it isn't cached or has changed since it was read
+    public AttachmentLoader.Attachment get(Path file, int maxChars) {
+        Path p = file.toAbsolutePath().normalize();
+
+        Entry e;
+        synchronized (map) {
+            e = map.get(p);
+        }
+
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (IOException ex) {
+            invalidate(p);
+            misses.increment();
+            return AttachmentLoader.read(p, maxChars); // reports the error the same way an uncached read would
+        }
+        if (e != null && e.maxChars == maxChars && e.matches(attrs)) {
+            hits.increment();
+            return e.attachment;
+        }
+
+        misses.increment();
+        Reading r;
+        long eventsBefore;
+        synchronized (map) {
+            r = reading.computeIfAbsent(p, k -> new Reading());
+            r.readers++;
+            eventsBefore = r.events;
+        }
+        AttachmentLoader.Attachment a = AttachmentLoader.read(p, maxChars);
+        Entry fresh = new Entry(a, maxChars, attrs);
+        boolean unchanged = a.getError() == null && unchangedSince(p, fresh);
+
+        synchronized (map) {
+            if (--r.readers == 0) reading.remove(p);
+            if (unchanged && r.events == eventsBefore) put(p, fresh);
+        }
+        return a;
+    }
+
+    // Whether the file still has the attributes it had before it was read
+    private static boolean unchangedSince(Path p, Entry e) {
+        try {
+            return e.matches(Files.readAttributes(p, BasicFileAttributes.class));
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    public void invalidate(Path file) {
+        Path p = file.toAbsolutePath().normalize();
+        synchronized (map) {
+            Entry e = map.get(p);
+            if (e != null) remove(p, e);
+        }
+    }
+
+    public long hits() { return hits.sum(); }
+    public long misses() { return misses.sum(); }
+    public int size() { synchronized (map) { return map.size(); } }
+    public long weightBytes() { synchronized (map) { return weightBytes; } }
+
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) watcher.close();
+    }
+
+    // caller holds the map lock; starts watching a directory when its first entry is stored
+    private void watch(Path dir) {
+        if (watcher == null || dir == null || dirs.containsKey(dir)) return;
+        try {
+            WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            dirs.put(dir, new Watched(key));
+        } catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+            // the attribute check on every hit still catches changes
+        }
+    }
+
+    // caller holds the map lock
+    private void put(Path p, Entry e) {
+        if (e.weight > maxBytes) return;
+        Entry old = map.put(p, e);
+        if (old != null) {
+            weightBytes -= old.weight;
+        } else {
+            watch(p.getParent());
+            countEntry(p.getParent(), 1);
+        }
+        weightBytes += e.weight;
+
+        Iterator<Map.Entry<Path, Entry>> it = map.entrySet().iterator();
+        while (weightBytes > maxBytes && it.hasNext()) {
+            Map.Entry<Path, Entry> victim = it.next();
+            it.remove();
+            weightBytes -= victim.getValue().weight;
+            countEntry(victim.getKey().getParent(), -1);
+        }
+    }
+
+    // caller holds the map lock
+    private void remove(Path p, Entry e) {
+        map.remove(p);
+        weightBytes -= e.weight;
+        countEntry(p.getParent(), -1);
+    }
+
+    // caller holds the map lock; stops watching a directory once nothing cached lives in it
+    private void countEntry(Path dir, int delta) {
+        Watched w = dir == null ? null : dirs.get(dir);
+        if (w == null) return;
+        w.entries += delta;
+        if (w.entries <= 0) {
+            w.key.cancel();
+            dirs.remove(dir);
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path dir = (Path) key.watchable();
+                synchronized (map) {
+                    for (WatchEvent<?> ev : key.pollEvents()) {
+                        if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            dropDirectory(dir); // events were lost: assume everything there changed
+                        } else {
+                            Path changed = dir.resolve((Path) ev.context());
+                            Reading r = reading.get(changed);
+                            if (r != null) r.events++;
+                            Entry e = map.get(changed);
+                            if (e != null) remove(changed, e);
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    synchronized (map) {
+                        dropDirectory(dir); // directory is gone or no longer watchable
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // cache closed
+        }
+    }
+
+    // caller holds the map lock
+    private void dropDirectory(Path dir) {
+        for (Map.Entry<Path, Reading> r : reading.entrySet()) {
+            if (dir.equals(r.getKey().getParent())) r.getValue().events++;
+        }
+        Iterator<Map.Entry<Path, Entry>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Entry> en = it.next();
+            if (dir.equals(en.getKey().getParent())) {
+                it.remove();
+                weightBytes -= en.getValue().weight;
+                countEntry(dir, -1);
+            }
+        }
+    }
+}
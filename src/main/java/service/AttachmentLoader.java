@@ -0,0 +1,227 @@
+package service;
+
+import model.TokenEstimator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Reads attached files for a request without blocking the UI.
+// Files are read in parallel on virtual threads, and each one is decoded incrementally from a
+// FileChannel so reading stops as soon as the per-file character budget is reached; a huge file
+// costs one buffer, not its whole size. The encoding is sniffed from the BOM or the first block
+// (UTF-8, UTF-16, else windows-1252), and undecodable bytes are replaced instead of failing the read.
+
+public class AttachmentLoader {
+    public static final int MAX_CHARS_PER_FILE = 200_000;
+    public static final int MAX_TOTAL_TOKENS = 125_000; // across all attachments, per TokenEstimator
+    // notes left in the merged text where attachments were cut to fit the total budget
+    static final String TRIMMED_NOTE = "... (truncated total)";
+    static final String OMITTED_NOTE = "... (more attachments omitted: input too large)";
+    static final String ATTACHMENTS_HEADER = "\n\n---\nATTACHMENTS (for reference)\n";
+    private static final int BLOCK_BYTES = 64 * 1024;
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    // One file's decoded contents (or the reason it couldn't be read)
+    public static final class Attachment {
+        private final Path path;
+        private final String text;
+        private final Charset charset;
+        private final boolean truncated;
+        private final String error;
+
+        Attachment(Path path, String text, Charset charset, boolean truncated, String error) {
+            this.path = path;
+            this.text = text;
+            this.charset = charset;
+            this.truncated = truncated;
+            this.error = error;
+        }
+
+        public Path getPath() { return path; }
+        public String getText() { return text; }
+        public Charset getCharset() { return charset; }
+        public boolean isTruncated() { return truncated; }
+        public String getError() { return error; }
+    }
+
+    // Reads all files in parallel and appends them to the user text in attachment order.
+    // onProgress receives a short status line each time a file finishes (called from worker threads).
+    public static CompletableFuture<String> mergeAsync(String userText, List<Path> files, Consumer<String> onProgress) {
+        return mergeAsync(userText, files, onProgress, null);
+    }
+
+    // Same, but unchanged files are served from the cache instead of being read again
+    public static CompletableFuture<String> mergeAsync(String userText, List<Path> files, Consumer<String> onProgress,
+                                                       AttachmentCache cache) {
+        if (files == null || files.isEmpty()) return CompletableFuture.completedFuture(userText);
+
+        int n = files.size();
+        AtomicInteger done = new AtomicInteger();
+        List<CompletableFuture<Attachment>> reads = new ArrayList<>(n);
+        for (Path p : files) {
+            reads.add(CompletableFuture.supplyAsync(() -> cache != null ? cache.get(p, MAX_CHARS_PER_FILE) : read(p, MAX_CHARS_PER_FILE),
+                            ServiceExecutors.virtualThreads())
+                    .whenComplete((a, ex) -> {
+                        if (onProgress != null) onProgress.accept("Reading attachments (" + done.incrementAndGet() + "/" + n + ")...");
+                    }));
+        }
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture[0]))
+                .thenApply(v -> merge(userText, reads.stream().map(CompletableFuture::join).toList()));
+    }
+
+    static String merge(String userText, List<Attachment> attachments) {
+        StringBuilder sb = new StringBuilder(userText);
+        sb.append(ATTACHMENTS_HEADER);
+
+        TokenEstimator estimator = TokenEstimator.shared();
+        int tokensAdded = 0;
+        for (Attachment a : attachments) {
+            if (a == null || a.getPath() == null) continue;
+            sb.append("\n[FILE: ").append(a.getPath().getFileName()).append("]\n");
+
+            if (a.getError() != null) {
+                sb.append("(Could not read file: ").append(a.getError()).append(")\n");
+                continue;
+            }
+            // enforce a total token budget
+            int remaining = MAX_TOTAL_TOKENS - tokensAdded;
+            if (remaining <= 0) {
+                sb.append(OMITTED_NOTE).append("\n");
+                break;
+            }
+            String content = a.getText();
+            if (a.isTruncated()) content += "\n... (truncated)";
+            int fits = estimator.prefixWithin(content, remaining);
+            if (fits < content.length()) {
+                content = content.substring(0, fits) + "\n" + TRIMMED_NOTE;
+            }
+            sb.append(content).append("\n");
+            tokensAdded += estimator.estimate(content);
+        }
+        return sb.toString();
+    }
+
+    // The writer's own text of a merge() result, without the attachment block
+    public static String userText(String merged) {
+        if (merged == null) return null;
+        int at = merged.indexOf(ATTACHMENTS_HEADER);
+        return at < 0 ? merged : merged.substring(0, at);
+    }
+
+    // The attachment block of a merge() result (header included), or "" when there is none
+    public static String attachmentBlock(String merged) {
+        if (merged == null) return "";
+        int at = merged.indexOf(ATTACHMENTS_HEADER);
+        return at < 0 ? "" : merged.substring(at);
+    }
+
+    // Whether merge() had to cut or drop attachments to stay within MAX_TOTAL_TOKENS
+    public static boolean wasTrimmed(String merged) {
+        return merged != null && (merged.contains(TRIMMED_NOTE) || merged.contains(OMITTED_NOTE));
+    }
+
+    // Decodes at most maxChars characters from the start of the file
+    public static Attachment read(Path path, int maxChars) {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer in = ByteBuffer.allocate(BLOCK_BYTES);
+            readFully(ch, in);
+            boolean eof = in.hasRemaining(); // readFully only stops short at the end of the file
+            in.flip();
+
+            Charset cs = sniff(in);
+            if (cs == null) return new Attachment(path, null, null, false, "binary file");
+            skipBom(in, cs);
+
+            CharsetDecoder dec = cs.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer out = CharBuffer.allocate(maxChars);
+            while (true) {
+                CoderResult r = dec.decode(in, out, eof);
+                if (r.isOverflow()) return new Attachment(path, out.flip().toString(), cs, true, null); // budget reached
+                if (eof) break;
+                in.compact();
+                readFully(ch, in);
+                eof = in.hasRemaining();
+                in.flip();
+            }
+            if (dec.flush(out).isOverflow()) return new Attachment(path, out.flip().toString(), cs, true, null);
+            return new Attachment(path, out.flip().toString(), cs, false, null);
+        } catch (IOException e) {
+            return new Attachment(path, null, null, false, e.getMessage());
+        }
+    }
+
+    // Fills the buffer as far as the file allows
+    private static void readFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) return;
+        }
+    }
+
+    // Picks a charset from the first block without consuming it; null means it looks binary
+    static Charset sniff(ByteBuffer head) {
+        int n = head.remaining();
+        int p = head.position();
+        if (n >= 3 && (head.get(p) & 0xFF) == 0xEF && (head.get(p + 1) & 0xFF) == 0xBB && (head.get(p + 2) & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if (n >= 2 && (head.get(p) & 0xFF) == 0xFF && (head.get(p + 1) & 0xFF) == 0xFE) return StandardCharsets.UTF_16LE;
+        if (n >= 2 && (head.get(p) & 0xFF) == 0xFE && (head.get(p + 1) & 0xFF) == 0xFF) return StandardCharsets.UTF_16BE;
+
+        // BOM-less UTF-16 shows up as zero bytes in every other position for Latin text
+        int evenZeros = 0, oddZeros = 0;
+        for (int i = 0; i < n; i++) {
+            if (head.get(p + i) == 0) {
+                if (i % 2 == 0) evenZeros++;
+                else oddZeros++;
+            }
+        }
+        if (n >= 4 && oddZeros > n / 4 && evenZeros == 0) return StandardCharsets.UTF_16LE;
+        if (n >= 4 && evenZeros > n / 4 && oddZeros == 0) return StandardCharsets.UTF_16BE;
+        if (evenZeros + oddZeros > 0) return null;
+
+        return isUtf8(head) ? StandardCharsets.UTF_8 : WINDOWS_1252;
+    }
+
+    // Strict UTF-8 check of the block; a sequence cut off at the end of the block is fine
+    private static boolean isUtf8(ByteBuffer head) {
+        CharsetDecoder strict = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        try {
+            CharBuffer sink = CharBuffer.allocate(head.remaining());
+            CoderResult r = strict.decode(head.duplicate(), sink, false);
+            if (r.isError()) r.throwException();
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    private static void skipBom(ByteBuffer in, Charset cs) {
+        int p = in.position();
+        if (cs == StandardCharsets.UTF_8 && in.remaining() >= 3 && (in.get(p) & 0xFF) == 0xEF
+                && (in.get(p + 1) & 0xFF) == 0xBB && (in.get(p + 2) & 0xFF) == 0xBF) {
+            in.position(p + 3);
+        } else if ((cs == StandardCharsets.UTF_16LE || cs == StandardCharsets.UTF_16BE) && in.remaining() >= 2) {
+            int b0 = in.get(p) & 0xFF, b1 = in.get(p + 1) & 0xFF;
+            if ((b0 == 0xFF && b1 == 0xFE) || (b0 == 0xFE && b1 == 0xFF)) in.position(p + 2);
+        }
+    }
+}
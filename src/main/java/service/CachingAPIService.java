@@ -0,0 +1,89 @@
+package service;
+
+import model.WritingRequest;
+import model.WritingResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+// Decorator that answers repeated requests from a ResponseCache, backed by an optional DiskResponseCache.
+// Lookups go memory -> disk -> network; hits return immediately and never touch the wrapped service's rate limiter.
+
+public class CachingAPIService extends APIService {
+    private final APIService delegate;
+    private final ResponseCache cache;
+    private final DiskResponseCache disk; // may be null
+
+    public CachingAPIService(APIService delegate, ResponseCache cache) {
+        this(delegate, cache, null);
+    }
+
+    public CachingAPIService(APIService delegate, ResponseCache cache, DiskResponseCache disk) {
+        super(delegate);
+        this.delegate = delegate;
+        this.cache = cache;
+        this.disk = disk;
+    }
+
+    @Override
+    public WritingResponse generateText(WritingRequest req) {
+        String key = ResponseCache.keyFor(req);
+        WritingResponse hit = lookup(key);
+        if (hit != null) return hit;
+
+        WritingResponse resp = delegate.generateText(req);
+        store(key, resp);
+        return resp;
+    }
+
+    @Override
+    public WritingResponse generateTextStream(WritingRequest req, Consumer<String> onChunk) {
+        String key = ResponseCache.keyFor(req);
+        WritingResponse hit = lookup(key);
+        if (hit != null) {
+            // a hit is delivered as a single chunk so streaming callers see the same callbacks
+            if (onChunk != null) onChunk.accept(hit.getText());
+            return hit;
+        }
+
+        WritingResponse resp = delegate.generateTextStream(req, onChunk);
+        store(key, resp);
+        return resp;
+    }
+
+    @Override
+    public CompletableFuture<WritingResponse> generateTextAsync(WritingRequest req) {
+        String key = ResponseCache.keyFor(req);
+        WritingResponse hit = lookup(key);
+        if (hit != null) return CompletableFuture.completedFuture(hit);
+
+        return delegate.generateTextAsync(req).thenApply(resp -> {
+            store(key, resp);
+            return resp;
+        });
+    }
+
+    // Calls in flight live in the wrapped service; this instance's own tracker never sees any
+    @Override
+    public int inFlightCount() { return delegate.inFlightCount(); }
+
+    public ResponseCache cache() { return cache; }
+
+    // Memory first, then disk; disk hits are promoted so the next lookup stays in memory
+    private WritingResponse lookup(String key) {
+        WritingResponse hit = cache.get(key);
+        if (hit == null && disk != null) {
+            hit = disk.get(key);
+            if (hit != null) cache.put(key, hit);
+        }
+        return hit;
+    }
+
+    // Only complete generations are cached; blocked or truncated placeholders should be retried
+    private void store(String key, WritingResponse resp) {
+        if (resp != null && "STOP".equals(resp.getFinishReason())) {
+            cache.put(key, resp);
+            if (disk != null) disk.put(key, resp);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package service;
+
+import model.APIClient;
+import model.RequestFactory;
+import model.WritingMode;
+import model.WritingRequest;
+import model.WritingResponse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+// Handles documents too long for one request: splits them with DocumentChunker, sends up to
+// 'concurrency' chunks at a time through APIService (whose rate limiter still paces the calls),
+// then stitches the answers back together in document order — tips merged and de-duplicated,
+// reworded sections concatenated. Only the writer's own text is split and reworked; an attachment
+// block (see AttachmentLoader.merge) goes along with every part as read-only reference.
+
+public class ChunkedGenerator {
+    // The line every strategy's template puts between the tips and the reworded essay
+    static final String REWORDED_MARKER = "Here is also a reworded essay that you can reference:";
+    static final int MAX_TIPS = 8;
+
+    private final APIService api;
+    private final DocumentChunker chunker;
+    private final int concurrency;
+    private final int maxOutputTokens; // ceiling for per-chunk output budgets, 0 = use maxTokens as given
+
+    public ChunkedGenerator(APIService api, int maxTokensPerChunk, int concurrency) {
+        this(api, maxTokensPerChunk, concurrency, 0);
+    }
+
+    public ChunkedGenerator(APIService api, int maxTokensPerChunk, int concurrency, int maxOutputTokens) {
+        this(api, new DocumentChunker(maxTokensPerChunk), concurrency, maxOutputTokens);
+    }
+
+    // for unit tests
+    ChunkedGenerator(APIService api, DocumentChunker chunker, int concurrency, int maxOutputTokens) {
+        this.api = api;
+        this.chunker = chunker;
+        this.concurrency = Math.max(1, concurrency);
+        this.maxOutputTokens = maxOutputTokens;
+    }
+
+    public static ChunkedGenerator fromConfig(APIService api, APIClient c) {
+        return new ChunkedGenerator(api, c.chunkMaxTokens(), c.chunkConcurrency(), c.maxOutputTokens());
+    }
+
+    // Decided on the writer's text alone, since attachments are never split
+    public boolean needsChunking(String text) {
+        return !chunker.fitsInOneChunk(AttachmentLoader.userText(text));
+    }
+
+    // Cancelling the returned future cancels every chunk still queued or in flight
+    public CompletableFuture<WritingResponse> generate(WritingMode mode, String text, int maxTokens) {
+        List<String> parts = chunker.split(AttachmentLoader.userText(text));
+        String attachments = AttachmentLoader.attachmentBlock(text);
+        int n = parts.size();
+        CompletableFuture<List<WritingResponse>> answers = window(n, concurrency, i ->
+                api.generateTextAsync(RequestFactory.build(mode, partPrefix(i, n, !attachments.isEmpty())
+                        + parts.get(i) + attachments, maxTokens, maxOutputTokens)));
+        CompletableFuture<WritingResponse> result = answers.thenApply(ChunkedGenerator::stitch);
+        result.whenComplete((r, ex) -> {
+            if (result.isCancelled()) answers.cancel(true);
+        });
+        return result;
+    }
+
+    // Sends n calls through a window of 'concurrency'; each completion starts the next call in line.
+    // The answers come back in call order. The first failure fails the whole (fail fast, don't wait
+    // for the rest), and that or cancelling the returned future cancels every call queued or in flight.
+    static CompletableFuture<List<WritingResponse>> window(int n, int concurrency,
+                                                           IntFunction<CompletableFuture<WritingResponse>> send) {
+        List<CompletableFuture<WritingResponse>> calls = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) calls.add(new CompletableFuture<>());
+
+        CompletableFuture<List<WritingResponse>> result = CompletableFuture
+                .allOf(calls.toArray(new CompletableFuture[0]))
+                .thenApply(v -> calls.stream().map(CompletableFuture::join).toList());
+
+        AtomicInteger next = new AtomicInteger();
+        Runnable[] launch = new Runnable[1];
+        launch[0] = () -> {
+            int i = next.getAndIncrement();
+            if (i >= n || result.isDone()) return;
+            CompletableFuture<WritingResponse> call = send.apply(i);
+            call.whenComplete((r, ex) -> {
+                if (ex != null) {
+                    calls.get(i).completeExceptionally(ex);
+                    result.completeExceptionally(APIService.asAPIException(ex));
+                } else {
+                    calls.get(i).complete(r);
+                    launch[0].run();
+                }
+            });
+            calls.get(i).whenComplete((r, ex) -> {
+                if (calls.get(i).isCancelled()) call.cancel(true);
+            });
+        };
+        for (int k = 0; k < Math.min(Math.max(1, concurrency), n); k++) launch[0].run();
+
+        result.whenComplete((r, ex) -> {
+            if (ex != null) calls.forEach(c -> c.cancel(true));
+        });
+        return result;
+    }
+
+    // Tells the model it's seeing one part so it reworks only that part and doesn't invent an intro or conclusion
+    private static String partPrefix(int i, int n, boolean attachments) {
+        return "(Part " + (i + 1) + " of " + n + " of a longer document. Rework only this part"
+                + (attachments ? "; the attachments after it are reference material, not part of the document" : "")
+                + ".)\n\n";
+    }
+
+    static WritingResponse stitch(List<WritingResponse> parts) {
+        String intro = null;
+        Set<String> tips = new LinkedHashSet<>();
+        List<String> sections = new ArrayList<>();
+        String finish = "STOP";
+        int pt = 0, ct = 0, tt = 0;
+
+        for (WritingResponse r : parts) {
+            pt += r.getPromptTokens();
+            ct += r.getCompletionTokens();
+            tt += r.getTotalTokens();
+            if (!"STOP".equals(r.getFinishReason()) && "STOP".equals(finish)) finish = r.getFinishReason();
+
+            String text = r.getText() == null ? "" : r.getText().strip();
+            int marker = text.indexOf(REWORDED_MARKER);
+            if (marker < 0) { // not in the template: keep the answer as its own section
+                sections.add(text);
+                continue;
+            }
+            for (String line : text.substring(0, marker).split("\\n")) {
+                String l = line.strip();
+                if (l.startsWith("- ")) tips.add(l);
+                else if (!l.isEmpty() && intro == null) intro = l;
+            }
+            sections.add(text.substring(marker + REWORDED_MARKER.length()).strip());
+        }
+
+        return new WritingResponse(compose(intro, tips, sections), finish, pt, ct, tt);
+    }
+
+    // Lays merged parts out in the strategy template: intro line, tips, marker, reworded sections
+    static String compose(String intro, Collection<String> tips, List<String> sections) {
+        StringBuilder sb = new StringBuilder();
+        if (intro != null) sb.append(intro).append('\n');
+        tips.stream().limit(MAX_TIPS).forEach(t -> sb.append(t).append('\n'));
+        if (sb.length() > 0) sb.append('\n').append(REWORDED_MARKER).append('\n');
+        sb.append(String.join("\n\n", sections));
+        return sb.toString();
+    }
+}
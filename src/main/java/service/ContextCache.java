@@ -0,0 +1,197 @@
+package service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import metrics.Metrics;
+import model.APIClient;
+import model.APIException;
+import model.TokenEstimator;
+import model.WritingRequest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+// Keeps one Gemini cachedContents entry per (model, system prompt), so calls can name the strategy's
+// instructions instead of resending them and paying their prefill on every request.
+// Entries are created in the background on first use (that call still goes out with the prompt inline),
+// have their TTL extended when they get close to expiry, and are dropped when the API reports them
+// missing or expired, in which case the caller resends with the prompt inline. Prompts below the API's
+// minimum cacheable size are never cached, and failed creations back off instead of being retried per call.
+
+public class ContextCache {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Metrics METRICS = Metrics.global();
+    private static final long CLIENT_ERROR_BACKOFF_MS = 60 * 60_000L; // e.g. prompt too small, model unsupported
+    private static final long SERVER_ERROR_BACKOFF_MS = 60_000L;
+
+    private final HttpClient http;
+    private final String apiKey;
+    private final String baseUrl;
+    private final long ttlSeconds;
+    private final int minTokens;
+    private final LongSupplier clockMs;
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    private record Key(String model, String systemPrompt) { }
+
+    private static final class Entry {
+        final boolean eligible;
+        volatile String name;          // null until created, and after it was dropped
+        volatile long expiresAtMs;
+        volatile long retryAtMs;       // no creation attempts before this
+        final AtomicBoolean busy = new AtomicBoolean(); // a create or refresh is in flight
+
+        Entry(boolean eligible) { this.eligible = eligible; }
+    }
+
+    public ContextCache(HttpClient http, String apiKey, String baseUrl, long ttlSeconds, int minTokens) {
+        this(http, apiKey, baseUrl, ttlSeconds, minTokens, System::currentTimeMillis);
+    }
+
+    // for unit tests that need to control time
+    ContextCache(HttpClient http, String apiKey, String baseUrl, long ttlSeconds, int minTokens, LongSupplier clockMs) {
+        this.http = http;
+        this.apiKey = apiKey;
+        this.baseUrl = baseUrl;
+        this.ttlSeconds = Math.max(60, ttlSeconds);
+        this.minTokens = Math.max(0, minTokens);
+        this.clockMs = clockMs;
+    }
+
+    // Cache for one API key (entries belong to the key's project); null when CONTEXT_CACHE_ENABLED is false
+    public static ContextCache fromConfig(APIClient c, String apiKey, String baseUrl) {
+        if (!c.contextCacheEnabled()) return null;
+        return new ContextCache(c.http(), apiKey, baseUrl, c.contextCacheTtlSeconds(), c.contextCacheMinTokens());
+    }
+
+    // Name of a live cache entry holding the request's system prompt, or null to send it inline.
+    // Never blocks: a missing entry is created and a nearly expired one refreshed in the background.
+    public String lookup(WritingRequest req, String model) {
+        String sys = req.getSystemPrompt();
+        if (sys == null || sys.isEmpty()) return null;
+        Key key = new Key(model, sys);
+        Entry e = entries.computeIfAbsent(key, k -> new Entry(TokenEstimator.shared().estimate(k.systemPrompt()) >= minTokens));
+        if (!e.eligible) return null;
+
+        long now = clockMs.getAsLong();
+        String name = e.name;
+        if (name != null && now < e.expiresAtMs) {
+            // refresh once the remaining lifetime drops under a tenth of the TTL
+            if (e.expiresAtMs - now < ttlSeconds * 100 && e.busy.compareAndSet(false, true)) refresh(e, name);
+            METRICS.increment("context_cache.hit");
+            return name;
+        }
+        e.name = null;
+        METRICS.increment("context_cache.miss");
+        if (now >= e.retryAtMs && e.busy.compareAndSet(false, true)) create(key, e);
+        return null;
+    }
+
+    // Whether a failed call was rejected because of its cached content; if so the entry is dropped
+    // (it is recreated on a later lookup) and the call should be resent with the prompt inline
+    public boolean rejected(String name, APIException err) {
+        if (name == null) return false;
+        int s = err.getStatus();
+        if ((s != 400 && s != 403 && s != 404) || !aboutCachedContent(err)) return false;
+        invalidate(name);
+        return true;
+    }
+
+    static boolean aboutCachedContent(APIException err) {
+        String msg = err.getMessage() == null ? "" : err.getMessage().toLowerCase(Locale.ROOT);
+        return msg.contains("cachedcontent") || msg.contains("cached content");
+    }
+
+    public void invalidate(String name) {
+        for (Entry e : entries.values()) {
+            if (name.equals(e.name)) e.name = null;
+        }
+    }
+
+    private void create(Key key, Entry e) {
+        ObjectNode body = MAPPER.createObjectNode();
+        body.put("model", key.model().startsWith("models/") ? key.model() : "models/" + key.model());
+        body.put("displayName", "writing-assistant");
+        body.putObject("systemInstruction").putArray("parts").addObject().put("text", key.systemPrompt());
+        body.put("ttl", ttlSeconds + "s");
+        send("POST", "/v1beta/cachedContents", body).whenComplete((resp, ex) -> {
+            try {
+                long now = clockMs.getAsLong();
+                if (ex == null && resp.statusCode() / 100 == 2) {
+                    JsonNode root = MAPPER.readTree(resp.body());
+                    e.expiresAtMs = expiry(root, now);
+                    e.name = root.path("name").asText(null);
+                    METRICS.increment("context_cache.create");
+                } else {
+                    boolean clientError = ex == null && resp.statusCode() / 100 == 4;
+                    e.retryAtMs = now + (clientError ? CLIENT_ERROR_BACKOFF_MS : SERVER_ERROR_BACKOFF_MS);
+                    METRICS.increment("context_cache.create_failed");
+                }
+            } catch (IOException parse) {
+                e.retryAtMs = clockMs.getAsLong() + SERVER_ERROR_BACKOFF_MS;
+            } finally {
+                e.busy.set(false);
+            }
+        });
+    }
+
+    // Extends the TTL in place; if that fails the entry is dropped and recreated on the next lookup
+    private void refresh(Entry e, String name) {
+        ObjectNode body = MAPPER.createObjectNode().put("ttl", ttlSeconds + "s");
+        send("PATCH", "/v1beta/" + name, body, "updateMask=ttl").whenComplete((resp, ex) -> {
+            try {
+                if (ex == null && resp.statusCode() / 100 == 2) {
+                    e.expiresAtMs = expiry(MAPPER.readTree(resp.body()), clockMs.getAsLong());
+                    METRICS.increment("context_cache.refresh");
+                } else if (name.equals(e.name)) {
+                    e.name = null;
+                }
+            } catch (IOException parse) {
+                e.name = null;
+            } finally {
+                e.busy.set(false);
+            }
+        });
+    }
+
+    private long expiry(JsonNode root, long now) {
+        String expire = root.path("expireTime").asText("");
+        try {
+            if (!expire.isEmpty()) return Instant.parse(expire).toEpochMilli();
+        } catch (RuntimeException ignored) {
+            // fall back to the TTL we asked for
+        }
+        return now + ttlSeconds * 1000;
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> send(String method, String path, ObjectNode body, String... query) {
+        StringBuilder url = new StringBuilder(baseUrl).append(path).append('?');
+        for (String q : query) url.append(q).append('&');
+        url.append("key=").append(URLEncoder.encode(apiKey, StandardCharsets.UTF_8));
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(url.toString()))
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json; charset=utf-8")
+                    .method(method, HttpRequest.BodyPublishers.ofByteArray(MAPPER.writeValueAsBytes(body)))
+                    .build();
+            return http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package service;
+
+import model.APIClient;
+import model.WritingResponse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+// Persistent response cache that survives restarts.
+// Responses are appended to a single segment file (responses.log) in a compact binary format.
+// Lookups go through an open-addressing hash index (responses.<generation>.idx) that is memory-mapped,
+// so opening the cache costs one mmap instead of deserializing every entry. A resized or rebuilt index
+// goes to the next generation rather than being renamed over the old one, which may still be mapped
+// (Windows refuses to replace a mapped file); the newest valid generation wins on open.
+// When the log grows past its size cap, the newest live records are copied into a fresh segment.
+// Entries older than the TTL (DISK_CACHE_TTL_SECONDS, separate from the memory cache's) read as
+// misses and are dropped at the next compaction.
+// One process at a time owns a cache directory (an exclusive lock on cache.lock); a second process,
+// e.g. a batch run next to the GUI, gets an IOException and runs without the disk cache.
+//
+// Record: magic:int | bodyLen:int | keyHi:long | keyLo:long | storedAt:long | prompt:int | completion:int
+//         | total:int | finishLen:int | finish:utf8 | textLen:int | text:utf8 | crc32:int
+// Index:  magic:int | capacity:int | count:int | pad:int | logLength:long | pad:long, then
+//         capacity slots of keyHi:long | keyLo:long | offset+1:long (0 marks an empty slot)
+
+public class DiskResponseCache implements Closeable {
+    private static final int REC_MAGIC = 0x52455331;  // "RES1"
+    private static final int IDX_MAGIC = 0x49445831;  // "IDX1"
+    private static final int REC_HEADER = 8;
+    private static final int REC_FIXED_BODY = 8 + 8 + 8 + 4 + 4 + 4 + 4 + 4 + 4; // everything but the strings
+    private static final int MAX_RECORD = 64 << 20;
+    private static final int IDX_HEADER = 32;
+    private static final int SLOT = 24;
+    private static final int MIN_CAPACITY = 1024;
+
+    private final Path dir;
+    private final Path logPath;
+    private final long maxBytes;
+    private final long ttlMs; // 0 = entries never expire
+    private final LongSupplier clockMs;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    private FileChannel log;
+    private MappedByteBuffer idx;
+    private long generation;
+    private int capacity;
+    private int count;
+
+    public DiskResponseCache(Path dir, long maxBytes) throws IOException {
+        this(dir, maxBytes, 0);
+    }
+
+    public DiskResponseCache(Path dir, long maxBytes, long ttlMs) throws IOException {
+        this(dir, maxBytes, ttlMs, System::currentTimeMillis);
+    }
+
+    // for unit tests that need to control time
+    DiskResponseCache(Path dir, long maxBytes, long ttlMs, LongSupplier clockMs) throws IOException {
+        this.dir = dir;
+        this.ttlMs = Math.max(0, ttlMs);
+        this.clockMs = clockMs;
+        this.logPath = dir.resolve("responses.log");
+        this.maxBytes = Math.max(64 * 1024, maxBytes);
+
+        Files.createDirectories(dir);
+        this.lockChannel = FileChannel.open(dir.resolve("cache.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock l;
+        try {
+            l = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            l = null; // already open in this JVM
+        }
+        if (l == null) {
+            lockChannel.close();
+            throw new IOException(dir + " is in use by another process");
+        }
+        this.lock = l;
+        try {
+            this.log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            openIndex();
+        } catch (IOException | RuntimeException e) {
+            if (log != null) log.close();
+            lockChannel.close(); // releases the lock
+            throw e;
+        }
+    }
+
+    // Opens the disk cache configured in config.properties, or returns null if it is disabled or unusable
+    public static DiskResponseCache fromConfig(APIClient c) {
+        if (!c.diskCacheEnabled()) return null;
+        try {
+            return new DiskResponseCache(Path.of(c.diskCacheDir()), c.diskCacheMaxBytes(), c.diskCacheTtlSeconds() * 1000L);
+        } catch (IOException e) {
+            System.err.println("Disk cache disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public synchronized WritingResponse get(String key) {
+        long hi = keyHi(key), lo = keyLo(key);
+        int slot = findSlot(hi, lo);
+        long stored = idx.getLong(slotPos(slot) + 16);
+        if (stored == 0) return null;
+        try {
+            return readRecord(stored - 1, hi, lo, true);
+        } catch (IOException e) {
+            return null; // treat an unreadable record as a miss; it will be overwritten on the next put
+        }
+    }
+
+    public synchronized void put(String key, WritingResponse r) {
+        long hi = keyHi(key), lo = keyLo(key);
+        try {
+            ByteBuffer rec = encode(hi, lo, clockMs.getAsLong(), r);
+            if (rec.remaining() > maxBytes / 2) return;
+
+            long offset = log.size();
+            while (rec.hasRemaining()) log.write(rec, offset + rec.position());
+            insert(hi, lo, offset);
+            idx.putLong(16, log.size());
+
+            if (log.size() > maxBytes) compact(maxBytes / 2);
+        } catch (IOException e) {
+            System.err.println("Disk cache write failed: " + e.getMessage());
+        }
+    }
+
+    public synchronized int size() { return count; }
+
+    public synchronized long logBytes() throws IOException { return log.size(); }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            idx.force();
+            log.close();
+        } finally {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    // ---- index ----
+
+    private void openIndex() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "responses.*.idx")) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(name.substring("responses.".length(), name.length() - ".idx".length())));
+                } catch (NumberFormatException e) {
+                    // not ours
+                }
+            }
+        }
+        generations.sort(Comparator.reverseOrder());
+        for (long gen : generations) {
+            if (idx == null && mapIndex(indexPath(gen))) generation = gen;
+            else deleteQuietly(indexPath(gen)); // older generations, or ones a crash left half written
+        }
+        if (idx != null) {
+            // records appended after the index was last synced (e.g. a crash) are replayed
+            replay(idx.getLong(16));
+        } else {
+            rebuildIndex(MIN_CAPACITY);
+        }
+    }
+
+    // Maps an existing index if it is well formed and does not point past the end of the log.
+    // The header is checked before mapping so a rejected file stays unmapped and can be deleted.
+    private boolean mapIndex(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer head = ByteBuffer.allocate(IDX_HEADER);
+            while (head.hasRemaining()) {
+                if (ch.read(head, head.position()) < 0) return false;
+            }
+            int cap = head.getInt(4);
+            if (head.getInt(0) != IDX_MAGIC || Integer.bitCount(cap) != 1
+                    || ch.size() != IDX_HEADER + (long) cap * SLOT || head.getLong(16) > log.size()) return false;
+            this.idx = ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size());
+            this.capacity = cap;
+            this.count = head.getInt(8);
+            return true;
+        }
+    }
+
+    // Scans the log from 'from' and indexes every intact record; a torn tail is truncated away
+    private void replay(long from) throws IOException {
+        long pos = from;
+        long end = log.size();
+        ByteBuffer head = ByteBuffer.allocate(REC_HEADER + 16); // through the key
+        while (pos + head.capacity() <= end) { // a tail shorter than that is torn too
+            head.clear();
+            readFully(head, pos);
+            head.flip();
+            int magic = head.getInt();
+            int bodyLen = head.getInt();
+            if (magic != REC_MAGIC || bodyLen < REC_FIXED_BODY || bodyLen > MAX_RECORD || pos + REC_HEADER + bodyLen > end) break;
+            long hi = head.getLong(), lo = head.getLong();
+            try {
+                readRecord(pos, hi, lo, false); // validates the checksum
+            } catch (IOException e) {
+                break;
+            }
+            insert(hi, lo, pos);
+            pos += REC_HEADER + bodyLen;
+        }
+        if (pos < end) log.truncate(pos);
+        idx.putLong(16, pos);
+    }
+
+    private void rebuildIndex(int cap) throws IOException {
+        mapFreshIndex(cap);
+        replay(0);
+    }
+
+    // Maps an empty index as the next generation; the old file is only deleted once nothing can fail
+    private void mapFreshIndex(int cap) throws IOException {
+        long next = generation + 1;
+        Path path = indexPath(next);
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_WRITE, 0, IDX_HEADER + (long) cap * SLOT);
+            m.putInt(0, IDX_MAGIC);
+            m.putInt(4, cap);
+            m.putInt(8, 0);
+            m.putLong(16, 0L); // until filled, a crash leaves an index that replays the whole log
+            this.idx = m;
+            this.capacity = cap;
+            this.count = 0;
+        }
+        Path old = indexPath(generation);
+        generation = next;
+        deleteQuietly(old); // fails on Windows while the old mapping is still live; the next open cleans it up
+    }
+
+    private Path indexPath(long gen) { return dir.resolve("responses." + gen + ".idx"); }
+
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException e) {
+            // retried on the next open
+        }
+    }
+
+    private void insert(long hi, long lo, long offset) throws IOException {
+        if ((count + 1) * 2L > capacity) grow();
+        int slot = findSlot(hi, lo);
+        int pos = slotPos(slot);
+        if (idx.getLong(pos + 16) == 0) {
+            count++;
+            idx.putInt(8, count);
+        }
+        idx.putLong(pos, hi);
+        idx.putLong(pos + 8, lo);
+        idx.putLong(pos + 16, offset + 1);
+    }
+
+    // Doubles the table, re-inserting the live slots from the old mapping
+    private void grow() throws IOException {
+        MappedByteBuffer old = idx;
+        int oldCap = capacity;
+        long logLength = old.getLong(16);
+        mapFreshIndex(oldCap * 2);
+        for (int i = 0; i < oldCap; i++) {
+            int pos = IDX_HEADER + i * SLOT;
+            long stored = old.getLong(pos + 16);
+            if (stored == 0) continue;
+            long hi = old.getLong(pos), lo = old.getLong(pos + 8);
+            int slot = findSlot(hi, lo);
+            int np = slotPos(slot);
+            idx.putLong(np, hi);
+            idx.putLong(np + 8, lo);
+            idx.putLong(np + 16, stored);
+            count++;
+        }
+        idx.putInt(8, count);
+        idx.putLong(16, logLength);
+    }
+
+    // Linear probing; returns the slot holding the key or the empty slot where it belongs
+    private int findSlot(long hi, long lo) {
+        int mask = capacity - 1;
+        int slot = (int) (mix(hi ^ lo) & mask);
+        while (true) {
+            int pos = slotPos(slot);
+            if (idx.getLong(pos + 16) == 0) return slot;
+            if (idx.getLong(pos) == hi && idx.getLong(pos + 8) == lo) return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int slotPos(int slot) { return IDX_HEADER + slot * SLOT; }
+
+    // ---- compaction ----
+
+    // Copies the newest live records into a new segment until 'targetBytes' is reached, then swaps it in
+    private void compact(long targetBytes) throws IOException {
+        List<long[]> live = new ArrayList<>(count); // {offset, recordLength}
+        ByteBuffer head = ByteBuffer.allocate(REC_HEADER + 24); // through storedAt
+        long now = clockMs.getAsLong();
+        for (int i = 0; i < capacity; i++) {
+            long stored = idx.getLong(IDX_HEADER + i * SLOT + 16);
+            if (stored == 0) continue;
+            head.clear();
+            readFully(head, stored - 1);
+            if (ttlMs > 0 && now - head.getLong(REC_HEADER + 16) > ttlMs) continue; // expired
+            live.add(new long[] { stored - 1, REC_HEADER + head.getInt(4) });
+        }
+        // later offsets are newer writes
+        live.sort((a, b) -> Long.compare(b[0], a[0]));
+        long kept = 0;
+        int keep = 0;
+        while (keep < live.size() && kept + live.get(keep)[1] <= targetBytes) {
+            kept += live.get(keep)[1];
+            keep++;
+        }
+        List<long[]> survivors = new ArrayList<>(live.subList(0, keep));
+        survivors.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        Path tmp = dir.resolve("responses.log.tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            for (long[] rec : survivors) {
+                long done = 0;
+                while (done < rec[1]) {
+                    done += log.transferTo(rec[0] + done, rec[1] - done, out);
+                }
+            }
+            out.force(false);
+        }
+        log.close();
+        Files.move(tmp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        int cap = MIN_CAPACITY;
+        while (survivors.size() * 2L >= cap) cap <<= 1;
+        rebuildIndex(cap);
+    }
+
+    // ---- records ----
+
+    private static ByteBuffer encode(long hi, long lo, long storedAt, WritingResponse r) {
+        byte[] finish = (r.getFinishReason() == null ? "" : r.getFinishReason()).getBytes(StandardCharsets.UTF_8);
+        byte[] text = (r.getText() == null ? "" : r.getText()).getBytes(StandardCharsets.UTF_8);
+        int bodyLen = REC_FIXED_BODY + finish.length + text.length;
+
+        ByteBuffer b = ByteBuffer.allocate(REC_HEADER + bodyLen);
+        b.putInt(REC_MAGIC).putInt(bodyLen)
+                .putLong(hi).putLong(lo).putLong(storedAt)
+                .putInt(r.getPromptTokens()).putInt(r.getCompletionTokens()).putInt(r.getTotalTokens())
+                .putInt(finish.length).put(finish)
+                .putInt(text.length).put(text);
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), REC_HEADER, b.position() - REC_HEADER);
+        b.putInt((int) crc.getValue());
+        b.flip();
+        return b;
+    }
+
+    // null when checkTtl is set and the record has expired
+    private WritingResponse readRecord(long offset, long hi, long lo, boolean checkTtl) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(REC_HEADER);
+        readFully(head, offset);
+        head.flip();
+        if (head.getInt() != REC_MAGIC) throw new IOException("bad record magic at " + offset);
+        int bodyLen = head.getInt();
+        if (bodyLen < REC_FIXED_BODY || bodyLen > MAX_RECORD) throw new IOException("bad record length at " + offset);
+
+        ByteBuffer body = ByteBuffer.allocate(bodyLen);
+        readFully(body, offset + REC_HEADER);
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, bodyLen - 4);
+        body.flip();
+        if ((int) crc.getValue() != body.getInt(bodyLen - 4)) throw new IOException("checksum mismatch at " + offset);
+        if (body.getLong() != hi || body.getLong() != lo) throw new IOException("key mismatch at " + offset);
+
+        long storedAt = body.getLong();
+        if (checkTtl && ttlMs > 0 && clockMs.getAsLong() - storedAt > ttlMs) return null;
+        int pt = body.getInt(), ct = body.getInt(), tt = body.getInt();
+        String finish = readString(body);
+        String text = readString(body);
+        return new WritingResponse(text, finish, pt, ct, tt);
+    }
+
+    private static String readString(ByteBuffer b) throws IOException {
+        int len = b.getInt();
+        if (len < 0 || len > b.remaining()) throw new IOException("bad string length");
+        String s = new String(b.array(), b.position(), len, StandardCharsets.UTF_8);
+        b.position(b.position() + len);
+        return s;
+    }
+
+    private void readFully(ByteBuffer dst, long pos) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = log.read(dst, pos + dst.position());
+            if (n < 0) throw new IOException("unexpected end of cache log");
+        }
+    }
+
+    // ---- keys ----
+
+    // Keys are ResponseCache.keyFor hex digests; the first 128 bits identify the record
+    private static long keyHi(String key) { return HexFormat.fromHexDigitsToLong(key, 0, 16); }
+    private static long keyLo(String key) { return HexFormat.fromHexDigitsToLong(key, 16, 32); }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
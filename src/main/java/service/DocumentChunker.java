@@ -0,0 +1,132 @@
+package service;
+
+import model.TokenEstimator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Splits long documents into pieces that each fit a token budget (per TokenEstimator), preferring natural boundaries:
+// sections (markdown headings, attachment markers, "---" rules) first, then paragraphs, then
+// sentences, and only as a last resort a hard cut. Adjacent small pieces are packed together
+// so a document is split into as few chunks as the budget allows.
+
+public class DocumentChunker {
+    public static final int DEFAULT_MAX_TOKENS = 3000;
+
+    private final int maxTokens;
+    private final TokenEstimator estimator;
+
+    public DocumentChunker(int maxTokensPerChunk) {
+        this(maxTokensPerChunk, TokenEstimator.shared());
+    }
+
+    // for unit tests that need an uncalibrated estimator
+    DocumentChunker(int maxTokensPerChunk, TokenEstimator estimator) {
+        this.maxTokens = Math.max(1, maxTokensPerChunk);
+        this.estimator = estimator;
+    }
+
+    public boolean fitsInOneChunk(String text) {
+        return text == null || estimator.estimate(text) <= maxTokens;
+    }
+
+    public List<String> split(String text) {
+        List<String> chunks = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            chunks.add(text == null ? "" : text);
+            return chunks;
+        }
+        if (fitsInOneChunk(text)) {
+            chunks.add(text);
+            return chunks;
+        }
+
+        StringBuilder current = new StringBuilder();
+        int currentTokens = 0;
+        for (String section : sections(text)) {
+            for (String piece : fit(section)) {
+                // packs pieces until the next one would overflow the budget
+                int t = estimator.estimate(piece);
+                if (current.length() > 0 && currentTokens + t > maxTokens) {
+                    chunks.add(current.toString());
+                    current.setLength(0);
+                    currentTokens = 0;
+                }
+                if (current.length() > 0) current.append("\n\n");
+                current.append(piece);
+                currentTokens += t;
+            }
+            // a new section starts a new chunk when the current one is already reasonably full
+            if (currentTokens > maxTokens / 2) {
+                chunks.add(current.toString());
+                current.setLength(0);
+                currentTokens = 0;
+            }
+        }
+        if (current.length() > 0) chunks.add(current.toString());
+        return chunks;
+    }
+
+    // Breaks one section into paragraphs, sentences or hard cuts until every piece fits
+    private List<String> fit(String section) {
+        List<String> out = new ArrayList<>();
+        if (estimator.estimate(section) <= maxTokens) {
+            out.add(section);
+            return out;
+        }
+        for (String para : section.split("\\n\\s*\\n")) {
+            String p = para.strip();
+            if (p.isEmpty()) continue;
+            if (estimator.estimate(p) <= maxTokens) {
+                out.add(p);
+                continue;
+            }
+            StringBuilder run = new StringBuilder();
+            int runTokens = 0;
+            for (String sentence : p.split("(?<=[.!?])\\s+")) {
+                int t = estimator.estimate(sentence);
+                if (run.length() > 0 && runTokens + t > maxTokens) {
+                    out.add(run.toString());
+                    run.setLength(0);
+                    runTokens = 0;
+                }
+                if (t > maxTokens) {
+                    hardCut(sentence, out);
+                    continue;
+                }
+                if (run.length() > 0) run.append(' ');
+                run.append(sentence);
+                runTokens += t;
+            }
+            if (run.length() > 0) out.add(run.toString());
+        }
+        return out;
+    }
+
+    private void hardCut(String s, List<String> out) {
+        int start = 0;
+        while (start < s.length()) {
+            String rest = s.substring(start);
+            int cut = Math.max(1, estimator.prefixWithin(rest, maxTokens));
+            out.add(rest.substring(0, cut));
+            start += cut;
+        }
+    }
+
+    // A section starts at a markdown heading, an attachment marker or a horizontal rule
+    private static List<String> sections(String text) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        for (String line : text.split("\\n", -1)) {
+            String t = line.strip();
+            boolean boundary = t.startsWith("#") || t.startsWith("[FILE: ") || t.equals("---");
+            if (boundary && !cur.toString().isBlank()) {
+                out.add(cur.toString().strip());
+                cur.setLength(0);
+            }
+            cur.append(line).append('\n');
+        }
+        if (!cur.toString().isBlank()) out.add(cur.toString().strip());
+        return out;
+    }
+}
@@ -0,0 +1,234 @@
+package service;
+
+import model.WritingRequest;
+import model.strategy.StrategyRegistry;
+import model.strategy.WritingStrategy;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Encodes a WritingRequest as a Gemini generateContent body, writing UTF-8 bytes directly.
+// The user text is escaped in a single pass into a per-thread scratch buffer. Requests built from a
+// registered strategy are spliced into that strategy's pre-encoded template (system instruction and
+// generationConfig), so only the user text and maxOutputTokens are written per request; other requests
+// reuse a pre-encoded systemInstruction segment per distinct system prompt.
+
+public final class GeminiRequestEncoder {
+    private static final int MAX_CACHED_PROMPTS = 64;
+    private static final int MAX_RETAINED_BUFFER = 1 << 20; // don't pin huge buffers to a thread forever
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    // System prompt -> encoded {"parts":[{"text":"..."}]} object
+    private static final Map<String, byte[]> SYSTEM_SEGMENTS = new ConcurrentHashMap<>();
+
+    // Registered strategy -> body template around the user text
+    private static final Map<WritingStrategy, Template> TEMPLATES = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Utf8Buffer> SCRATCH = ThreadLocal.withInitial(() -> new Utf8Buffer(8192));
+
+    private GeminiRequestEncoder() { }
+
+    // Returns the full request body as UTF-8, ready for BodyPublishers.ofByteArray
+    public static byte[] encode(WritingRequest r) {
+        return encode(r, null);
+    }
+
+    // With a cachedContents name the system prompt is referenced instead of sent inline
+    public static byte[] encode(WritingRequest r, String cachedContent) {
+        Utf8Buffer out = SCRATCH.get();
+        out.reset();
+
+        Template t = cachedContent == null ? templateFor(r) : null;
+        if (t != null) {
+            out.raw(t.head).string(r.getUserText()).raw(t.config)
+                    .ascii(Integer.toString(r.getMaxTokens())).ascii("}}");
+        } else {
+            encodeGeneric(r, out, cachedContent);
+        }
+
+        byte[] body = out.toByteArray();
+        if (out.capacity() > MAX_RETAINED_BUFFER) SCRATCH.remove();
+        return body;
+    }
+
+    private static void encodeGeneric(WritingRequest r, Utf8Buffer out, String cachedContent) {
+        out.ascii("{");
+        String sys = r.getSystemPrompt();
+        if (cachedContent != null) {
+            out.ascii("\"cachedContent\":").string(cachedContent).ascii(",");
+        } else if (sys != null && !sys.isEmpty()) {
+            out.ascii("\"systemInstruction\":").raw(systemSegment(sys)).ascii(",");
+        }
+        out.ascii("\"contents\":[{\"role\":\"user\",\"parts\":[{\"text\":");
+        out.string(r.getUserText());
+        out.ascii("}]}],\"generationConfig\":{\"candidateCount\":1,\"temperature\":")
+                .ascii(Double.toString(r.getTemperature()))
+                .ascii(",\"topP\":").ascii(Double.toString(r.getTopP()))
+                .ascii(",\"maxOutputTokens\":").ascii(Integer.toString(r.getMaxTokens()))
+                .ascii("}}");
+    }
+
+    // Bytes before the user text, and after it up to the maxOutputTokens value
+    static final class Template {
+        final WritingStrategy strategy;
+        final byte[] head;
+        final byte[] config;
+
+        Template(WritingStrategy s) {
+            this.strategy = s;
+            String sys = s.systemPrompt();
+            Utf8Buffer b = new Utf8Buffer((sys == null ? 0 : sys.length()) + 96);
+            b.ascii("{");
+            if (sys != null && !sys.isEmpty()) {
+                b.ascii("\"systemInstruction\":{\"parts\":[{\"text\":").string(sys).ascii("}]},");
+            }
+            b.ascii("\"contents\":[{\"role\":\"user\",\"parts\":[{\"text\":");
+            this.head = b.toByteArray();
+
+            b.reset();
+            b.ascii("}]}],\"generationConfig\":{\"candidateCount\":1,\"temperature\":")
+                    .ascii(Double.toString(s.temperature()))
+                    .ascii(",\"topP\":").ascii(Double.toString(s.topP()))
+                    .ascii(",\"maxOutputTokens\":");
+            this.config = b.toByteArray();
+        }
+
+        // Whether the request carries exactly the settings the template was encoded from
+        boolean matches(WritingRequest r) {
+            return Double.compare(r.getTemperature(), strategy.temperature()) == 0
+                    && Double.compare(r.getTopP(), strategy.topP()) == 0
+                    && Objects.equals(r.getSystemPrompt(), strategy.systemPrompt());
+        }
+    }
+
+    // The template of the strategy the request was built from, or null when it wasn't built by
+    // RequestFactory or its settings were changed afterwards
+    static Template templateFor(WritingRequest r) {
+        if (r.getMode() == null) return null;
+        WritingStrategy s = StrategyRegistry.shared().find(r.getMode().name());
+        if (s == null) return null;
+        Template t = TEMPLATES.get(s);
+        if (t == null) {
+            // a re-registered mode leaves its old template behind; this only guards against unbounded growth
+            if (TEMPLATES.size() >= MAX_CACHED_PROMPTS) TEMPLATES.clear();
+            t = TEMPLATES.computeIfAbsent(s, Template::new);
+        }
+        return t.matches(r) ? t : null;
+    }
+
+    // Pre-encoded {"parts":[{"text":"<prompt>"}]} for a system prompt
+    static byte[] systemSegment(String prompt) {
+        byte[] cached = SYSTEM_SEGMENTS.get(prompt);
+        if (cached != null) return cached;
+
+        Utf8Buffer b = new Utf8Buffer(prompt.length() + 32);
+        b.ascii("{\"parts\":[{\"text\":").string(prompt).ascii("}]}");
+        byte[] seg = b.toByteArray();
+
+        // prompts are per-strategy constants, so this only guards against unbounded growth
+        if (SYSTEM_SEGMENTS.size() >= MAX_CACHED_PROMPTS) SYSTEM_SEGMENTS.clear();
+        SYSTEM_SEGMENTS.put(prompt, seg);
+        return seg;
+    }
+
+    // Growable byte buffer with a JSON string writer that escapes and UTF-8 encodes in one pass
+    static final class Utf8Buffer {
+        private byte[] buf;
+        private int len;
+
+        Utf8Buffer(int initialCapacity) { buf = new byte[Math.max(16, initialCapacity)]; }
+
+        void reset() { len = 0; }
+        int length() { return len; }
+        int capacity() { return buf.length; }
+        byte[] toByteArray() { return Arrays.copyOf(buf, len); }
+
+        Utf8Buffer raw(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, len, bytes.length);
+            len += bytes.length;
+            return this;
+        }
+
+        // Only for literals and numbers known to be 7-bit ASCII
+        Utf8Buffer ascii(String s) {
+            int n = s.length();
+            ensure(n);
+            for (int i = 0; i < n; i++) buf[len++] = (byte) s.charAt(i);
+            return this;
+        }
+
+        // Writes s as a quoted JSON string; null is written as ""
+        Utf8Buffer string(String s) {
+            if (s == null) s = "";
+            int n = s.length();
+            // sized for the common all-ASCII case; escapes and multi-byte chars grow the buffer as needed
+            ensure(n + 2);
+            buf[len++] = '"';
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                    ensure(1);
+                    buf[len++] = (byte) c;
+                } else if (c < 0x80) {
+                    writeEscaped(c);
+                } else if (c < 0x800) {
+                    ensure(2);
+                    buf[len++] = (byte) (0xC0 | (c >> 6));
+                    buf[len++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    ensure(4);
+                    buf[len++] = (byte) (0xF0 | (cp >> 18));
+                    buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[len++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    // unpaired surrogate: emit U+FFFD rather than invalid UTF-8
+                    ensure(3);
+                    buf[len++] = (byte) 0xEF;
+                    buf[len++] = (byte) 0xBF;
+                    buf[len++] = (byte) 0xBD;
+                } else {
+                    ensure(3);
+                    buf[len++] = (byte) (0xE0 | (c >> 12));
+                    buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[len++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            ensure(1);
+            buf[len++] = '"';
+            return this;
+        }
+
+        private void writeEscaped(char c) {
+            ensure(6);
+            buf[len++] = '\\';
+            switch (c) {
+                case '"' -> buf[len++] = '"';
+                case '\\' -> buf[len++] = '\\';
+                case '\n' -> buf[len++] = 'n';
+                case '\r' -> buf[len++] = 'r';
+                case '\t' -> buf[len++] = 't';
+                case '\b' -> buf[len++] = 'b';
+                case '\f' -> buf[len++] = 'f';
+                default -> {
+                    buf[len++] = 'u';
+                    buf[len++] = '0';
+                    buf[len++] = '0';
+                    buf[len++] = HEX[(c >> 4) & 0xF];
+                    buf[len++] = HEX[c & 0xF];
+                }
+            }
+        }
+
+        private void ensure(int extra) {
+            if (len + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+            }
+        }
+    }
+}
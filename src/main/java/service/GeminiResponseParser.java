@@ -0,0 +1,193 @@
+package service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import model.APIException;
+import model.WritingResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Single-pass decoder for Gemini GenerateContentResponse JSON.
+// Walks the Jackson token stream once and pulls out the candidate text, finishReason,
+// blockReason and usageMetadata without building a tree or running any regexes.
+
+public final class GeminiResponseParser {
+    // JsonFactory is thread-safe and expensive to create, so one instance is shared
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private GeminiResponseParser() { }
+
+    // Raw fields decoded from one response (or one streamed chunk) before any placeholder text is applied
+    public static final class Result {
+        private final StringBuilder text = new StringBuilder();
+        private String finishReason = "";
+        private String blockReason;
+        private boolean error;
+        private int promptTokens, completionTokens, totalTokens;
+        private int inputTokens, outputTokens; // older field names, used only as fallbacks
+
+        public String getText() { return text.toString(); }
+        public String getFinishReason() { return finishReason; }
+        public String getBlockReason() { return blockReason; }
+        public boolean isError() { return error; }
+        public int getPromptTokens() { return promptTokens > 0 ? promptTokens : inputTokens; }
+        public int getCompletionTokens() { return completionTokens > 0 ? completionTokens : outputTokens; }
+        public int getTotalTokens() {
+            if (totalTokens > 0) return totalTokens;
+            return getPromptTokens() + getCompletionTokens();
+        }
+    }
+
+    // Parses a complete (non-streamed) response body straight from the bytes on the wire
+    public static WritingResponse parse(byte[] body) {
+        if (body == null || isBlank(body)) {
+            throw new APIException("Empty response from API");
+        }
+        Result r;
+        try (JsonParser p = JSON.createParser(body)) {
+            r = read(p);
+        } catch (IOException e) {
+            throw new APIException("Could not parse API response: " + e.getMessage());
+        }
+        if (r.error) {
+            throw new APIException("API returned error JSON: " + new String(body, StandardCharsets.UTF_8));
+        }
+        return toResponse(r.getText(), r.finishReason, r.blockReason,
+                r.getPromptTokens(), r.getCompletionTokens(), r.getTotalTokens());
+    }
+
+    // Parses the JSON payload of a single SSE "data:" event
+    public static Result parseChunk(String data) {
+        try (JsonParser p = JSON.createParser(data)) {
+            Result r = read(p);
+            if (r.error) {
+                throw new APIException("API returned error JSON: " + data);
+            }
+            return r;
+        } catch (IOException e) {
+            throw new APIException("Could not parse API response: " + e.getMessage());
+        }
+    }
+
+    // Builds the final response, substituting a readable message when the model returned no text
+    public static WritingResponse toResponse(String text, String finish, String block, int pt, int ct, int tt) {
+        // safety
+        if (text == null || text.isEmpty()) {
+            if (block != null) {
+                return new WritingResponse("[Response blocked by safety: " + block + "]", finish, pt, ct, tt);
+            }
+            if ("MAX_TOKENS".equals(finish)) {
+                return new WritingResponse(
+                        "[Model stopped early (MAX_TOKENS) and returned no text. Increase GEMINI_MAX_OUTPUT_TOKENS in config.]",
+                        finish, pt, ct, tt);
+            }
+            return new WritingResponse("[Model returned no text in candidates.]", finish, pt, ct, tt);
+        }
+
+        return new WritingResponse(text, finish, pt, ct, tt);
+    }
+
+    // Walks the top-level object; anything we don't need is skipped without being materialized
+    private static Result read(JsonParser p) throws IOException {
+        Result r = new Result();
+        if (p.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("expected a JSON object");
+        }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "error" -> { r.error = true; p.skipChildren(); }
+                case "candidates" -> readCandidates(p, r);
+                case "promptFeedback" -> readPromptFeedback(p, r);
+                case "blockReason" -> r.blockReason = p.getValueAsString();
+                case "usageMetadata" -> readUsage(p, r);
+                default -> p.skipChildren();
+            }
+        }
+        return r;
+    }
+
+    // Only the first candidate is used since requests ask for candidateCount=1
+    private static void readCandidates(JsonParser p, Result r) throws IOException {
+        if (p.currentToken() != JsonToken.START_ARRAY) { p.skipChildren(); return; }
+        boolean first = true;
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (!first || p.currentToken() != JsonToken.START_OBJECT) { p.skipChildren(); continue; }
+            first = false;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                p.nextToken();
+                switch (field) {
+                    case "content" -> readContent(p, r);
+                    case "finishReason" -> r.finishReason = p.getValueAsString("");
+                    default -> p.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static void readContent(JsonParser p, Result r) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) { p.skipChildren(); return; }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            if (!"parts".equals(field) || p.currentToken() != JsonToken.START_ARRAY) { p.skipChildren(); continue; }
+            while (p.nextToken() != JsonToken.END_ARRAY) {
+                readPart(p, r);
+            }
+        }
+    }
+
+    // A part is appended unless it is flagged as model "thought" output
+    private static void readPart(JsonParser p, Result r) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) { p.skipChildren(); return; }
+        String text = null;
+        boolean thought = false;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "text" -> text = p.getValueAsString();
+                case "thought" -> thought = p.getValueAsBoolean();
+                default -> p.skipChildren();
+            }
+        }
+        if (text != null && !thought) r.text.append(text);
+    }
+
+    private static void readPromptFeedback(JsonParser p, Result r) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) { p.skipChildren(); return; }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            if ("blockReason".equals(field)) r.blockReason = p.getValueAsString();
+            else p.skipChildren();
+        }
+    }
+
+    private static void readUsage(JsonParser p, Result r) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) { p.skipChildren(); return; }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "promptTokenCount" -> r.promptTokens = p.getValueAsInt();
+                case "candidatesTokenCount" -> r.completionTokens = p.getValueAsInt();
+                case "totalTokenCount" -> r.totalTokens = p.getValueAsInt();
+                case "inputTokenCount" -> r.inputTokens = p.getValueAsInt();
+                case "outputTokenCount" -> r.outputTokens = p.getValueAsInt();
+                default -> p.skipChildren();
+            }
+        }
+    }
+
+    private static boolean isBlank(byte[] body) {
+        for (byte b : body) {
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,268 @@
+package service;
+
+import metrics.Metrics;
+import model.APIClient;
+import model.RequestFactory;
+import model.WritingMode;
+import model.WritingResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+// Re-generates only what changed when a writer edits and resubmits. Documents are split into
+// paragraphs (blank-line separated) keyed by a hash of their whitespace-normalized text, and the
+// reworded output of each paragraph is kept per mode, together with the tips given about it. On a
+// resubmit only paragraphs with a new hash are sent, each with the end of the paragraph before and the
+// start of the one after as read-only context, and the answers are merged into the previous result:
+// reworded essay rebuilt paragraph by paragraph, tips about the changed paragraphs first, then those
+// about paragraphs still in the text. A full generation's tips are about the whole document and can't
+// be tied to a paragraph, so they are not carried past the first edit.
+// Only the writer's own text is split into paragraphs; an attachment block (see AttachmentLoader.merge)
+// goes along with every paragraph as reference, and changing the attachments needs a full generation.
+// The caller's full generation is used instead when the mode has no earlier result, when more than
+// maxChangedFraction of the paragraphs changed, or when a paragraph answer came back outside the
+// template. A full result whose reworded essay doesn't line up paragraph-for-paragraph with its input
+// can't be reused piecewise.
+
+public class IncrementalGenerator {
+    private static final Metrics METRICS = Metrics.global();
+    private static final int MAX_ENTRIES = 2048;
+    private static final int CONTEXT_WORDS = 60;
+    private static final Pattern PARAGRAPH_BREAK = Pattern.compile("\\n\\s*\\n");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final APIService api;
+    private final double maxChangedFraction;
+    private final int concurrency; // paragraph calls in flight at once, the same bound as for chunks
+    private final int maxOutputTokens; // ceiling for per-paragraph output budgets, 0 = use maxTokens as given
+
+    // a reworded paragraph and the tips given about it
+    private record Piece(String text, List<String> tips) { }
+
+    // "<mode>:<paragraph hash>" -> piece, least recently used evicted first (guarded by itself)
+    private final LinkedHashMap<String, Piece> reworded = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Piece> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    // per mode: intro line of the last full result, what incremental answers are merged into, the key of
+    // the attachments it was made with, and the last result with the key of the document it was for,
+    // returned as is when that document comes again
+    private record Summary(String intro, String attachments, String document, WritingResponse last) { }
+    private final ConcurrentHashMap<WritingMode, Summary> summaries = new ConcurrentHashMap<>();
+
+    public IncrementalGenerator(APIService api, double maxChangedFraction, int concurrency, int maxOutputTokens) {
+        this.api = api;
+        this.maxChangedFraction = maxChangedFraction;
+        this.concurrency = concurrency;
+        this.maxOutputTokens = maxOutputTokens;
+    }
+
+    // null when INCREMENTAL_ENABLED is false
+    public static IncrementalGenerator fromConfig(APIService api, APIClient c) {
+        if (!c.incrementalEnabled()) return null;
+        return new IncrementalGenerator(api, c.incrementalMaxChangedFraction(), c.chunkConcurrency(), c.maxOutputTokens());
+    }
+
+    // The merged result, or the result of 'full' (kept for later resubmits) when the text needs a full
+    // generation. Cancelling the returned future cancels the paragraph calls or full generation in flight.
+    public CompletableFuture<WritingResponse> generate(WritingMode mode, String text, int maxTokens,
+                                                      Supplier<CompletableFuture<WritingResponse>> full) {
+        Summary summary = summaries.get(mode);
+        List<String> paragraphs = paragraphs(AttachmentLoader.userText(text));
+        String attachments = AttachmentLoader.attachmentBlock(text);
+        if (summary == null || paragraphs.isEmpty() || !summary.attachments.equals(key(mode, attachments))) {
+            return fullGeneration(mode, text, full);
+        }
+
+        int n = paragraphs.size();
+        Piece[] out = new Piece[n];
+        List<Integer> changed = new ArrayList<>();
+        synchronized (reworded) {
+            for (int i = 0; i < n; i++) {
+                out[i] = reworded.get(key(mode, paragraphs.get(i)));
+                if (out[i] == null) changed.add(i);
+            }
+        }
+        if (changed.isEmpty()) {
+            // nothing new to send; the per-paragraph tips alone would drop the full result's tips
+            if (summary.document.equals(key(mode, text))) return CompletableFuture.completedFuture(summary.last);
+            return fullGeneration(mode, text, full); // paragraphs removed or moved around
+        }
+        if (changed.size() > maxChangedFraction * n) return fullGeneration(mode, text, full);
+        METRICS.increment("incremental.generations");
+
+        CompletableFuture<List<WritingResponse>> answers = ChunkedGenerator.window(changed.size(), concurrency, k ->
+                api.generateTextAsync(RequestFactory.build(mode, withContext(paragraphs, changed.get(k), attachments), maxTokens, maxOutputTokens)));
+        CompletableFuture<WritingResponse> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<WritingResponse>> current = new AtomicReference<>();
+        answers.whenComplete((rs, ex) -> {
+            if (ex != null) {
+                result.completeExceptionally(ex);
+                return;
+            }
+            WritingResponse merged = merge(mode, summary, text, paragraphs, out, changed, rs);
+            if (merged != null) {
+                result.complete(merged);
+                return;
+            }
+            // an answer had no reworded paragraph to splice in, so the whole text is redone
+            METRICS.increment("incremental.fallbacks");
+            if (result.isDone()) return;
+            CompletableFuture<WritingResponse> f = fullGeneration(mode, text, full);
+            current.set(f);
+            if (result.isDone()) f.cancel(true); // cancelled while we were starting it
+            f.whenComplete((r, e) -> {
+                if (e != null) result.completeExceptionally(e);
+                else result.complete(r);
+            });
+        });
+        result.whenComplete((r, ex) -> {
+            if (!result.isCancelled()) return;
+            answers.cancel(true);
+            CompletableFuture<WritingResponse> f = current.get();
+            if (f != null) f.cancel(true);
+        });
+        return result;
+    }
+
+    // The full result is what later edits are merged into; cancelling still reaches the call
+    private CompletableFuture<WritingResponse> fullGeneration(WritingMode mode, String text,
+                                                              Supplier<CompletableFuture<WritingResponse>> full) {
+        CompletableFuture<WritingResponse> call = full.get();
+        CompletableFuture<WritingResponse> remembered = call.thenApply(resp -> {
+            remember(mode, text, resp);
+            return resp;
+        });
+        remembered.whenComplete((r, ex) -> {
+            if (remembered.isCancelled()) call.cancel(true);
+        });
+        return remembered;
+    }
+
+    // Keeps a full generation's intro and reworded paragraphs for later incremental resubmits.
+    // Truncated answers and ones not in the strategy template are not kept.
+    public void remember(WritingMode mode, String text, WritingResponse resp) {
+        Parsed parsed = Parsed.of(resp.getText());
+        if (parsed.reworded == null || !"STOP".equals(resp.getFinishReason())) {
+            summaries.remove(mode);
+            return;
+        }
+        summaries.put(mode, new Summary(parsed.intro, key(mode, AttachmentLoader.attachmentBlock(text)), key(mode, text), resp));
+        List<String> in = paragraphs(AttachmentLoader.userText(text));
+        List<String> done = paragraphs(parsed.reworded);
+        if (in.size() != done.size()) return; // merged or split paragraphs: nothing to line up
+        synchronized (reworded) {
+            for (int i = 0; i < in.size(); i++) reworded.put(key(mode, in.get(i)), new Piece(done.get(i), List.of()));
+        }
+    }
+
+    // null when an answer isn't in the strategy template; nothing is kept from such a round
+    private WritingResponse merge(WritingMode mode, Summary previous, String text, List<String> paragraphs, Piece[] out,
+                                  List<Integer> changed, List<WritingResponse> answers) {
+        List<Parsed> parsed = answers.stream().map(r -> Parsed.of(r.getText())).toList();
+        if (parsed.stream().anyMatch(p -> p.reworded == null)) return null;
+        String finish = "STOP";
+        int pt = 0, ct = 0, tt = 0;
+        for (int k = 0; k < changed.size(); k++) {
+            int i = changed.get(k);
+            WritingResponse r = answers.get(k);
+            pt += r.getPromptTokens();
+            ct += r.getCompletionTokens();
+            tt += r.getTotalTokens();
+            if (!"STOP".equals(r.getFinishReason()) && "STOP".equals(finish)) finish = r.getFinishReason();
+            Parsed p = parsed.get(k);
+            out[i] = new Piece(p.reworded, List.copyOf(p.tips));
+            if ("STOP".equals(r.getFinishReason())) {
+                synchronized (reworded) {
+                    reworded.put(key(mode, paragraphs.get(i)), out[i]);
+                }
+            }
+        }
+        Set<String> tips = new LinkedHashSet<>();
+        for (int i : changed) tips.addAll(out[i].tips());
+        for (Piece piece : out) tips.addAll(piece.tips());
+        List<String> kept = tips.stream().limit(ChunkedGenerator.MAX_TIPS).toList();
+        List<String> sections = Arrays.stream(out).map(Piece::text).toList();
+        WritingResponse merged = new WritingResponse(ChunkedGenerator.compose(previous.intro, kept, sections), finish, pt, ct, tt);
+        if ("STOP".equals(finish)) summaries.put(mode, new Summary(previous.intro, previous.attachments, key(mode, text), merged));
+        return merged;
+    }
+
+    // One changed paragraph with its neighbours (and any attachments) as context the model is told to leave alone
+    private static String withContext(List<String> paragraphs, int i, String attachments) {
+        StringBuilder sb = new StringBuilder("(Revising one paragraph of a longer essay; the rest is unchanged. "
+                + "Give tips about and rework only the text under PARAGRAPH, as a single paragraph.)\n\n");
+        if (i > 0) sb.append("BEFORE (context only):\n...").append(lastWords(paragraphs.get(i - 1))).append("\n\n");
+        sb.append("PARAGRAPH:\n").append(paragraphs.get(i));
+        if (i + 1 < paragraphs.size()) sb.append("\n\nAFTER (context only):\n").append(firstWords(paragraphs.get(i + 1))).append("...");
+        return sb.append(attachments).toString();
+    }
+
+    private static String lastWords(String p) {
+        String[] w = WHITESPACE.split(p.strip());
+        return String.join(" ", Arrays.asList(w).subList(Math.max(0, w.length - CONTEXT_WORDS), w.length));
+    }
+
+    private static String firstWords(String p) {
+        String[] w = WHITESPACE.split(p.strip());
+        return String.join(" ", Arrays.asList(w).subList(0, Math.min(w.length, CONTEXT_WORDS)));
+    }
+
+    static List<String> paragraphs(String text) {
+        if (text == null) return List.of();
+        List<String> out = new ArrayList<>();
+        for (String p : PARAGRAPH_BREAK.split(text.strip())) {
+            if (!p.isBlank()) out.add(p.strip());
+        }
+        return out;
+    }
+
+    // Mode plus SHA-256 of the paragraph with whitespace runs collapsed, so re-wrapping a line isn't an edit
+    static String key(WritingMode mode, String paragraph) {
+        String normalized = WHITESPACE.matcher(paragraph.strip()).replaceAll(" ");
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return mode.name() + ":" + HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // An answer split along the strategy template (reworded is null for answers outside it)
+    private static final class Parsed {
+        String intro;
+        final List<String> tips = new ArrayList<>();
+        String reworded;
+
+        static Parsed of(String text) {
+            Parsed p = new Parsed();
+            String whole = text == null ? "" : text.strip();
+            int marker = whole.indexOf(ChunkedGenerator.REWORDED_MARKER);
+            if (marker < 0) return p;
+            for (String line : whole.substring(0, marker).split("\\n")) {
+                String l = line.strip();
+                if (l.startsWith("- ")) p.tips.add(l);
+                else if (!l.isEmpty() && p.intro == null) p.intro = l;
+            }
+            p.reworded = whole.substring(marker + ChunkedGenerator.REWORDED_MARKER.length()).strip();
+            return p;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package service;
+
+import metrics.Metrics;
+import model.APIClient;
+import model.APIException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+// The API keys (each optionally with its own endpoint) that calls are spread across, so throughput
+// grows with the number of provisioned keys instead of stopping at one key's quota.
+// Every key has its own rate limiter and context cache (cachedContents belong to a key's project).
+// Calls go to the healthy key with the fewest calls in flight. A key answering 429 is ejected for its
+// Retry-After (at least KEY_EJECT_SECONDS, doubling while it keeps being throttled) and one answering
+// 403 for KEY_FORBIDDEN_EJECT_SECONDS; if every key is ejected, the one that comes back first is used.
+
+public class KeyPool {
+    private static final Metrics METRICS = Metrics.global();
+    private static final int MAX_BACKOFF_SHIFT = 4; // repeated 429s eject for at most 16x the base time
+
+    public static final class Lane {
+        private final String label;
+        private final String apiKey;
+        private final String baseUrl;
+        private final RateLimiter rateLimiter;
+        private final ContextCache contextCache;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger strikes = new AtomicInteger(); // consecutive ejections
+        private volatile long ejectedUntilMs;
+
+        public Lane(String label, String apiKey, String baseUrl, RateLimiter rateLimiter, ContextCache contextCache) {
+            this.label = label;
+            this.apiKey = apiKey;
+            this.baseUrl = baseUrl;
+            this.rateLimiter = rateLimiter;
+            this.contextCache = contextCache;
+        }
+
+        public String apiKey() { return apiKey; }
+        public String baseUrl() { return baseUrl; }
+        public RateLimiter rateLimiter() { return rateLimiter; }
+        public ContextCache contextCache() { return contextCache; } // null = prompts always inline
+        public int inFlight() { return inFlight.get(); }
+        public long ejectedUntilMs() { return ejectedUntilMs; }
+
+        @Override
+        public String toString() { return label; } // never the key itself
+    }
+
+    private final List<Lane> lanes;
+    private final long throttleEjectMs;
+    private final long forbiddenEjectMs;
+    private final LongSupplier clockMs;
+    private final AtomicInteger rotation = new AtomicInteger(); // spreads ties between equally loaded keys
+
+    public KeyPool(List<Lane> lanes, long throttleEjectMs, long forbiddenEjectMs) {
+        this(lanes, throttleEjectMs, forbiddenEjectMs, System::currentTimeMillis);
+    }
+
+    // for unit tests that need to control time
+    KeyPool(List<Lane> lanes, long throttleEjectMs, long forbiddenEjectMs, LongSupplier clockMs) {
+        if (lanes.isEmpty()) throw new IllegalArgumentException("KeyPool needs at least one key");
+        this.lanes = List.copyOf(lanes);
+        this.throttleEjectMs = Math.max(0, throttleEjectMs);
+        this.forbiddenEjectMs = Math.max(0, forbiddenEjectMs);
+        this.clockMs = clockMs;
+    }
+
+    // One key; ejection never applies since there is nothing to fail over to
+    public static KeyPool single(String apiKey, String baseUrl, RateLimiter rateLimiter, ContextCache contextCache) {
+        return new KeyPool(List.of(new Lane("key 1", apiKey, baseUrl, rateLimiter, contextCache)), 0, 0);
+    }
+
+    // GEMINI_API_KEYS, or GEMINI_API_KEY alone, each with the configured per-key quotas
+    public static KeyPool fromConfig(APIClient c) {
+        return fromConfig(c, null, true);
+    }
+
+    // baseUrlOverride (if not null) replaces every key's endpoint; rateLimited=false drops the client-side limits
+    public static KeyPool fromConfig(APIClient c, String baseUrlOverride, boolean rateLimited) {
+        List<Lane> lanes = new ArrayList<>();
+        for (String entry : c.apiKeys()) {
+            // "key" or "key@https://endpoint"
+            int at = entry.indexOf('@');
+            String key = at < 0 ? entry : entry.substring(0, at).trim();
+            String url = baseUrlOverride != null ? baseUrlOverride : at < 0 ? c.baseUrl() : entry.substring(at + 1).trim();
+            lanes.add(new Lane("key " + (lanes.size() + 1), key, url,
+                    rateLimited ? RateLimiter.fromConfig(c) : RateLimiter.unlimited(), ContextCache.fromConfig(c, key, url)));
+        }
+        return new KeyPool(lanes, c.keyEjectSeconds() * 1000, c.keyForbiddenEjectSeconds() * 1000);
+    }
+
+    public List<Lane> lanes() { return lanes; }
+
+    public int size() { return lanes.size(); }
+
+    // Picks the least-loaded healthy key and counts the call against it; pair with release()
+    public Lane acquire() {
+        long now = clockMs.getAsLong();
+        int n = lanes.size();
+        int start = Math.floorMod(rotation.getAndIncrement(), n);
+        Lane best = null, soonest = null;
+        for (int i = 0; i < n; i++) {
+            Lane l = lanes.get((start + i) % n);
+            if (l.ejectedUntilMs <= now) {
+                if (best == null || l.inFlight.get() < best.inFlight.get()) best = l;
+            } else if (soonest == null || l.ejectedUntilMs < soonest.ejectedUntilMs) {
+                soonest = l;
+            }
+        }
+        Lane pick = best != null ? best : soonest;
+        pick.inFlight.incrementAndGet();
+        return pick;
+    }
+
+    // Ends a call taken with acquire(); err is null on success. 429 and 403 answers eject the key.
+    public void release(Lane lane, APIException err) {
+        lane.inFlight.decrementAndGet();
+        if (err == null) {
+            lane.strikes.set(0);
+            return;
+        }
+        if (!ejects(err) || lanes.size() == 1) return;
+        long ms;
+        if (err.getStatus() == 403) {
+            ms = forbiddenEjectMs;
+        } else {
+            int strikes = lane.strikes.incrementAndGet();
+            ms = Math.max(err.getRetryAfterMs(), throttleEjectMs << Math.min(MAX_BACKOFF_SHIFT, strikes - 1));
+        }
+        lane.ejectedUntilMs = Math.max(lane.ejectedUntilMs, clockMs.getAsLong() + ms);
+        METRICS.increment("keys.ejected");
+    }
+
+    // Whether a failed call can go straight to another key instead of waiting out a backoff:
+    // its key was ejected for it and a healthy one is left
+    public boolean failsOver(APIException err) {
+        if (!ejects(err) || lanes.size() == 1) return false;
+        long now = clockMs.getAsLong();
+        for (Lane l : lanes) {
+            if (l.ejectedUntilMs <= now) return true;
+        }
+        return false;
+    }
+
+    // a 403/404 about a cachedContents entry is the context cache's business, not the key's
+    private static boolean ejects(APIException err) {
+        int s = err.getStatus();
+        return (s == 429 || s == 403) && !ContextCache.aboutCachedContent(err);
+    }
+}
@@ -0,0 +1,38 @@
+package service;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Keeps the most recent call latencies in a fixed ring so percentiles can be read cheaply.
+// Recording is a single atomic increment and store; reading copies and sorts the ring.
+
+public class LatencyTracker {
+    private final AtomicLongArray samples;
+    private final AtomicLong count = new AtomicLong();
+
+    public LatencyTracker(int capacity) {
+        this.samples = new AtomicLongArray(Math.max(1, capacity));
+    }
+
+    public void record(long latencyMs) {
+        long i = count.getAndIncrement();
+        samples.set((int) (i % samples.length()), Math.max(0, latencyMs));
+    }
+
+    // Number of samples currently held (up to the ring capacity)
+    public int size() {
+        return (int) Math.min(count.get(), samples.length());
+    }
+
+    // Returns the given percentile (0-100) of the recent samples, or -1 if there are none
+    public long percentile(double p) {
+        int n = size();
+        if (n == 0) return -1;
+        long[] copy = new long[n];
+        for (int i = 0; i < n; i++) copy[i] = samples.get(i);
+        Arrays.sort(copy);
+        int idx = (int) Math.ceil(p / 100.0 * n) - 1;
+        return copy[Math.max(0, Math.min(n - 1, idx))];
+    }
+}
@@ -0,0 +1,156 @@
+package service;
+
+import metrics.Metrics;
+import model.APIClient;
+import model.APIException;
+import model.TokenEstimator;
+import model.WritingRequest;
+import model.strategy.StrategyRegistry;
+import model.strategy.WritingStrategy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+// Chooses the Gemini model for each attempt from an ordered list per writing mode (GEMINI_MODELS_<MODE>,
+// else GEMINI_MODELS, else GEMINI_MODEL). Each model keeps a profile of recent latencies and its error
+// rate; the first model in the list whose expected latency fits the time left before the deadline is
+// used, and if none fits, the fastest one. A model answering 429 or 5xx cools down (MODEL_COOLDOWN_SECONDS,
+// doubling while it keeps failing) and the call moves on to the next model straight away.
+// Short inputs go to GEMINI_LIGHT_MODEL first when one is set and the mode's strategy allows it.
+
+public class ModelRouter {
+    private static final Metrics METRICS = Metrics.global();
+    private static final int MAX_BACKOFF_SHIFT = 4;
+    private static final double ERROR_ALPHA = 0.2; // weight of the newest outcome in the error rate
+
+    private static final class Profile {
+        final String model;
+        final LatencyTracker latencies = new LatencyTracker(64);
+        final AtomicInteger strikes = new AtomicInteger();
+        volatile double errorRate;
+        volatile long coolUntilMs;
+
+        Profile(String model) { this.model = model; }
+
+        // p90 latency stretched by the chance of having to go again; 0 (try it) without history
+        long expectedMs() {
+            long p90 = latencies.percentile(90);
+            return p90 < 0 ? 0 : (long) (p90 / Math.max(0.2, 1 - errorRate));
+        }
+
+        synchronized void outcome(boolean failed) {
+            errorRate = errorRate * (1 - ERROR_ALPHA) + (failed ? ERROR_ALPHA : 0);
+        }
+    }
+
+    private final List<String> defaults;
+    private final Map<String, List<String>> byMode; // mode id -> ordered models
+    private final String lightModel;                // null = never
+    private final int lightMaxInputTokens;
+    private final long cooldownMs;
+    private final LongSupplier clockMs;
+    private final ConcurrentHashMap<String, Profile> profiles = new ConcurrentHashMap<>();
+
+    public ModelRouter(List<String> defaults, Map<String, List<String>> byMode, String lightModel,
+                       int lightMaxInputTokens, long cooldownMs) {
+        this(defaults, byMode, lightModel, lightMaxInputTokens, cooldownMs, System::currentTimeMillis);
+    }
+
+    // for unit tests that need to control time
+    ModelRouter(List<String> defaults, Map<String, List<String>> byMode, String lightModel,
+                int lightMaxInputTokens, long cooldownMs, LongSupplier clockMs) {
+        if (defaults.isEmpty()) throw new IllegalArgumentException("ModelRouter needs at least one model");
+        this.defaults = List.copyOf(defaults);
+        this.byMode = Map.copyOf(byMode);
+        this.lightModel = lightModel == null || lightModel.isBlank() ? null : lightModel.trim();
+        this.lightMaxInputTokens = lightMaxInputTokens;
+        this.cooldownMs = Math.max(0, cooldownMs);
+        this.clockMs = clockMs;
+    }
+
+    // Always the one model, as before routing existed
+    public static ModelRouter single(String model) {
+        return new ModelRouter(List.of(model), Map.of(), null, 0, 0);
+    }
+
+    public static ModelRouter fromConfig(APIClient c) {
+        return new ModelRouter(c.models(), c.modelsByMode(), c.lightModel(), c.lightModelMaxInputTokens(),
+                c.modelCooldownSeconds() * 1000);
+    }
+
+    // Models a request may use, most preferred first
+    public List<String> candidates(WritingRequest req) {
+        List<String> list = req.getMode() == null ? defaults : byMode.getOrDefault(req.getMode().name(), defaults);
+        if (lightModel == null || list.get(0).equals(lightModel)) return list;
+        WritingStrategy s = req.getMode() == null ? null : StrategyRegistry.shared().find(req.getMode().name());
+        if (s != null && !s.allowsLightModel()) return list;
+        if (TokenEstimator.shared().estimatePrompt(req) > lightMaxInputTokens) return list;
+        List<String> withLight = new ArrayList<>(list.size() + 1);
+        withLight.add(lightModel);
+        for (String m : list) if (!m.equals(lightModel)) withLight.add(m);
+        return withLight;
+    }
+
+    // Model for the next attempt; budgetMs is the time left before the deadline (<= 0 for none)
+    public String route(WritingRequest req, long budgetMs) {
+        long now = clockMs.getAsLong();
+        Profile fastest = null, soonest = null;
+        for (String m : candidates(req)) {
+            Profile p = profile(m);
+            if (p.coolUntilMs > now) {
+                if (soonest == null || p.coolUntilMs < soonest.coolUntilMs) soonest = p;
+                continue;
+            }
+            long expected = p.expectedMs();
+            if (budgetMs <= 0 || expected <= budgetMs) return chosen(p);
+            if (fastest == null || expected < fastest.expectedMs()) fastest = p;
+        }
+        return chosen(fastest != null ? fastest : soonest);
+    }
+
+    // Feeds an exchange's outcome (err null on success) into the model's profile
+    public void record(String model, long latencyMs, APIException err) {
+        Profile p = profile(model);
+        if (err == null) {
+            p.latencies.record(latencyMs);
+            p.strikes.set(0);
+            p.outcome(false);
+            return;
+        }
+        if (!overloaded(err)) return; // bad requests, safety blocks and the like say nothing about the model
+        p.outcome(true);
+        int strikes = p.strikes.incrementAndGet();
+        long ms = Math.max(err.getRetryAfterMs(), cooldownMs << Math.min(MAX_BACKOFF_SHIFT, strikes - 1));
+        p.coolUntilMs = Math.max(p.coolUntilMs, clockMs.getAsLong() + ms);
+    }
+
+    // Whether a failed attempt can move to another model right away: it was a 429 or 5xx and
+    // another candidate for the request isn't cooling down
+    public boolean failsOver(WritingRequest req, APIException err) {
+        if (!overloaded(err)) return false;
+        long now = clockMs.getAsLong();
+        List<String> models = candidates(req);
+        if (models.size() < 2) return false;
+        for (String m : models) {
+            if (profile(m).coolUntilMs <= now) return true;
+        }
+        return false;
+    }
+
+    private String chosen(Profile p) {
+        METRICS.increment("route." + p.model);
+        return p.model;
+    }
+
+    private Profile profile(String model) {
+        return profiles.computeIfAbsent(model, Profile::new);
+    }
+
+    private static boolean overloaded(APIException err) {
+        return err.getStatus() == 429 || err.getStatus() / 100 == 5;
+    }
+}
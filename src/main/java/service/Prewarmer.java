@@ -0,0 +1,71 @@
+package service;
+
+import model.RequestFactory;
+import model.TokenEstimator;
+import model.WritingMode;
+import model.WritingRequest;
+import model.strategy.StrategyRegistry;
+import model.strategy.WritingStrategy;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+// Start-up work that takes cost off the first generation: resolving the API host, opening the
+// (HTTP/2, TLS) connection the HttpClient will reuse, and running the encode/parse paths until the JIT
+// has compiled them. Everything here is best effort; failures only mean the first call pays the cost.
+
+public final class Prewarmer {
+    private static final String WARM_TEXT = "A short paragraph about revising an essay. It has \"quotes\", "
+            + "a tab\tand an accent (é) so every branch of the encoder runs.\n";
+    private static final byte[] WARM_BODY = ("{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Tips:\\n- one\\n- two\"}],"
+            + "\"role\":\"model\"},\"finishReason\":\"STOP\"}],\"usageMetadata\":{\"promptTokenCount\":120,"
+            + "\"candidatesTokenCount\":12,\"totalTokenCount\":132}}").getBytes(StandardCharsets.UTF_8);
+
+    private Prewarmer() { }
+
+    // Looks the host up once so the resolver cache is warm; returns the number of addresses
+    public static int resolve(String baseUrl) throws UnknownHostException {
+        String host = URI.create(baseUrl).getHost();
+        return host == null ? 0 : InetAddress.getAllByName(host).length;
+    }
+
+    // Opens the pooled connection with a models.get call (no tokens used). Completes with the
+    // HTTP status; any answer, even an error status, leaves a connected, negotiated connection behind.
+    public static CompletableFuture<Integer> connect(HttpClient http, String baseUrl, String model, String apiKey) {
+        try {
+            HttpRequest req = HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl + "/v1/models/" + model + "?key=" + URLEncoder.encode(apiKey, StandardCharsets.UTF_8)))
+                    .timeout(Duration.ofSeconds(15))
+                    .GET()
+                    .build();
+            return http.sendAsync(req, HttpResponse.BodyHandlers.discarding()).thenApply(HttpResponse::statusCode);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Runs request building, encoding (one template per registered strategy) and response parsing
+    // enough times for the JIT to compile them. Nothing is sent and the token estimator isn't calibrated.
+    // Returns a checksum of the results so the work can't be optimized away.
+    public static long warmCodecs(int iterations) {
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (WritingStrategy s : StrategyRegistry.shared().all()) {
+                WritingRequest req = RequestFactory.build(WritingMode.of(s.id()), WARM_TEXT, 1024);
+                sink += GeminiRequestEncoder.encode(req).length;
+            }
+            sink += GeminiResponseParser.parse(WARM_BODY).getTotalTokens();
+            sink += GeminiResponseParser.parseChunk("{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"x\"}]}}]}").getText().length();
+            sink += TokenEstimator.rawCount(WARM_TEXT);
+        }
+        return sink;
+    }
+}
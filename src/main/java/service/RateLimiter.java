@@ -0,0 +1,95 @@
+package service;
+
+import model.APIClient;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Admission control for outgoing API calls.
+// Each call takes one request permit plus an estimated number of tokens, matching Gemini's
+// requests-per-minute and tokens-per-minute quotas.
+
+public interface RateLimiter {
+
+    // Takes a permit right now if the budgets allow it; never waits
+    boolean tryAcquire(long tokens);
+
+    // Books the next available slot (in arrival order) and returns how many nanoseconds
+    // the caller must wait before using it. The slot is committed even if the wait is > 0.
+    long reserve(long tokens);
+
+    // Gives back budget taken by tryAcquire (or a reservation without a slot), e.g. an overestimated token count
+    void refund(int requests, long tokens);
+
+    // A booked slot: how long to wait for it, and where the limiter booked it (NO_SLOT if it doesn't track that)
+    record Reservation(long waitNanos, long slot) { }
+    long NO_SLOT = Long.MIN_VALUE;
+
+    // Like reserve(), but remembers the slot so later refunds go back to it
+    default Reservation reserveSlot(long tokens) {
+        return new Reservation(reserve(tokens), NO_SLOT);
+    }
+
+    // Gives back budget from the slot it was booked in. Limiters that account per time slot ignore
+    // refunds for slots that have already left their window.
+    default void refund(Reservation r, int requests, long tokens) {
+        refund(requests, tokens);
+    }
+
+    // Reserves a slot and completes once it is reached, without holding a thread while waiting
+    default CompletableFuture<Void> acquireAsync(long tokens) {
+        return waitFor(reserveSlot(tokens));
+    }
+
+    // Completes once a reserved slot is reached
+    static CompletableFuture<Void> waitFor(Reservation r) {
+        if (r.waitNanos() <= 0) return CompletableFuture.completedFuture(null);
+        return CompletableFuture.runAsync(() -> { },
+                CompletableFuture.delayedExecutor(r.waitNanos(), TimeUnit.NANOSECONDS, ServiceExecutors.virtualThreads()));
+    }
+
+    // Blocking acquire for synchronous callers. Returns false if the thread was interrupted while
+    // waiting, in which case the reservation has already been refunded.
+    default boolean acquire(long tokens) {
+        return acquireSlot(tokens) != null;
+    }
+
+    // Blocking acquire that returns the reservation, for refunds once the real cost is known;
+    // null if the thread was interrupted while waiting (the reservation has been refunded)
+    default Reservation acquireSlot(long tokens) {
+        Reservation r = reserveSlot(tokens);
+        if (r.waitNanos() <= 0) return r;
+        try {
+            TimeUnit.NANOSECONDS.sleep(r.waitNanos());
+            return r;
+        } catch (InterruptedException ie) {
+            refund(r, 1, tokens);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // A limiter that admits everything
+    static RateLimiter unlimited() {
+        return new RateLimiter() {
+            @Override public boolean tryAcquire(long tokens) { return true; }
+            @Override public long reserve(long tokens) { return 0L; }
+            @Override public void refund(int requests, long tokens) { }
+        };
+    }
+
+    // The old fixed-spacing behaviour: one call per interval, no bursts
+    static RateLimiter fixedInterval(long minIntervalMs) {
+        if (minIntervalMs <= 0) return unlimited();
+        return new TokenBucketRateLimiter(60_000.0 / minIntervalMs, 1, 0, 0);
+    }
+
+    // Builds the limiter selected by RATE_LIMITER in config.properties
+    static RateLimiter fromConfig(APIClient c) {
+        if (c.requestsPerMinute() <= 0 && c.tokensPerMinute() <= 0) return unlimited();
+        if ("sliding-window".equalsIgnoreCase(c.rateLimiter())) {
+            return new SlidingWindowRateLimiter(Math.round(c.requestsPerMinute()), c.tokensPerMinute());
+        }
+        return new TokenBucketRateLimiter(c.requestsPerMinute(), c.burst(), c.tokensPerMinute(), c.tokensPerMinute());
+    }
+}
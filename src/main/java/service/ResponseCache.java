@@ -0,0 +1,180 @@
+package service;
+
+import model.APIClient;
+import model.WritingRequest;
+import model.WritingResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Bounded in-memory cache of generated responses.
+// Entries are kept in LRU order and evicted when either the entry count or the approximate
+// byte weight goes over budget, or when they are older than the TTL.
+
+public class ResponseCache {
+    private static final int ENTRY_OVERHEAD_BYTES = 96; // rough per-entry cost of the key, node and response object
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlMs;
+    private final LongSupplier clockMs;
+
+    // access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+    private long weightBytes = 0L;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static final class Entry {
+        final WritingResponse response;
+        final long storedAtMs;
+        final long weight;
+
+        Entry(WritingResponse response, long storedAtMs, long weight) {
+            this.response = response;
+            this.storedAtMs = storedAtMs;
+            this.weight = weight;
+        }
+    }
+
+    public ResponseCache(int maxEntries, long maxBytes, long ttlMs) {
+        this(maxEntries, maxBytes, ttlMs, System::currentTimeMillis);
+    }
+
+    // for unit tests that need to control time
+    ResponseCache(int maxEntries, long maxBytes, long ttlMs, LongSupplier clockMs) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.ttlMs = ttlMs;
+        this.clockMs = clockMs;
+    }
+
+    // Builds a cache sized from config.properties
+    public static ResponseCache fromConfig(APIClient c) {
+        return new ResponseCache(c.cacheMaxEntries(), c.cacheMaxBytes(), c.cacheTtlSeconds() * 1000L);
+    }
+
+    // Returns the cached response or null; expired entries count as misses and are dropped
+    public WritingResponse get(String key) {
+        synchronized (map) {
+            Entry e = map.get(key);
+            if (e != null && isExpired(e)) {
+                remove(key, e);
+                e = null;
+            }
+            if (e == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return e.response;
+        }
+    }
+
+    public void put(String key, WritingResponse response) {
+        long weight = weigh(key, response);
+        if (weight > maxBytes) return; // never let one huge entry flush the whole cache
+
+        synchronized (map) {
+            Entry old = map.put(key, new Entry(response, clockMs.getAsLong(), weight));
+            if (old != null) weightBytes -= old.weight;
+            weightBytes += weight;
+            evictIfNeeded();
+        }
+    }
+
+    public void clear() {
+        synchronized (map) {
+            map.clear();
+            weightBytes = 0L;
+        }
+    }
+
+    // Counters for diagnostics
+    public long hits() { return hits.sum(); }
+    public long misses() { return misses.sum(); }
+    public long evictions() { return evictions.sum(); }
+    public int size() { synchronized (map) { return map.size(); } }
+    public long weightBytes() { synchronized (map) { return weightBytes; } }
+
+    // Hash of everything that influences the output: normalized text, mode, prompt and sampling settings.
+    // maxTokens is left out: it is planned from a recalibrating estimate, and only complete (STOP)
+    // answers are cached, which the output budget didn't cut short.
+    public static String keyFor(WritingRequest r) {
+        MessageDigest md = sha256();
+        md.update(normalize(r.getUserText()).getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(String.valueOf(r.getMode()).getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        String sys = r.getSystemPrompt();
+        md.update((sys == null ? "" : sys).getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update((r.getTemperature() + "|" + r.getTopP()).getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    // Trims, unifies line endings and collapses runs of spaces/tabs so cosmetic edits still hit
+    static String normalize(String s) {
+        if (s == null) return "";
+        String t = s.strip();
+        StringBuilder sb = new StringBuilder(t.length());
+        boolean inSpace = false;
+        for (int i = 0; i < t.length(); i++) {
+            char c = t.charAt(i);
+            if (c == '\r') continue;
+            if (c == ' ' || c == '\t') {
+                if (!inSpace) sb.append(' ');
+                inSpace = true;
+            } else {
+                sb.append(c);
+                inSpace = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    private boolean isExpired(Entry e) {
+        return ttlMs > 0 && clockMs.getAsLong() - e.storedAtMs > ttlMs;
+    }
+
+    // caller holds the map lock
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+        while ((map.size() > maxEntries || weightBytes > maxBytes) && it.hasNext()) {
+            Entry e = it.next().getValue();
+            it.remove();
+            weightBytes -= e.weight;
+            evictions.increment();
+        }
+    }
+
+    // caller holds the map lock
+    private void remove(String key, Entry e) {
+        map.remove(key);
+        weightBytes -= e.weight;
+        evictions.increment();
+    }
+
+    private static long weigh(String key, WritingResponse r) {
+        long chars = key.length() + (r.getText() == null ? 0 : r.getText().length())
+                + (r.getFinishReason() == null ? 0 : r.getFinishReason().length());
+        return chars * 2 + ENTRY_OVERHEAD_BYTES;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package service;
+
+import model.APIClient;
+import model.APIException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Decides whether and when a failed API call is retried, and when to hedge a slow one.
+// Throttling (429), server errors (500/502/503/504) and network failures are retried with capped
+// exponential backoff and full jitter; a Retry-After hint from the server is used as the minimum wait.
+// Everything else (bad key, bad request, safety blocks) fails immediately.
+
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final long deadlineMs;
+    private final boolean hedging;
+    private final long hedgeAfterMs;   // fixed hedge delay, or 0 to use the observed p95
+    private final int hedgeMinSamples; // p95 needs some history before it is trusted
+
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs, long deadlineMs,
+                       boolean hedging, long hedgeAfterMs, int hedgeMinSamples) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = Math.max(1, baseDelayMs);
+        this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+        this.deadlineMs = deadlineMs;
+        this.hedging = hedging;
+        this.hedgeAfterMs = hedgeAfterMs;
+        this.hedgeMinSamples = hedgeMinSamples;
+    }
+
+    // Single attempt, no hedging, no deadline
+    public static RetryPolicy none() {
+        return new RetryPolicy(1, 1, 1, 0, false, 0, 0);
+    }
+
+    public static RetryPolicy fromConfig(APIClient c) {
+        return new RetryPolicy(c.retryMaxAttempts(), c.retryBaseDelayMs(), c.retryMaxDelayMs(),
+                c.requestDeadlineMs(), c.hedgeEnabled(), c.hedgeAfterMs(), 20);
+    }
+
+    public int maxAttempts() { return maxAttempts; }
+
+    // Overall time budget for a call including all retries, or 0 for none
+    public long deadlineMs() { return deadlineMs; }
+
+    public static boolean isRetryable(APIException e) {
+        return switch (e.getKind()) {
+            case NETWORK -> true;
+            case HTTP -> {
+                int s = e.getStatus();
+                yield s == 429 || s == 500 || s == 502 || s == 503 || s == 504;
+            }
+            case CANCELLED, OTHER -> false;
+        };
+    }
+
+    // Wait before attempt number 'attempt + 1', or -1 if the error should not be retried
+    public long delayBeforeRetry(int attempt, APIException e) {
+        if (attempt >= maxAttempts || !isRetryable(e)) return -1;
+        long cap = Math.min(maxDelayMs, baseDelayMs << Math.min(20, attempt - 1));
+        long jittered = ThreadLocalRandom.current().nextLong(cap + 1);
+        return Math.max(jittered, e.getRetryAfterMs());
+    }
+
+    // How long to let an attempt run before firing a backup, or -1 if hedging is off or there's no history yet
+    public long hedgeDelayMs(LatencyTracker latencies) {
+        if (!hedging) return -1;
+        if (hedgeAfterMs > 0) return hedgeAfterMs;
+        if (latencies.size() < hedgeMinSamples) return -1;
+        return latencies.percentile(95);
+    }
+}
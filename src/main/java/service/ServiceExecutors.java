@@ -0,0 +1,57 @@
+package service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Shared executors for API work.
+// Blocking calls (streamed reads, disk cache I/O) run on virtual threads, so many concurrent
+// generations don't each need a platform thread.
+
+public final class ServiceExecutors {
+    private static final ExecutorService VIRTUAL = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("gemini-", 0).factory());
+
+    // one daemon thread that only fires timers; the work itself is handed to a virtual thread
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "gemini-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        TIMER.setRemoveOnCancelPolicy(true); // cancelled deadlines don't linger in the queue
+    }
+
+    private ServiceExecutors() { }
+
+    public static ExecutorService virtualThreads() { return VIRTUAL; }
+
+    // Runs a task on a virtual thread after the delay. Cancel the returned future once the task isn't
+    // needed anymore (e.g. the call it would time out has finished) so nothing stays scheduled.
+    public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return TIMER.schedule(() -> VIRTUAL.execute(task), delay, unit);
+    }
+
+    // Runs blocking work on a virtual thread. Unlike CompletableFuture.supplyAsync, cancelling the
+    // returned future interrupts the thread, so a blocked HTTP read or rate-limit wait is abandoned.
+    public static <T> CompletableFuture<T> supplyInterruptibly(Supplier<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = VIRTUAL.submit(() -> {
+            try {
+                result.complete(work.get());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((v, ex) -> {
+            if (result.isCancelled()) task.cancel(true);
+        });
+        return result;
+    }
+}
@@ -0,0 +1,81 @@
+package service;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Coalesces concurrent calls for the same key into one in-flight operation.
+// The first caller starts the work; later callers with an equal key attach to it and receive
+// the same result or the same failure. The entry is removed as soon as the work completes,
+// so the next call after that starts fresh. Each caller gets its own future: cancelling it only
+// detaches that caller, and the shared work is cancelled once every caller has gone.
+
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, Call<V>> inFlight = new ConcurrentHashMap<>();
+
+    private static final class Call<V> {
+        final CompletableFuture<V> source = new CompletableFuture<>();
+        final AtomicInteger waiters = new AtomicInteger(1);
+
+        // Registers another caller unless the call is already being abandoned
+        boolean join() {
+            while (true) {
+                int n = waiters.get();
+                if (n <= 0) return false;
+                if (waiters.compareAndSet(n, n + 1)) return true;
+            }
+        }
+    }
+
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> work) {
+        while (true) {
+            Call<V> fresh = new Call<>();
+            Call<V> existing = inFlight.putIfAbsent(key, fresh);
+            if (existing == null) {
+                start(key, fresh, work);
+                return attach(key, fresh);
+            }
+            if (existing.join()) return attach(key, existing);
+            inFlight.remove(key, existing); // abandoned call that hasn't cleaned up yet
+        }
+    }
+
+    // Number of distinct operations currently running
+    public int inFlight() { return inFlight.size(); }
+
+    private void start(K key, Call<V> call, Supplier<CompletableFuture<V>> work) {
+        CompletableFuture<V> f;
+        try {
+            f = work.get();
+        } catch (RuntimeException e) {
+            f = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<V> started = f;
+        started.whenComplete((v, ex) -> {
+            inFlight.remove(key, call);
+            if (ex != null) call.source.completeExceptionally(ex);
+            else call.source.complete(v);
+        });
+        // when every caller has cancelled, cancel the underlying work too
+        call.source.whenComplete((v, ex) -> {
+            if (ex instanceof CancellationException) started.cancel(true);
+        });
+    }
+
+    private CompletableFuture<V> attach(K key, Call<V> call) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        call.source.whenComplete((v, ex) -> {
+            if (ex != null) mine.completeExceptionally(ex);
+            else mine.complete(v);
+        });
+        mine.whenComplete((v, ex) -> {
+            if (mine.isCancelled() && call.waiters.decrementAndGet() == 0) {
+                inFlight.remove(key, call);
+                call.source.cancel(true);
+            }
+        });
+        return mine;
+    }
+}
@@ -0,0 +1,173 @@
+package service;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+// Sliding-window limiter: at most requestsPerMinute calls and tokensPerMinute tokens in any 60 s window.
+// Usage is kept in one-second buckets covering the trailing window plus a booking horizon for
+// reserved future slots. The whole state is an immutable snapshot swapped with a CAS, so it is
+// lock-free, and reservations are booked into the earliest second that still fits (arrival order).
+
+public class SlidingWindowRateLimiter implements RateLimiter {
+    private static final long BUCKET_NANOS = 1_000_000_000L;
+    private static final int WINDOW = 60;   // buckets in the sliding window
+    private static final int HORIZON = 120; // how far ahead reservations can be booked
+
+    private final long maxRequests; // 0 = unlimited
+    private final long maxTokens;   // 0 = unlimited
+    private final LongSupplier nanoClock;
+    private final AtomicReference<State> state;
+
+    // Bucket counts for seconds [base, base + WINDOW + HORIZON)
+    private static final class State {
+        final long base;
+        final long[] requests;
+        final long[] tokens;
+
+        State(long base, long[] requests, long[] tokens) {
+            this.base = base;
+            this.requests = requests;
+            this.tokens = tokens;
+        }
+
+        State shiftedTo(long newBase) {
+            if (newBase <= base) return this;
+            int n = requests.length;
+            long[] r = new long[n];
+            long[] t = new long[n];
+            int shift = (int) Math.min(n, newBase - base);
+            System.arraycopy(requests, shift, r, 0, n - shift);
+            System.arraycopy(tokens, shift, t, 0, n - shift);
+            return new State(newBase, r, t);
+        }
+    }
+
+    public SlidingWindowRateLimiter(long requestsPerMinute, long tokensPerMinute) {
+        this(requestsPerMinute, tokensPerMinute, System::nanoTime);
+    }
+
+    // for unit tests that need to control time
+    SlidingWindowRateLimiter(long requestsPerMinute, long tokensPerMinute, LongSupplier nanoClock) {
+        this.maxRequests = Math.max(0, requestsPerMinute);
+        this.maxTokens = Math.max(0, tokensPerMinute);
+        this.nanoClock = nanoClock;
+        long nowBucket = Math.floorDiv(nanoClock.getAsLong(), BUCKET_NANOS);
+        this.state = new AtomicReference<>(new State(nowBucket - WINDOW + 1,
+                new long[WINDOW + HORIZON], new long[WINDOW + HORIZON]));
+    }
+
+    @Override
+    public boolean tryAcquire(long cost) {
+        long now = nanoClock.getAsLong();
+        long nowBucket = Math.floorDiv(now, BUCKET_NANOS);
+        long tok = clamp(cost);
+        while (true) {
+            State cur = state.get();
+            State s = cur.shiftedTo(nowBucket - WINDOW + 1);
+            int idx = (int) (nowBucket - s.base);
+            if (!fits(s, idx, tok)) {
+                if (s != cur) state.compareAndSet(cur, s); // keep the window moving even on rejection
+                return false;
+            }
+            if (state.compareAndSet(cur, book(s, idx, tok))) return true;
+        }
+    }
+
+    @Override
+    public long reserve(long cost) {
+        return reserveSlot(cost).waitNanos();
+    }
+
+    // The slot is the absolute second the reservation was booked into
+    @Override
+    public Reservation reserveSlot(long cost) {
+        long now = nanoClock.getAsLong();
+        long nowBucket = Math.floorDiv(now, BUCKET_NANOS);
+        long tok = clamp(cost);
+        while (true) {
+            State cur = state.get();
+            State s = cur.shiftedTo(nowBucket - WINDOW + 1);
+            int first = (int) (nowBucket - s.base);
+            int last = s.requests.length - 1;
+            int idx = first;
+            while (idx < last && !fits(s, idx, tok)) idx++; // if the horizon is full, overbook its last second
+            if (state.compareAndSet(cur, book(s, idx, tok))) {
+                long slotStart = (s.base + idx) * BUCKET_NANOS;
+                return new Reservation(Math.max(0, slotStart - now), s.base + idx);
+            }
+        }
+    }
+
+    // Refunds from the current second, where tryAcquire books
+    @Override
+    public void refund(int requestCount, long cost) {
+        refundAt(Math.floorDiv(nanoClock.getAsLong(), BUCKET_NANOS), requestCount, cost);
+    }
+
+    // Refunds from the second the reservation was booked into; nothing once that second has left the window
+    @Override
+    public void refund(Reservation r, int requestCount, long cost) {
+        if (r.slot() == NO_SLOT) refund(requestCount, cost);
+        else refundAt(r.slot(), requestCount, cost);
+    }
+
+    private void refundAt(long second, int requestCount, long cost) {
+        long tok = clamp(cost);
+        long nowBucket = Math.floorDiv(nanoClock.getAsLong(), BUCKET_NANOS);
+        while (true) {
+            State cur = state.get();
+            State s = cur.shiftedTo(nowBucket - WINDOW + 1);
+            if (second < s.base || second >= s.base + s.requests.length) return;
+            int idx = (int) (second - s.base);
+            if (s.requests[idx] == 0 && s.tokens[idx] == 0) {
+                if (s != cur) state.compareAndSet(cur, s);
+                return;
+            }
+            long[] r = s.requests.clone();
+            long[] t = s.tokens.clone();
+            r[idx] = Math.max(0, r[idx] - requestCount);
+            t[idx] = Math.max(0, t[idx] - tok);
+            if (state.compareAndSet(cur, new State(s.base, r, t))) return;
+        }
+    }
+
+    private long clamp(long cost) {
+        long c = Math.max(0, cost);
+        return maxTokens > 0 ? Math.min(c, maxTokens) : c;
+    }
+
+    // Whether one more request of 'tok' tokens at bucket idx keeps every 60 s window containing idx in budget
+    private boolean fits(State s, int idx, long tok) {
+        long[] r = s.requests, t = s.tokens;
+        long reqs = 0, toks = 0;
+        for (int i = Math.max(0, idx - WINDOW + 1); i <= idx; i++) {
+            reqs += r[i];
+            toks += t[i];
+        }
+        // slide the window end forward so later bookings are counted too
+        int lastEnd = Math.min(r.length - 1, idx + WINDOW - 1);
+        for (int end = idx; end <= lastEnd; end++) {
+            if (end > idx) {
+                reqs += r[end];
+                toks += t[end];
+                int drop = end - WINDOW;
+                if (drop >= 0) {
+                    reqs -= r[drop];
+                    toks -= t[drop];
+                }
+            }
+            if (maxRequests > 0 && reqs + 1 > maxRequests) return false;
+            if (maxTokens > 0 && toks + tok > maxTokens) return false;
+        }
+        return true;
+    }
+
+    private static State book(State s, int idx, long tok) {
+        long[] r = Arrays.copyOf(s.requests, s.requests.length);
+        long[] t = Arrays.copyOf(s.tokens, s.tokens.length);
+        r[idx]++;
+        t[idx] += tok;
+        return new State(s.base, r, t);
+    }
+}
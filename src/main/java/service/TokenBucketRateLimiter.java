@@ -0,0 +1,97 @@
+package service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// Token-bucket limiter implemented as GCRA (generic cell rate algorithm).
+// Each budget is a single AtomicLong "theoretical arrival time", so acquiring is one CAS with no locks.
+// Up to 'burst' requests can go out back to back; after that they are spaced at the sustained rate.
+// Reservations are handed out in arrival order, so a waiting caller can't be starved by later ones.
+
+public class TokenBucketRateLimiter implements RateLimiter {
+    private static final long MINUTE_NANOS = 60_000_000_000L;
+
+    private final Bucket requests; // null = no request budget
+    private final Bucket tokens;   // null = no token budget
+    private final LongSupplier nanoClock;
+
+    // requestsPerMinute/burst limit calls; tokensPerMinute/tokenBurst limit estimated tokens (0 disables either)
+    public TokenBucketRateLimiter(double requestsPerMinute, int burst, long tokensPerMinute, long tokenBurst) {
+        this(requestsPerMinute, burst, tokensPerMinute, tokenBurst, System::nanoTime);
+    }
+
+    // for unit tests that need to control time
+    TokenBucketRateLimiter(double requestsPerMinute, int burst, long tokensPerMinute, long tokenBurst, LongSupplier nanoClock) {
+        this.requests = requestsPerMinute > 0 ? new Bucket(MINUTE_NANOS / requestsPerMinute, Math.max(1, burst)) : null;
+        this.tokens = tokensPerMinute > 0
+                ? new Bucket((double) MINUTE_NANOS / tokensPerMinute, Math.max(1, tokenBurst > 0 ? tokenBurst : tokensPerMinute))
+                : null;
+        this.nanoClock = nanoClock;
+    }
+
+    @Override
+    public boolean tryAcquire(long cost) {
+        long now = nanoClock.getAsLong();
+        if (requests != null && !requests.tryTake(1, now)) return false;
+        if (tokens != null && !tokens.tryTake(tokens.clamp(cost), now)) {
+            if (requests != null) requests.give(1);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public long reserve(long cost) {
+        long now = nanoClock.getAsLong();
+        long wait = 0;
+        if (requests != null) wait = requests.reserve(1, now);
+        if (tokens != null) wait = Math.max(wait, tokens.reserve(tokens.clamp(cost), now));
+        return wait;
+    }
+
+    @Override
+    public void refund(int requestCount, long cost) {
+        if (requests != null && requestCount > 0) requests.give(requestCount);
+        if (tokens != null && cost > 0) tokens.give(tokens.clamp(cost));
+    }
+
+    // One GCRA budget: 'tat' is when the bucket would be empty again if nothing else arrived
+    private static final class Bucket {
+        private final AtomicLong tat = new AtomicLong(Long.MIN_VALUE);
+        private final double nanosPerUnit;
+        private final long burst;
+        private final long burstNanos;
+
+        Bucket(double nanosPerUnit, long burst) {
+            this.nanosPerUnit = nanosPerUnit;
+            this.burst = burst;
+            this.burstNanos = (long) (nanosPerUnit * burst);
+        }
+
+        // a single request can never need more than the whole bucket
+        long clamp(long units) { return Math.max(0, Math.min(units, burst)); }
+
+        boolean tryTake(long units, long now) {
+            long cost = (long) (units * nanosPerUnit);
+            while (true) {
+                long t = tat.get();
+                long next = Math.max(t, now) + cost;
+                if (next - burstNanos > now) return false;
+                if (tat.compareAndSet(t, next)) return true;
+            }
+        }
+
+        long reserve(long units, long now) {
+            long cost = (long) (units * nanosPerUnit);
+            while (true) {
+                long t = tat.get();
+                long next = Math.max(t, now) + cost;
+                if (tat.compareAndSet(t, next)) return Math.max(0, next - burstNanos - now);
+            }
+        }
+
+        void give(long units) {
+            tat.addAndGet(-(long) (units * nanosPerUnit));
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package tools;
+
+import metrics.LatencyHistogram;
+import model.APIClient;
+import model.APIException;
+import model.RequestFactory;
+import model.WritingMode;
+import model.WritingRequest;
+import model.WritingResponse;
+import model.strategy.StrategyRegistry;
+import service.APIService;
+import service.KeyPool;
+import service.ModelRouter;
+import service.RetryPolicy;
+import service.ServiceExecutors;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongFunction;
+
+// Load driver for capacity planning: pushes WritingRequests through APIService at a target arrival rate
+// (open loop) or with a fixed number of back-to-back callers (closed loop), one step per load level,
+// and reports latency percentiles and achieved throughput for each step.
+//
+// Latencies are corrected for coordinated omission. In the open loop every call is timed from the moment
+// the schedule said it should start, so time spent queued behind a stalled generator or the client rate
+// limiter still counts. In the closed loop, a call slower than --expected-interval-ms is back-filled with
+// the samples a steady caller would have recorded while it waited (as HdrHistogram does).
+// Service time, measured from when the call was actually issued, is reported alongside.
+//
+// Run with `Main --load [options]`:
+//   --base-url <url>           endpoint to load (default GEMINI_BASE_URL), e.g. a `Main --mock-gemini` stand-in;
+//                              calls are spread over the GEMINI_API_KEYS pool either way
+//   --loop open|closed         (default open)
+//   --rate <r[,r...]>          open loop: requests per second, one step per value (default 1)
+//   --concurrency <n[,n...]>   closed loop: concurrent callers, one step per value (default 1)
+//   --duration <s>             measured seconds per step (default 30)
+//   --warmup <s>               unmeasured seconds before each step (default 5)
+//   --expected-interval-ms <n> closed-loop correction interval (default 0 = raw latencies)
+//   --drain <s>                how long to wait for stragglers after a step (default 60)
+//   --mode <mode>              writing mode (default ACADEMIC)
+//   --text <file> | --words <n> request text (default 120 generated words)
+//   --stream                   use streamGenerateContent instead of generateContent
+//   --no-limit                 bypass the client-side rate limiter and measure the server alone
+//   --no-retry                 single attempt per call
+//   --csv <file>               one row per step: the throughput/latency curve
+//   --timeline <file>          completions per second within each step
+
+public class LoadGenerator {
+    public static final String CSV_HEADER = "loop,level,measured_s,sent,ok,failed,throughput_per_s,"
+            + "p50_ms,p90_ms,p99_ms,p999_ms,max_ms,service_p50_ms,service_p99_ms";
+
+    private final APIService api;
+    private final LongFunction<WritingRequest> requests; // call number -> request
+    private final boolean streaming;
+    private final long drainMs;
+
+    public LoadGenerator(APIService api, LongFunction<WritingRequest> requests, boolean streaming, long drainMs) {
+        this.api = api;
+        this.requests = requests;
+        this.streaming = streaming;
+        this.drainMs = drainMs;
+    }
+
+    // Outcome of one load level
+    public static final class Result {
+        private final String loop;
+        private final double level;
+        private final long measuredMs;
+        private final long start;
+        private final long windowStart;
+        private final long windowEnd;
+        private final LatencyHistogram corrected = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder okInWindow = new LongAdder(); // completions inside the window, for throughput
+        private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+        private final AtomicLongArray okPerSecond;
+        private final AtomicLongArray failedPerSecond;
+
+        Result(String loop, double level, long start, long warmupMs, long measuredMs, long drainMs) {
+            this.loop = loop;
+            this.level = level;
+            this.measuredMs = measuredMs;
+            this.start = start;
+            this.windowStart = start + TimeUnit.MILLISECONDS.toNanos(warmupMs);
+            this.windowEnd = windowStart + TimeUnit.MILLISECONDS.toNanos(measuredMs);
+            int seconds = (int) ((warmupMs + measuredMs + drainMs) / 1000) + 2;
+            this.okPerSecond = new AtomicLongArray(seconds);
+            this.failedPerSecond = new AtomicLongArray(seconds);
+        }
+
+        boolean measured(long intended) {
+            return intended >= windowStart && intended < windowEnd;
+        }
+
+        void record(Call c, long done, Throwable ex, long expectedIntervalMicros) {
+            int second = (int) Math.min(okPerSecond.length() - 1, Math.max(0, (done - start) / 1_000_000_000L));
+            (ex == null ? okPerSecond : failedPerSecond).incrementAndGet(second);
+            if (ex == null && done >= windowStart && done < windowEnd) okInWindow.increment();
+            if (!c.measured) return;
+
+            if (ex == null) ok.increment();
+            else {
+                failed.increment();
+                errors.computeIfAbsent(category(ex), k -> new LongAdder()).increment();
+            }
+            long serviceMicros = (done - c.sentAt) / 1_000;
+            serviceTime.recordMicros(serviceMicros);
+            long latencyMicros = (done - c.intended) / 1_000;
+            corrected.recordMicros(latencyMicros);
+            if (expectedIntervalMicros > 0) {
+                for (long missed = latencyMicros - expectedIntervalMicros; missed >= expectedIntervalMicros;
+                     missed -= expectedIntervalMicros) {
+                    corrected.recordMicros(missed);
+                }
+            }
+        }
+
+        public String loop() { return loop; }
+        public double level() { return level; }
+        public LatencyHistogram corrected() { return corrected; }
+        public LatencyHistogram serviceTime() { return serviceTime; }
+        public long sent() { return sent.sum(); }
+        public long ok() { return ok.sum(); }
+        public long failed() { return failed.sum(); }
+
+        // Successful completions per second while the step was at full load
+        public double throughput() {
+            return measuredMs == 0 ? 0 : okInWindow.sum() * 1000.0 / measuredMs;
+        }
+
+        public Map<String, Long> errors() {
+            Map<String, Long> m = new TreeMap<>();
+            errors.forEach((k, v) -> m.put(k, v.sum()));
+            return m;
+        }
+
+        public String csvRow() {
+            return String.format(Locale.ROOT, "%s,%s,%.1f,%d,%d,%d,%.2f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f",
+                    loop, levelText(), measuredMs / 1000.0, sent(), ok(), failed(), throughput(),
+                    corrected.percentileMillis(50), corrected.percentileMillis(90), corrected.percentileMillis(99),
+                    corrected.percentileMillis(99.9), corrected.maxMicros() / 1000.0,
+                    serviceTime.percentileMillis(50), serviceTime.percentileMillis(99));
+        }
+
+        // "second,ok,failed" rows from the start of warmup
+        void writeTimeline(Writer w) throws IOException {
+            int last = okPerSecond.length() - 1;
+            while (last > 0 && okPerSecond.get(last) == 0 && failedPerSecond.get(last) == 0) last--;
+            for (int s = 0; s <= last; s++) {
+                w.write(String.format(Locale.ROOT, "%s,%s,%d,%d,%d%n",
+                        loop, levelText(), s, okPerSecond.get(s), failedPerSecond.get(s)));
+            }
+        }
+
+        private String levelText() {
+            return level == Math.rint(level) ? String.valueOf((long) level) : String.valueOf(level);
+        }
+
+        @Override
+        public String toString() {
+            String unit = "open".equals(loop) ? " req/s" : " callers";
+            return String.format(Locale.ROOT,
+                    "%s loop, %s%s, %.0f s: sent %d, ok %d, failed %d, throughput %.2f/s%n"
+                            + "  latency      p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f ms%n"
+                            + "  service time p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f ms%s",
+                    loop, levelText(), unit, measuredMs / 1000.0, sent(), ok(), failed(), throughput(),
+                    corrected.percentileMillis(50), corrected.percentileMillis(90), corrected.percentileMillis(99),
+                    corrected.percentileMillis(99.9), corrected.maxMicros() / 1000.0,
+                    serviceTime.percentileMillis(50), serviceTime.percentileMillis(90), serviceTime.percentileMillis(99),
+                    serviceTime.percentileMillis(99.9), serviceTime.maxMicros() / 1000.0,
+                    errors.isEmpty() ? "" : System.lineSeparator() + "  errors " + errors());
+        }
+    }
+
+    // One issued call; recorded exactly once, by its completion or by the drain timeout
+    private static final class Call {
+        final long intended;
+        final long sentAt;
+        final boolean measured;
+        final AtomicBoolean recorded = new AtomicBoolean();
+        CompletableFuture<WritingResponse> future;
+
+        Call(long intended, long sentAt, boolean measured) {
+            this.intended = intended;
+            this.sentAt = sentAt;
+            this.measured = measured;
+        }
+    }
+
+    // Open loop: calls start on a fixed schedule whether or not earlier ones have finished
+    public Result runOpen(double ratePerSecond, long warmupMs, long measureMs) {
+        long start = System.nanoTime();
+        Result r = new Result("open", ratePerSecond, start, warmupMs, measureMs, drainMs);
+        long interval = (long) (1_000_000_000L / Math.max(1e-3, ratePerSecond));
+        List<Call> calls = new ArrayList<>();
+        for (long i = 0; ; i++) {
+            long intended = start + i * interval;
+            if (intended >= r.windowEnd) break;
+            parkUntil(intended);
+            calls.add(issue(r, i, intended, 0));
+        }
+        drain(r, calls, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainMs));
+        return r;
+    }
+
+    // Closed loop: each caller sends its next request as soon as the previous one finishes
+    public Result runClosed(int callers, long warmupMs, long measureMs, long expectedIntervalMs) {
+        long start = System.nanoTime();
+        Result r = new Result("closed", callers, start, warmupMs, measureMs, drainMs);
+        long expectedMicros = TimeUnit.MILLISECONDS.toMicros(Math.max(0, expectedIntervalMs));
+        AtomicLong seq = new AtomicLong();
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < callers; c++) {
+                workers.submit(() -> {
+                    long now;
+                    while ((now = System.nanoTime()) < r.windowEnd) {
+                        Call call = issue(r, seq.getAndIncrement(), now, expectedMicros);
+                        drain(r, List.of(call), Math.max(r.windowEnd, now) + TimeUnit.MILLISECONDS.toNanos(drainMs));
+                    }
+                });
+            }
+        }
+        return r;
+    }
+
+    private Call issue(Result r, long n, long intended, long expectedMicros) {
+        Call c = new Call(intended, System.nanoTime(), r.measured(intended));
+        if (c.measured) r.sent.increment();
+        CompletableFuture<WritingResponse> f;
+        try {
+            WritingRequest req = requests.apply(n);
+            f = streaming
+                    ? CompletableFuture.supplyAsync(() -> api.generateTextStream(req, null), ServiceExecutors.virtualThreads())
+                    : api.generateTextAsync(req);
+        } catch (RuntimeException e) {
+            f = CompletableFuture.failedFuture(e);
+        }
+        c.future = f;
+        f.whenComplete((resp, ex) -> {
+            if (c.recorded.compareAndSet(false, true)) r.record(c, System.nanoTime(), ex, expectedMicros);
+        });
+        return c;
+    }
+
+    // Waits for outstanding calls until the deadline; stragglers are recorded as timeouts with the
+    // latency they had reached, so a stuck server can't make the percentiles look better
+    private static void drain(Result r, List<Call> calls, long deadline) {
+        for (Call c : calls) {
+            try {
+                c.future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (c.recorded.compareAndSet(false, true)) {
+                    r.record(c, System.nanoTime(), new APIException("Load test drain timeout"), 0);
+                }
+                c.future.cancel(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ignored) {
+                // failures were recorded by the completion callback
+            }
+        }
+        // the callback runs after get() returns; wait for it so the counts are final
+        for (Call c : calls) {
+            while (!c.recorded.get()) Thread.onSpinWait();
+        }
+    }
+
+    private static void parkUntil(long deadline) {
+        long wait;
+        while ((wait = deadline - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+    }
+
+    static String category(Throwable ex) {
+        APIException e = APIService.asAPIException(ex);
+        if (e.getStatus() > 0) return "status." + e.getStatus();
+        if (e.getKind() == APIException.Kind.NETWORK) return "network";
+        if (e.isCancelled()) return "cancelled";
+        String m = e.getMessage() == null ? "" : e.getMessage();
+        if (m.startsWith("Request timed out")) return "deadline";
+        if (m.startsWith("Load test drain timeout")) return "drain-timeout";
+        return "other";
+    }
+
+    // Builds a distinct request per call number, so in-flight coalescing never merges two calls
+    static LongFunction<WritingRequest> requestsFor(WritingMode mode, String text, int maxTokens) {
+        return n -> RequestFactory.build(mode, "Request " + n + ". " + text, maxTokens);
+    }
+
+    static String sampleText(int words) {
+        String[] vocabulary = ("the study shows that careful revision improves clarity while preserving the "
+                + "author's voice and intent across several drafts of a longer essay").split(" ");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(i % 15 == 0 ? ". " : " ");
+            sb.append(vocabulary[i % vocabulary.length]);
+        }
+        return sb.append('.').toString();
+    }
+
+    // Command-line entry point, started from Main with --load
+    public static int run(String[] args) {
+        String baseUrl = null;
+        boolean open = true;
+        List<Double> levels = new ArrayList<>();
+        long durationS = 30, warmupS = 5, drainS = 60, expectedIntervalMs = 0;
+        String modeName = WritingMode.ACADEMIC.name();
+        String text = null;
+        int words = 120;
+        boolean stream = false, noLimit = false, noRetry = false;
+        Path csv = null, timeline = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--load" -> { }
+                case "--base-url" -> baseUrl = value(args, ++i);
+                case "--loop" -> open = !"closed".equalsIgnoreCase(value(args, ++i));
+                case "--rate", "--concurrency" -> {
+                    for (String v : value(args, ++i).split(",")) levels.add(Double.parseDouble(v.trim()));
+                }
+                case "--duration" -> durationS = Long.parseLong(value(args, ++i));
+                case "--warmup" -> warmupS = Long.parseLong(value(args, ++i));
+                case "--drain" -> drainS = Long.parseLong(value(args, ++i));
+                case "--expected-interval-ms" -> expectedIntervalMs = Long.parseLong(value(args, ++i));
+                case "--mode" -> modeName = value(args, ++i);
+                case "--text" -> {
+                    try {
+                        text = Files.readString(Path.of(value(args, ++i)), StandardCharsets.UTF_8);
+                    } catch (IOException e) {
+                        System.err.println("Cannot read " + args[i] + ": " + e.getMessage());
+                        return 2;
+                    }
+                }
+                case "--words" -> words = Integer.parseInt(value(args, ++i));
+                case "--stream" -> stream = true;
+                case "--no-limit" -> noLimit = true;
+                case "--no-retry" -> noRetry = true;
+                case "--csv" -> csv = Path.of(value(args, ++i));
+                case "--timeline" -> timeline = Path.of(value(args, ++i));
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (levels.isEmpty()) levels.add(1.0);
+
+        APIClient c = APIClient.getInstance();
+        StrategyRegistry.installFromConfig(c);
+        WritingMode mode = WritingMode.valueOf(modeName);
+        APIService api = new APIService(c.http(), ModelRouter.fromConfig(c), KeyPool.fromConfig(c, baseUrl, !noLimit),
+                noRetry ? RetryPolicy.none() : RetryPolicy.fromConfig(c));
+        LoadGenerator gen = new LoadGenerator(api,
+                requestsFor(mode, text != null ? text : sampleText(words), c.defaultMaxTokens()),
+                stream, TimeUnit.SECONDS.toMillis(drainS));
+
+        List<Result> results = new ArrayList<>();
+        for (double level : levels) {
+            Result r = open
+                    ? gen.runOpen(level, warmupS * 1000, durationS * 1000)
+                    : gen.runClosed((int) level, warmupS * 1000, durationS * 1000, expectedIntervalMs);
+            System.out.println(r);
+            results.add(r);
+        }
+
+        try {
+            if (csv != null) {
+                try (Writer w = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+                    w.write(CSV_HEADER + "\n");
+                    for (Result r : results) w.write(r.csvRow() + "\n");
+                }
+            }
+            if (timeline != null) {
+                try (Writer w = Files.newBufferedWriter(timeline, StandardCharsets.UTF_8)) {
+                    w.write("loop,level,second,ok,failed\n");
+                    for (Result r : results) r.writeTimeline(w);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write report: " + e.getMessage());
+            return 2;
+        }
+        return results.stream().allMatch(r -> r.failed() == 0) ? 0 : 1;
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+}
@@ -0,0 +1,496 @@
+package tools;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Local stand-in for the Gemini REST API, for exercising APIService over real sockets without a network.
+// Serves POST /v1/models/{model}:generateContent and :streamGenerateContent?alt=sse on 127.0.0.1 and can
+// inject latency, 429/503 replies with Retry-After, slow-drip bodies and dropped connections.
+// It also keeps v1beta cachedContents (create, TTL update, get, delete) so context caching can be
+// exercised, including entries that expire between calls, and answers GET /v1/models/{model}
+// (the startup pre-warm call).
+// Point the app at it with GEMINI_BASE_URL=http://127.0.0.1:<port> (any API key is accepted).
+//
+// Run standalone with `Main --mock-gemini [options]`:
+//   --port <n>                       listen port (default 8089, 0 = any free port)
+//   --latency <spec>                 fixed:MS | uniform:MIN-MAX | lognormal:MEDIAN,SIGMA (milliseconds)
+//   --throttle <rate>[,<seconds>]    fraction of calls answered 429 with Retry-After (default 1 s)
+//   --unavailable <rate>[,<seconds>] fraction of calls answered 503 with Retry-After
+//   --reset <rate>                   fraction of calls whose connection is dropped
+//   --drip <pieces>,<ms>             send bodies in pieces (SSE events when streaming) with a pause between
+//   --max-concurrent <n>             answer 429 when more than n calls are in flight (quota saturation)
+//   --reply-words <n>                length of the generated reply
+
+public class MockGeminiServer implements Closeable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Fault and latency settings may be changed while the server is running
+    private volatile Latency latency = Latency.fixed(0);
+    private volatile double throttleRate;
+    private volatile double unavailableRate;
+    private volatile double resetRate;
+    private volatile int retryAfterSeconds = 1;
+    private volatile int dripPieces = 1;
+    private volatile long dripIntervalMs;
+    private volatile int maxConcurrent; // 0 = unlimited
+    private volatile int replyWords = 60;
+    private final AtomicInteger failNext = new AtomicInteger(); // deterministic faults for tests
+    private volatile int failNextStatus = 503;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder unavailable = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+
+    // cachedContents/<id> -> entry
+    private final ConcurrentHashMap<String, CachedContent> cachedContents = new ConcurrentHashMap<>();
+    private final AtomicInteger cacheIds = new AtomicInteger();
+    private volatile int minCacheTokens;
+    private final LongAdder cacheCreates = new LongAdder();
+    private final LongAdder cacheRefreshes = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+
+    private static final class CachedContent {
+        final int tokens;
+        volatile long expiresAtMs;
+
+        CachedContent(int tokens, long expiresAtMs) {
+            this.tokens = tokens;
+            this.expiresAtMs = expiresAtMs;
+        }
+
+        boolean expired() { return System.currentTimeMillis() >= expiresAtMs; }
+    }
+
+    // Delay before a call is answered, in milliseconds
+    public interface Latency {
+        long sampleMs();
+
+        static Latency fixed(long ms) {
+            return () -> ms;
+        }
+
+        static Latency uniform(long minMs, long maxMs) {
+            return () -> minMs + ThreadLocalRandom.current().nextLong(Math.max(1, maxMs - minMs + 1));
+        }
+
+        // Long-tailed, like real model latencies: the median plus occasional slow outliers
+        static Latency logNormal(double medianMs, double sigma) {
+            double mu = Math.log(Math.max(1e-3, medianMs));
+            return () -> Math.round(Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()));
+        }
+
+        static Latency parse(String spec) {
+            String[] kv = spec.split(":", 2);
+            String args = kv.length > 1 ? kv[1] : "";
+            return switch (kv[0].toLowerCase()) {
+                case "fixed" -> fixed(Long.parseLong(args.trim()));
+                case "uniform" -> {
+                    String[] r = args.split("-");
+                    yield uniform(Long.parseLong(r[0].trim()), Long.parseLong(r[1].trim()));
+                }
+                case "lognormal" -> {
+                    String[] r = args.split(",");
+                    yield logNormal(Double.parseDouble(r[0].trim()), r.length > 1 ? Double.parseDouble(r[1].trim()) : 0.5);
+                }
+                default -> throw new IllegalArgumentException("Unknown latency spec: " + spec);
+            };
+        }
+    }
+
+    // Binds to the loopback interface; port 0 picks a free port
+    public MockGeminiServer(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 256);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+    }
+
+    public MockGeminiServer start() {
+        server.start();
+        return this;
+    }
+
+    // Value for GEMINI_BASE_URL
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public int port() { return server.getAddress().getPort(); }
+
+    public MockGeminiServer latency(Latency l) { this.latency = l; return this; }
+    public MockGeminiServer throttleRate(double rate) { this.throttleRate = rate; return this; }
+    public MockGeminiServer unavailableRate(double rate) { this.unavailableRate = rate; return this; }
+    public MockGeminiServer resetRate(double rate) { this.resetRate = rate; return this; }
+    public MockGeminiServer retryAfterSeconds(int s) { this.retryAfterSeconds = s; return this; }
+    public MockGeminiServer maxConcurrent(int n) { this.maxConcurrent = n; return this; }
+    public MockGeminiServer replyWords(int n) { this.replyWords = Math.max(1, n); return this; }
+
+    // The next 'count' calls fail with 'status' (429 and 503 carry Retry-After, 0 drops the connection)
+    public MockGeminiServer failNext(int count, int status) {
+        this.failNextStatus = status;
+        this.failNext.set(count);
+        return this;
+    }
+
+    // Creating a cachedContents entry smaller than this fails with 400, like the real minimum
+    public MockGeminiServer minCacheTokens(int n) { this.minCacheTokens = n; return this; }
+
+    // Forgets every cachedContents entry, as if their TTLs had run out server-side
+    public void expireCachedContents() { cachedContents.clear(); }
+
+    public MockGeminiServer drip(int pieces, long intervalMs) {
+        this.dripPieces = Math.max(1, pieces);
+        this.dripIntervalMs = Math.max(0, intervalMs);
+        return this;
+    }
+
+    // Counters for assertions and reports
+    public long requests() { return requests.sum(); }
+    public long throttled() { return throttled.sum(); }
+    public long unavailable() { return unavailable.sum(); }
+    public long resets() { return resets.sum(); }
+    public int inFlight() { return inFlight.get(); }
+    public int peakInFlight() { return peakInFlight.get(); }
+    public long cacheCreates() { return cacheCreates.sum(); }
+    public long cacheRefreshes() { return cacheRefreshes.sum(); }
+    public long cacheHits() { return cacheHits.sum(); }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        if (ex.getRequestURI().getPath().contains("/cachedContents")) {
+            try (ex) {
+                handleCachedContents(ex);
+            }
+            return;
+        }
+        if ("GET".equals(ex.getRequestMethod()) && !ex.getRequestURI().getPath().contains(":")) {
+            try (ex) {
+                String model = ex.getRequestURI().getPath().substring(ex.getRequestURI().getPath().lastIndexOf('/') + 1);
+                sendJson(ex, 200, MAPPER.createObjectNode().put("name", "models/" + model)
+                        .put("inputTokenLimit", 1_048_576).put("outputTokenLimit", 8192));
+            }
+            return;
+        }
+        requests.increment();
+        int now = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(now, Math::max);
+        try (ex) {
+            String path = ex.getRequestURI().getPath();
+            boolean streaming = path.endsWith(":streamGenerateContent");
+            if (!"POST".equals(ex.getRequestMethod()) || !(streaming || path.endsWith(":generateContent"))) {
+                sendError(ex, 404, "NOT_FOUND", "Unknown method " + path, -1);
+                return;
+            }
+            JsonNode body;
+            try (InputStream in = ex.getRequestBody()) {
+                body = MAPPER.readTree(in);
+            } catch (IOException e) {
+                sendError(ex, 400, "INVALID_ARGUMENT", "Invalid JSON payload", -1);
+                return;
+            }
+
+            int cachedTokens = 0;
+            String cachedName = body.path("cachedContent").asText(null);
+            if (cachedName != null) {
+                CachedContent cc = cachedContents.get(cachedName);
+                if (cc == null || cc.expired()) {
+                    sendError(ex, 404, "NOT_FOUND", "CachedContent not found (or permission denied)", -1);
+                    return;
+                }
+                cacheHits.increment();
+                cachedTokens = cc.tokens;
+            }
+
+            sleep(latency.sampleMs());
+
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            int forced = failNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0 ? failNextStatus : -1;
+            int limit = maxConcurrent;
+            if (forced == 429 || (limit > 0 && now > limit) || rnd.nextDouble() < throttleRate) {
+                throttled.increment();
+                sendError(ex, 429, "RESOURCE_EXHAUSTED", "Quota exceeded", retryAfterSeconds);
+                return;
+            }
+            if (forced == 503 || rnd.nextDouble() < unavailableRate) {
+                unavailable.increment();
+                sendError(ex, 503, "UNAVAILABLE", "The model is overloaded", retryAfterSeconds);
+                return;
+            }
+            if (forced > 0 && forced != 429 && forced != 503) {
+                sendError(ex, forced, "INTERNAL", "Injected error", -1);
+                return;
+            }
+            if (forced == 0 || rnd.nextDouble() < resetRate) {
+                resets.increment();
+                // throwing from the handler makes the server close the socket without a response
+                throw new IOException("injected connection reset");
+            }
+
+            String reply = reply(body);
+            int promptTokens = Math.max(1, body.toString().length() / 4) + cachedTokens;
+            if (streaming) sendStream(ex, reply, promptTokens, cachedTokens);
+            else sendWhole(ex, reply, promptTokens, cachedTokens);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    // A deterministic reply whose length is set by replyWords, capped by the request's maxOutputTokens
+    private String reply(JsonNode body) {
+        int words = replyWords;
+        int maxOut = body.path("generationConfig").path("maxOutputTokens").asInt(0);
+        if (maxOut > 0) words = Math.min(words, maxOut);
+        StringBuilder sb = new StringBuilder("Mock reply:");
+        for (int i = 0; i < words; i++) sb.append(' ').append(i % 12 == 11 ? "sentence." : "word");
+        return sb.toString();
+    }
+
+    private void sendWhole(HttpExchange ex, String text, int promptTokens, int cachedTokens) throws IOException {
+        byte[] json = MAPPER.writeValueAsBytes(responseJson(text, "STOP", promptTokens, cachedTokens));
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        int pieces = dripPieces;
+        if (pieces <= 1) {
+            ex.sendResponseHeaders(200, json.length);
+            ex.getResponseBody().write(json);
+            return;
+        }
+        // slow drip: chunked transfer, flushed piece by piece
+        ex.sendResponseHeaders(200, 0);
+        OutputStream out = ex.getResponseBody();
+        int step = Math.max(1, (json.length + pieces - 1) / pieces);
+        for (int off = 0; off < json.length; off += step) {
+            if (off > 0) sleep(dripIntervalMs);
+            out.write(json, off, Math.min(step, json.length - off));
+            out.flush();
+        }
+    }
+
+    // One SSE event per piece; only the last carries finishReason, usage is cumulative like the real API
+    private void sendStream(HttpExchange ex, String text, int promptTokens, int cachedTokens) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+        ex.sendResponseHeaders(200, 0);
+        OutputStream out = ex.getResponseBody();
+        List<String> parts = split(text, dripPieces);
+        StringBuilder sent = new StringBuilder();
+        for (int i = 0; i < parts.size(); i++) {
+            if (i > 0) sleep(dripIntervalMs);
+            sent.append(parts.get(i));
+            boolean last = i == parts.size() - 1;
+            ObjectNode event = responseJson(parts.get(i), last ? "STOP" : null, promptTokens, cachedTokens);
+            ((ObjectNode) event.get("usageMetadata")).put("candidatesTokenCount", tokens(sent.toString()))
+                    .put("totalTokenCount", promptTokens + tokens(sent.toString()));
+            out.write(("data: " + MAPPER.writeValueAsString(event) + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+
+    // promptTokenCount includes cached tokens, which are also reported separately, as the real API does
+    private static ObjectNode responseJson(String text, String finishReason, int promptTokens, int cachedTokens) {
+        ObjectNode root = MAPPER.createObjectNode();
+        ObjectNode candidate = root.putArray("candidates").addObject();
+        ObjectNode content = candidate.putObject("content");
+        content.putArray("parts").addObject().put("text", text);
+        content.put("role", "model");
+        if (finishReason != null) candidate.put("finishReason", finishReason);
+        root.putObject("usageMetadata")
+                .put("promptTokenCount", promptTokens)
+                .put("candidatesTokenCount", tokens(text))
+                .put("totalTokenCount", promptTokens + tokens(text));
+        if (cachedTokens > 0) ((ObjectNode) root.get("usageMetadata")).put("cachedContentTokenCount", cachedTokens);
+        return root;
+    }
+
+    // POST /v1beta/cachedContents, and GET / PATCH (ttl) / DELETE /v1beta/cachedContents/<id>
+    private void handleCachedContents(HttpExchange ex) throws IOException {
+        String path = ex.getRequestURI().getPath();
+        String method = ex.getRequestMethod();
+        JsonNode body;
+        try (InputStream in = ex.getRequestBody()) {
+            byte[] bytes = in.readAllBytes();
+            body = bytes.length == 0 ? MAPPER.createObjectNode() : MAPPER.readTree(bytes);
+        } catch (IOException e) {
+            sendError(ex, 400, "INVALID_ARGUMENT", "Invalid JSON payload", -1);
+            return;
+        }
+
+        if ("POST".equals(method) && path.endsWith("/cachedContents")) {
+            int tokens = tokens(body.path("systemInstruction").toString()) + tokens(body.path("contents").toString());
+            if (tokens < minCacheTokens) {
+                sendError(ex, 400, "INVALID_ARGUMENT", "Cached content is too small. total_token_count=" + tokens
+                        + ", min_total_token_count=" + minCacheTokens, -1);
+                return;
+            }
+            String name = "cachedContents/mock-" + cacheIds.incrementAndGet();
+            CachedContent cc = new CachedContent(tokens, System.currentTimeMillis() + ttlMs(body));
+            cachedContents.put(name, cc);
+            cacheCreates.increment();
+            sendJson(ex, 200, cachedContentJson(name, cc));
+            return;
+        }
+
+        String name = path.substring(path.indexOf("cachedContents/"));
+        CachedContent cc = cachedContents.get(name);
+        if (cc == null || cc.expired()) {
+            cachedContents.remove(name);
+            sendError(ex, 404, "NOT_FOUND", "CachedContent not found (or permission denied)", -1);
+            return;
+        }
+        switch (method) {
+            case "PATCH" -> {
+                cc.expiresAtMs = System.currentTimeMillis() + ttlMs(body);
+                cacheRefreshes.increment();
+                sendJson(ex, 200, cachedContentJson(name, cc));
+            }
+            case "DELETE" -> {
+                cachedContents.remove(name);
+                sendJson(ex, 200, MAPPER.createObjectNode());
+            }
+            default -> sendJson(ex, 200, cachedContentJson(name, cc));
+        }
+    }
+
+    private static long ttlMs(JsonNode body) {
+        String ttl = body.path("ttl").asText("3600s");
+        return (long) (Double.parseDouble(ttl.endsWith("s") ? ttl.substring(0, ttl.length() - 1) : ttl) * 1000);
+    }
+
+    private static ObjectNode cachedContentJson(String name, CachedContent cc) {
+        ObjectNode root = MAPPER.createObjectNode().put("name", name)
+                .put("expireTime", Instant.ofEpochMilli(cc.expiresAtMs).toString());
+        root.putObject("usageMetadata").put("totalTokenCount", cc.tokens);
+        return root;
+    }
+
+    private static void sendJson(HttpExchange ex, int status, ObjectNode json) throws IOException {
+        byte[] bytes = MAPPER.writeValueAsBytes(json);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        ex.getResponseBody().write(bytes);
+    }
+
+    // Error body in the google.rpc.Status shape, with RetryInfo when a delay is suggested
+    private static void sendError(HttpExchange ex, int status, String code, String message, int retryAfterSeconds)
+            throws IOException {
+        ObjectNode root = MAPPER.createObjectNode();
+        ObjectNode error = root.putObject("error")
+                .put("code", status).put("message", message).put("status", code);
+        if (retryAfterSeconds >= 0) {
+            ex.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+            error.putArray("details").addObject()
+                    .put("@type", "type.googleapis.com/google.rpc.RetryInfo")
+                    .put("retryDelay", retryAfterSeconds + "s");
+        }
+        byte[] json = MAPPER.writeValueAsBytes(root);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        ex.sendResponseHeaders(status, json.length);
+        ex.getResponseBody().write(json);
+    }
+
+    private static List<String> split(String text, int pieces) {
+        List<String> out = new ArrayList<>();
+        int step = Math.max(1, (text.length() + pieces - 1) / pieces);
+        for (int off = 0; off < text.length(); off += step) {
+            out.add(text.substring(off, Math.min(text.length(), off + step)));
+        }
+        return out;
+    }
+
+    private static int tokens(String s) {
+        return Math.max(1, s.length() / 4);
+    }
+
+    private static void sleep(long ms) throws IOException {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        }
+    }
+
+    // Standalone mode, started from Main with --mock-gemini; runs until the process is killed
+    public static int run(String[] args) {
+        int port = 8089;
+        MockGeminiServer s;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("--port".equals(args[i])) port = Integer.parseInt(value(args, ++i));
+            }
+            s = new MockGeminiServer(port);
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--mock-gemini" -> { }
+                    case "--port" -> i++;
+                    case "--latency" -> s.latency(Latency.parse(value(args, ++i)));
+                    case "--throttle" -> {
+                        String[] v = value(args, ++i).split(",");
+                        s.throttleRate(Double.parseDouble(v[0]));
+                        if (v.length > 1) s.retryAfterSeconds(Integer.parseInt(v[1].trim()));
+                    }
+                    case "--unavailable" -> {
+                        String[] v = value(args, ++i).split(",");
+                        s.unavailableRate(Double.parseDouble(v[0]));
+                        if (v.length > 1) s.retryAfterSeconds(Integer.parseInt(v[1].trim()));
+                    }
+                    case "--reset" -> s.resetRate(Double.parseDouble(value(args, ++i)));
+                    case "--drip" -> {
+                        String[] v = value(args, ++i).split(",");
+                        s.drip(Integer.parseInt(v[0].trim()), v.length > 1 ? Long.parseLong(v[1].trim()) : 0);
+                    }
+                    case "--max-concurrent" -> s.maxConcurrent(Integer.parseInt(value(args, ++i)));
+                    case "--reply-words" -> s.replyWords(Integer.parseInt(value(args, ++i)));
+                    default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Mock server failed to start: " + e.getMessage());
+            return 2;
+        }
+        s.start();
+        System.err.println("Mock Gemini listening; set GEMINI_BASE_URL=" + s.baseUrl());
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            s.close();
+        }
+        return 0;
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+}
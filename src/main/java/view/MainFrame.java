@@ -1,18 +1,22 @@
 package view;
 
-import controller.MainController;
+import controller.Startup;
+import model.APIClient;
 import model.SessionModel;
+import model.TokenEstimator;
 import model.WritingMode;
+import model.strategy.StrategyRegistry;
+import model.strategy.WritingStrategy;
+import service.AttachmentLoader;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
-
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 
 // Main application window for the writing assistant
@@ -26,9 +30,6 @@ public class MainFrame {
     // menu bar for selecting writing modes
     private final JMenuBar menuBar = new JMenuBar();
     private final JMenu modeMenu = new JMenu("Mode");
-    private final JMenuItem creative = new JMenuItem("Creative");
-    private final JMenuItem professional = new JMenuItem("Professional");
-    private final JMenuItem academic = new JMenuItem("Academic");
 
     // split layout
     private final JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT);
@@ -41,13 +42,24 @@ public class MainFrame {
     private final AttachmentsPanel attachmentsPanel = new AttachmentsPanel();
     private final TipsPanel tipsPanel = new TipsPanel();
 
-    // MVC components
+    // counts Enter presses so a slow attachment read can't send after a newer submit (EDT only)
+    private long submitCount = 0;
+
+    // MVC components; the controller and attachment cache are built in the background during startup
     private final SessionModel session = new SessionModel();
-    private final MainController controller = new MainController(session);
+    private final CompletableFuture<Startup.Services> services;
 
-    // builds and displays the main window layout
-    public MainFrame() {
+    // builds and displays the main window layout without waiting for config or the network
+    public MainFrame(Startup startup) {
+        services = startup.services(session);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        // runs before EXIT_ON_CLOSE exits, so the disk cache is flushed and unlocked
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if (services.isDone() && !services.isCompletedExceptionally()) services.join().controller().close();
+            }
+        });
         frame.setLayout(new BorderLayout());
         frame.setSize(1100, 700);
         frame.setLocationRelativeTo(null);
@@ -57,18 +69,11 @@ public class MainFrame {
         header.setFont(header.getFont().deriveFont(Font.BOLD, 22f));
         frame.add(header, BorderLayout.NORTH);
 
-        // menu
-        modeMenu.add(creative);
-        modeMenu.add(professional);
-        modeMenu.add(academic);
+        // menu: built-in strategies now, rebuilt once the configured ones are registered
+        buildModeMenu();
         menuBar.add(modeMenu);
         frame.setJMenuBar(menuBar);
 
-        // mode selection events
-        creative.addActionListener(_ -> setMode("CREATIVE MODE"));
-        professional.addActionListener(_ -> setMode("PROFESSIONAL MODE"));
-        academic.addActionListener(_ -> setMode("ACADEMIC MODE"));
-
         // adds right side cards
         rightCard.add(attachmentsPanel, CARD_FILES);
         rightCard.add(tipsPanel, CARD_TIPS);
@@ -86,20 +91,42 @@ public class MainFrame {
             showRight(CARD_TIPS);
             tipsPanel.showGenerating();
 
-            // detects selected writing mode
-            WritingMode mode = switch (header.getText()) {
-                case "CREATIVE MODE" -> WritingMode.CREATIVE;
-                case "ACADEMIC MODE" -> WritingMode.ACADEMIC;
-                default -> WritingMode.PROFESSIONAL;
-            };
-
-            // Merge editor text + file contents before sending
-            String combined = mergeEditorTextWithAttachments(text);
-
-            // Send request
-            controller.onGenerate(combined, mode);
+            // detects selected writing mode from the header ("<ID> MODE")
+            String title = header.getText();
+            WritingMode mode = title.endsWith(" MODE")
+                    ? WritingMode.of(title.substring(0, title.length() - " MODE".length()))
+                    : WritingMode.PROFESSIONAL;
+
+            // Merge editor text + file contents off the EDT, then send; a newer Enter supersedes this one
+            // (an Enter pressed while startup is still running goes out once the services are ready)
+            long submit = ++submitCount;
+            List<Path> files = attachmentsPanel.getFiles();
+            if (!services.isDone()) tipsPanel.showStatus("Starting up...");
+            services.thenAccept(s -> AttachmentLoader.mergeAsync(text, files,
+                            status -> SwingUtilities.invokeLater(() -> {
+                                if (submit == submitCount) tipsPanel.showStatus(status);
+                            }), s.attachmentCache())
+                    .thenAccept(combined -> SwingUtilities.invokeLater(() -> {
+                        if (submit != submitCount || !confirmBudget(combined)) return;
+                        // Send request
+                        s.controller().onGenerate(combined, mode);
+                        // after onGenerate, whose loading state would otherwise replace the note
+                        String note = partsNote(combined);
+                        if (note != null) tipsPanel.showGenerating(note);
+                    })));
         });
 
+        // config errors (e.g. no API key) surface once loading finishes
+        services.whenComplete((s, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex == null) {
+                buildModeMenu();
+                return;
+            }
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            JOptionPane.showMessageDialog(frame, cause.getMessage(), "Startup Error", JOptionPane.ERROR_MESSAGE);
+            tipsPanel.showTips("Error: " + cause.getMessage());
+        }));
+
         // sync model -> UI
         wireModelToUI();
 
@@ -107,52 +134,6 @@ public class MainFrame {
         frame.setVisible(true);
     }
 
-    // Reads attached files and appends them to the user text
-    private String mergeEditorTextWithAttachments(String userText) {
-        List<Path> files = attachmentsPanel.getFiles();
-        if (files == null || files.isEmpty()) return userText;
-
-        final int MAX_CHARS_PER_FILE = 6000;
-        final int MAX_TOTAL_CHARS = 15000;
-
-        StringBuilder sb = new StringBuilder(userText);
-        sb.append("\n\n---\nATTACHMENTS (for reference)\n");
-
-        int totalAdded = 0;
-
-        for (Path p : files) {
-            if (p == null) continue;
-
-            sb.append("\n[FILE: ").append(p.getFileName()).append("]\n");
-
-            try {
-                String content = Files.readString(p, StandardCharsets.UTF_8);
-
-                if (content.length() > MAX_CHARS_PER_FILE) {
-                    content = content.substring(0, MAX_CHARS_PER_FILE)
-                            + "\n... (truncated)";
-                }
-
-                // enforce a total cap
-                int remaining = MAX_TOTAL_CHARS - totalAdded;
-                if (remaining <= 0) {
-                    sb.append("... (more attachments omitted: input too large)\n");
-                    break;
-                }
-                if (content.length() > remaining) {
-                    content = content.substring(0, remaining) + "\n... (truncated total)";
-                }
-
-                sb.append(content).append("\n");
-                totalAdded += content.length();
-            } catch (IOException e) {
-                sb.append("(Could not read file: ").append(e.getMessage()).append(")\n");
-            }
-        }
-
-        return sb.toString();
-    }
-
     // Listens for session state changes and updates the UI accordingly
     private void wireModelToUI() {
         session.addPropertyChangeListener(evt -> {
@@ -161,6 +142,7 @@ public class MainFrame {
                     boolean busy = (boolean) evt.getNewValue();
                     if (busy) tipsPanel.showGenerating();
                 }
+                case "responseChunk" -> tipsPanel.appendTips((String) evt.getNewValue());
                 case "responseText" -> {
                     String text = (String) evt.getNewValue();
                     tipsPanel.showTips(text);
@@ -176,6 +158,40 @@ public class MainFrame {
         });
     }
 
+    // Checks the local token estimate before sending: asks before sending trimmed attachments
+    private boolean confirmBudget(String combined) {
+        if (AttachmentLoader.wasTrimmed(combined)) {
+            int choice = JOptionPane.showConfirmDialog(frame,
+                    "The attachments are over the " + AttachmentLoader.MAX_TOTAL_TOKENS
+                            + "-token budget and were trimmed. Send anyway?",
+                    "Attachments trimmed", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+            if (choice != JOptionPane.YES_OPTION) {
+                tipsPanel.showTips("Ready.");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Says up front when the input will go out in several parts, or null when it fits in one
+    private String partsNote(String combined) {
+        int tokens = TokenEstimator.shared().estimate(AttachmentLoader.userText(combined));
+        int perChunk = APIClient.getInstance().chunkMaxTokens();
+        if (tokens <= perChunk) return null;
+        int parts = (tokens + perChunk - 1) / perChunk;
+        return "Long input (~" + tokens + " tokens): generating in about " + parts + " parts...";
+    }
+
+    // one item per registered writing strategy, selecting it shows the mode in the header
+    private void buildModeMenu() {
+        modeMenu.removeAll();
+        for (WritingStrategy s : StrategyRegistry.shared().all()) {
+            JMenuItem item = new JMenuItem(s.label());
+            item.addActionListener(_ -> setMode(s.id() + " MODE"));
+            modeMenu.add(item);
+        }
+    }
+
     private void setMode(String title) { header.setText(title); } // updates header when new mode is selected
 
     // switches the right-side view between attachments and tips
@@ -10,6 +10,7 @@ public class TipsPanel extends JPanel {
 
     private final JLabel title = new JLabel("Tips"); // panel title
     private final JTextArea tipsTextArea = new JTextArea(); // area to display text output
+    private boolean placeholderShown = false; // true while "Generating tips..." is on screen
 
     // builds the panel layout and initializes default appearance
     public TipsPanel() {
@@ -39,11 +40,36 @@ public class TipsPanel extends JPanel {
     public void showGenerating() {
         tipsTextArea.setText("Generating tips...");
         tipsTextArea.setCaretPosition(0);
+        placeholderShown = true;
+    }
+
+    // loading message with an extra line, e.g. how many parts a long input is sent in
+    public void showGenerating(String detail) {
+        showGenerating();
+        if (detail != null && !detail.isBlank()) tipsTextArea.append("\n" + detail);
+    }
+
+    // shows a progress line (e.g. attachment reading) that is replaced by the first streamed chunk
+    public void showStatus(String status) {
+        tipsTextArea.setText(status == null ? "" : status);
+        tipsTextArea.setCaretPosition(0);
+        placeholderShown = true;
+    }
+
+    // appends streamed text as it arrives, replacing the loading message on the first chunk
+    public void appendTips(String chunk) {
+        if (chunk == null || chunk.isEmpty()) return;
+        if (placeholderShown) {
+            tipsTextArea.setText("");
+            placeholderShown = false;
+        }
+        tipsTextArea.append(chunk);
     }
 
     // replaces tip screen with API response
     public void showTips(String text) {
         tipsTextArea.setText(text == null ? "" : text);
         tipsTextArea.setCaretPosition(0);
+        placeholderShown = false;
     }
 }
@@ -0,0 +1,151 @@
+package batch;
+
+import model.APIException;
+import model.WritingMode;
+import model.WritingRequest;
+import model.WritingResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import service.APIService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchRunnerTest {
+
+    // Echoes the text back, fails on "boom", throws a bug-like exception on "npe", and tracks peak concurrency
+    private static final class FakeService extends APIService {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+
+        FakeService() {
+            super(java.net.http.HttpClient.newHttpClient(), "k", "m", "http://localhost", 0);
+        }
+
+        @Override
+        public WritingResponse generateText(WritingRequest req) {
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+                if (req.getUserText().equals("boom")) throw new APIException(400, "bad input");
+                if (req.getUserText().equals("npe")) throw new NullPointerException("no text");
+                return new WritingResponse("re: " + req.getUserText(), "STOP", 3, 4, 7);
+            } catch (InterruptedException e) {
+                throw APIException.cancelled();
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+    private static BatchSource source(String jsonl) {
+        return BatchSource.jsonl(new ByteArrayInputStream(jsonl.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void writesOneRecordPerInputAndCapsParallelism() throws Exception {
+        StringBuilder in = new StringBuilder();
+        for (int i = 0; i < 20; i++) in.append("{\"id\":\"e").append(i).append("\",\"text\":\"essay ").append(i).append("\"}\n");
+        in.append("{\"id\":\"bad\",\"text\":\"boom\",\"mode\":\"creative\"}\n");
+        in.append("{\"id\":\"bug\",\"text\":\"npe\"}\n");
+        in.append("{\"id\":\"typo\",\"text\":\"essay\",\"mode\":\"acadmic\"}\n");
+
+        FakeService api = new FakeService();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        BatchRunner.Summary s;
+        try (JsonlResultWriter out = new JsonlResultWriter(buf)) {
+            s = new BatchRunner(api, WritingMode.ACADEMIC, 256, 4).run(source(in.toString()), out, Set.of());
+        }
+
+        assertEquals(20, s.getSucceeded());
+        assertEquals(3, s.getFailed());
+        assertEquals(140, s.getTotalTokens());
+        assertTrue(api.peak.get() <= 4, "peak concurrency " + api.peak.get());
+
+        List<String> lines = buf.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(23, lines.size());
+        assertTrue(lines.stream().anyMatch(l -> l.contains("\"id\":\"e7\"") && l.contains("\"text\":\"re: essay 7\"")
+                && l.contains("\"totalTokens\":7") && l.contains("\"mode\":\"ACADEMIC\"")));
+        assertTrue(lines.stream().anyMatch(l -> l.contains("\"id\":\"bad\"") && l.contains("\"status\":\"error\"")
+                && l.contains("\"mode\":\"CREATIVE\"")));
+        assertTrue(lines.stream().anyMatch(l -> l.contains("\"id\":\"bug\"") && l.contains("\"status\":\"error\"")
+                && l.contains("no text")));
+        // a mode the batch doesn't know fails the record instead of quietly using the default
+        assertTrue(lines.stream().anyMatch(l -> l.contains("\"id\":\"typo\"") && l.contains("\"status\":\"error\"")
+                && l.contains("Unknown mode: acadmic") && l.contains("\"mode\":\"ACADEMIC\"")));
+    }
+
+    @Test
+    void failsTheRunWhenAResultCanNotBeWritten() throws Exception {
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        try (JsonlResultWriter out = new JsonlResultWriter(broken, false)) {
+            IOException e = assertThrows(IOException.class, () -> new BatchRunner(new FakeService(), WritingMode.ACADEMIC, 256, 2)
+                    .run(source("{\"id\":\"a\",\"text\":\"1\"}\n{\"id\":\"b\",\"text\":\"2\"}\n"), out, Set.of()));
+            assertEquals("disk full", e.getMessage());
+        }
+    }
+
+    @Test
+    void resumeSkipsIdsAlreadyCompletedAndIgnoresTornLines(@TempDir Path dir) throws Exception {
+        Path out = dir.resolve("out.jsonl");
+        Files.writeString(out,
+                "{\"id\":\"a\",\"status\":\"ok\",\"text\":\"x\"}\n"
+                        + "{\"id\":\"b\",\"status\":\"error\",\"error\":\"x\"}\n"
+                        + "{\"id\":\"c\",\"status\":\"ok\",\"te");
+        Set<String> done = JsonlResultWriter.completedIds(out);
+        assertEquals(Set.of("a"), done);
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        BatchRunner.Summary s;
+        try (JsonlResultWriter w = new JsonlResultWriter(buf)) {
+            s = new BatchRunner(new FakeService(), WritingMode.ACADEMIC, 256, 2)
+                    .run(source("{\"id\":\"a\",\"text\":\"1\"}\n{\"id\":\"b\",\"text\":\"2\"}\n{\"id\":\"c\",\"text\":\"3\"}\n"), w, done);
+        }
+        assertEquals(1, s.getSkipped());
+        assertEquals(2, s.getSucceeded());
+        assertFalse(buf.toString(StandardCharsets.UTF_8).contains("\"id\":\"a\""));
+    }
+
+    @Test
+    void sourceReadsDirectoriesAndRawLines(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("one.txt"), "first essay");
+        Files.createDirectories(dir.resolve("sub"));
+        Files.writeString(dir.resolve("sub/two.md"), "second essay");
+        Files.writeString(dir.resolve("ignored.png"), "x");
+        Files.write(dir.resolve("broken.txt"), new byte[] { 0, 0, 'a', 0, 0 });
+
+        try (BatchSource src = BatchSource.directory(dir)) {
+            BatchInput broken = src.next();
+            BatchInput a = src.next();
+            BatchInput b = src.next();
+            assertFalse(src.hasNext());
+            // an unreadable file becomes a failed record instead of ending the batch
+            assertEquals("broken.txt", broken.getId());
+            assertEquals("Could not read file: binary file", broken.getError());
+            assertEquals("one.txt", a.getId());
+            assertNull(a.getError());
+            assertEquals("sub/two.md", b.getId());
+            assertEquals("second essay", b.getText());
+        }
+
+        BatchInput raw = BatchSource.parseLine("just some text", 5);
+        assertEquals("5", raw.getId());
+        assertEquals("just some text", raw.getText());
+        assertNull(raw.getMode());
+    }
+}
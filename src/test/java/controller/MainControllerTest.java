@@ -6,8 +6,11 @@ import model.WritingRequest;
 import model.WritingResponse;
 import org.junit.jupiter.api.Test;
 import service.APIService;
+import service.ServiceExecutors;
 
 import javax.swing.*;
+import java.util.function.Consumer;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -23,6 +26,19 @@ class FakeService extends APIService {
         }
         return new WritingResponse("ok-" + r.getUserText(), "stop", 1, 1, 2);
     }
+
+    @Override
+    public WritingResponse generateTextStream(WritingRequest r, Consumer<String> onChunk) {
+        onChunk.accept("ok-");
+        onChunk.accept(r.getUserText());
+        return generateText(r);
+    }
+
+    // Non-streaming path: same answer without chunks, cancellable like the real service
+    @Override
+    public CompletableFuture<WritingResponse> generateTextAsync(WritingRequest r) {
+        return ServiceExecutors.supplyInterruptibly(() -> generateTextStream(r, chunk -> { }));
+    }
 }
 
 public class MainControllerTest {
@@ -30,16 +46,7 @@ public class MainControllerTest {
     @Test
     void generateRunsAsyncAndUpdatesModel() throws Exception {
         SessionModel m = new SessionModel();
-        MainController c = new MainController(m) {
-            { // replace real API with fake via reflection-less approach
-                try {
-                    var f = MainController.class.getDeclaredField("api");
-                    f.setAccessible(true);
-                    f.set(this, new FakeService());
-                } catch (Exception ignored) {
-                }
-            }
-        };
+        MainController c = new MainController(m, new FakeService());
 
         CountDownLatch done = new CountDownLatch(1);
         m.addPropertyChangeListener(e -> {
@@ -54,4 +61,43 @@ public class MainControllerTest {
         assertEquals("ok-Mira", m.getResponseText());
         assertFalse(m.isLoading());
     }
+
+    @Test
+    void newerSubmitCancelsOlderAndDropsItsResult() throws Exception {
+        SessionModel m = new SessionModel();
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        APIService svc = new FakeService() {
+            @Override
+            public WritingResponse generateTextStream(WritingRequest r, Consumer<String> onChunk) {
+                if (r.getUserText().equals("slow")) {
+                    slowStarted.countDown();
+                    try {
+                        Thread.sleep(5_000);
+                    } catch (InterruptedException e) {
+                        throw model.APIException.cancelled();
+                    }
+                }
+                return super.generateTextStream(r, onChunk);
+            }
+        };
+        MainController c = new MainController(m, svc);
+
+        CountDownLatch done = new CountDownLatch(1);
+        m.addPropertyChangeListener(e -> {
+            if ("responseText".equals(e.getPropertyName()))
+                done.countDown();
+        });
+
+        CompletableFuture<WritingResponse> first = c.onGenerate("slow", WritingMode.PROFESSIONAL);
+        assertTrue(slowStarted.await(2, TimeUnit.SECONDS));
+        CompletableFuture<WritingResponse> second = c.onGenerate("fast", WritingMode.PROFESSIONAL);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(first.isCancelled());
+        assertEquals("ok-fast", second.get(2, TimeUnit.SECONDS).getText());
+        SwingUtilities.invokeAndWait(() -> { });
+        assertEquals("ok-fast", m.getResponseText());
+        assertEquals("", m.getErrorMessage());
+        assertFalse(m.isLoading());
+    }
 }
@@ -0,0 +1,81 @@
+package metrics;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @Test
+    void histogramPercentilesAreWithinBucketPrecision() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) h.recordMicros(i * 1000L); // 1..1000 ms
+
+        assertEquals(1000, h.count());
+        assertEquals(500, h.percentileMillis(50), 500 * 0.07);
+        assertEquals(990, h.percentileMillis(99), 990 * 0.07);
+        assertEquals(1000, h.percentileMillis(100), 0.001);
+        assertEquals(500.5, h.meanMicros() / 1000, 0.001);
+    }
+
+    @Test
+    void bucketBoundsCoverEveryValue() {
+        for (long v : new long[] { 0, 1, 15, 16, 17, 31, 32, 100, 12345, 1L << 30, (1L << 30) + 12345 }) {
+            int i = LatencyHistogram.indexOf(v);
+            assertTrue(LatencyHistogram.upperBound(i) >= v, "value " + v);
+            if (i > 0) assertTrue(LatencyHistogram.upperBound(i - 1) < v, "value " + v);
+        }
+    }
+
+    @Test
+    void rateMeterAveragesOverTheLastMinute() {
+        AtomicLong now = new AtomicLong(0);
+        RateMeter r = new RateMeter(now::get);
+        r.add(60);
+        assertEquals(1.0, r.perSecond(), 1e-9);
+        now.addAndGet(30_000_000_000L);
+        r.add(60);
+        assertEquals(2.0, r.perSecond(), 1e-9);
+        now.addAndGet(45_000_000_000L); // the first add is now out of the window
+        assertEquals(1.0, r.perSecond(), 1e-9);
+    }
+
+    @Test
+    void countersAndMBeanAndCsv(@TempDir Path dir) throws Exception {
+        Metrics m = new Metrics();
+        m.increment("status.200");
+        m.increment("status.200");
+        m.increment("finish.STOP");
+        m.callFinished(5_000_000, true);
+        m.callFinished(7_000_000, false);
+        m.tokens(10, 20);
+
+        assertEquals(2, m.counter("status.200"));
+        assertEquals("finish.STOP=1 status.200=2", m.getCounters());
+        assertEquals(2, m.getRequests());
+        assertEquals(1, m.getFailures());
+        assertTrue(m.dump().contains("tokens in=10 out=20"));
+
+        Metrics.global().registerMBean();
+        Metrics.global().registerMBean(); // idempotent
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertNotNull(server.getAttribute(new ObjectName(Metrics.OBJECT_NAME), "TotalP99Ms"));
+
+        Path csv = dir.resolve("metrics.csv");
+        MetricsReporter.appendCsv(m, csv);
+        MetricsReporter.appendCsv(m, csv);
+        List<String> lines = Files.readAllLines(csv);
+        assertEquals(3, lines.size());
+        assertEquals(MetricsReporter.CSV_HEADER, lines.get(0));
+        assertTrue(lines.get(1).contains(",2,1,"));
+    }
+}
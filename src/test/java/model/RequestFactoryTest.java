@@ -26,4 +26,12 @@ public class RequestFactoryTest {
         assertTrue(req.getSystemPrompt().toLowerCase().contains("academic"));
         assertTrue(req.getTemperature() <= 0.3);
     }
+
+    @Test
+    void build_withOutputCeiling_sizesMaxTokensForLongInput() {
+        WritingRequest shortReq = RequestFactory.build(WritingMode.ACADEMIC, "Hello", 4096, 16384);
+        WritingRequest longReq = RequestFactory.build(WritingMode.ACADEMIC, "sentence ".repeat(8000), 4096, 16384);
+        assertEquals(4096, shortReq.getMaxTokens());
+        assertTrue(longReq.getMaxTokens() > 4096 && longReq.getMaxTokens() <= 16384);
+    }
 }
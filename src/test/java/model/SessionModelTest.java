@@ -24,4 +24,17 @@ public class SessionModelTest {
         m.setResponseText("ok");
         assertEquals("ok", m.getResponseText());
     }
+
+    @Test
+    void responseChunkFiresWithFragment() {
+        SessionModel m = new SessionModel();
+        StringBuilder seen = new StringBuilder();
+        m.addPropertyChangeListener(e -> {
+            if ("responseChunk".equals(e.getPropertyName()))
+                seen.append(e.getNewValue());
+        });
+        m.appendResponseChunk("Hel");
+        m.appendResponseChunk("lo");
+        assertEquals("Hello", seen.toString());
+    }
 }
@@ -0,0 +1,64 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenEstimatorTest {
+
+    @Test
+    void rawCountHandlesWordsDigitsPunctuationAndCjk() {
+        assertEquals(0, TokenEstimator.rawCount(""));
+        assertEquals(0, TokenEstimator.rawCount(null));
+        assertEquals(2, TokenEstimator.rawCount("hello world"));        // two short words
+        assertEquals(4, TokenEstimator.rawCount("internationalization")); // 20 letters
+        assertEquals(4, TokenEstimator.rawCount("2024"));                // digits count singly
+        assertEquals(3, TokenEstimator.rawCount("Hi, you"));             // word, comma, word
+        assertEquals(4, TokenEstimator.rawCount("日本語だ"));
+        assertEquals(1, TokenEstimator.rawCount("😀"));        // one emoji, one token
+    }
+
+    @Test
+    void prefixWithinMatchesRawCount() {
+        TokenEstimator e = new TokenEstimator();
+        String s = "The quick brown fox jumps over the lazy dog, 42 times.";
+        int total = TokenEstimator.rawCount(s);
+        assertEquals(s.length(), e.prefixWithin(s, total));
+        for (int budget = 0; budget < total; budget++) {
+            int cut = e.prefixWithin(s, budget);
+            assertTrue(TokenEstimator.rawCount(s.substring(0, cut)) <= budget, "budget " + budget);
+            assertTrue(cut < s.length());
+        }
+    }
+
+    @Test
+    void calibrationMovesTowardsReportedUsage() {
+        TokenEstimator e = new TokenEstimator();
+        WritingRequest req = new WritingRequest("word ".repeat(400), "system", 0.5, 0.9, 0, 1024);
+        int raw = TokenEstimator.rawCount(req.getUserText()) + TokenEstimator.rawCount(req.getSystemPrompt());
+        for (int i = 0; i < 30; i++) {
+            e.observe(req, new WritingResponse("x", "STOP", raw * 2, 100, raw * 2 + 1500));
+        }
+        assertEquals(2.0, e.promptScale(), 0.05);
+        assertEquals(2 * raw, e.estimatePrompt(req), raw * 0.05);
+    }
+
+    @Test
+    void planMaxTokensStaysWithinFloorAndCeilingAndRoundsUp() {
+        TokenEstimator e = new TokenEstimator();
+        assertEquals(4096, e.planMaxTokens("short", 4096, 16384));
+        int planned = e.planMaxTokens("word ".repeat(5000), 4096, 16384);
+        assertTrue(planned > 4096 && planned <= 16384, "planned " + planned);
+        assertEquals(1, Integer.bitCount(planned / 4096), "doublings of the floor, got " + planned);
+
+        // a small drift in the calibrated output ratio doesn't move the plan
+        WritingRequest req = new WritingRequest(WritingMode.ACADEMIC, "word ".repeat(2000), "sys", 0.3, 0.9, 0.0, 256);
+        int before = e.planMaxTokens(req.getUserText(), 4096, 16384);
+        int user = e.estimate(req.getUserText());
+        e.observe(req, new WritingResponse("x", "STOP", TokenEstimator.rawCount(req.getUserText()) + 1,
+                0, TokenEstimator.rawCount(req.getUserText()) + 1 + (int) (user * 1.6) + 300));
+        assertEquals(before, e.planMaxTokens(req.getUserText(), 4096, 16384));
+        assertEquals(16384, e.planMaxTokens("word ".repeat(50_000), 4096, 16384));
+        assertEquals(2048, e.planMaxTokens("word ".repeat(50_000), 2048, 0)); // planning off
+    }
+}
@@ -0,0 +1,67 @@
+package model.strategy;
+
+import model.RequestFactory;
+import model.WritingMode;
+import model.WritingRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StrategyRegistryTest {
+
+    // a mode that exists only as a strategy class
+    public static class HaikuStrategy implements WritingStrategy {
+        @Override public String systemPrompt() { return "Answer in haiku."; }
+        @Override public double temperature() { return 0.7; }
+        @Override public double topP() { return 0.9; }
+        @Override public double presencePenalty() { return 0.0; }
+    }
+
+    @Test
+    void builtIns_areRegisteredInMenuOrder() {
+        StrategyRegistry r = new StrategyRegistry();
+
+        assertEquals(List.of("CREATIVE", "PROFESSIONAL", "ACADEMIC"),
+                r.all().stream().map(WritingStrategy::id).toList());
+        assertEquals("Professional", r.find("professional").label());
+        assertSame(r.get(WritingMode.ACADEMIC), r.get(WritingMode.ACADEMIC));
+        assertNull(r.find("HAIKU"));
+    }
+
+    @Test
+    void register_sameIdReplacesEarlierStrategy() {
+        StrategyRegistry r = new StrategyRegistry();
+        WritingStrategy custom = new CreativeStrategy() {
+            @Override public String id() { return "CREATIVE"; }
+            @Override public double temperature() { return 1.2; }
+        };
+
+        r.register(custom);
+
+        assertSame(custom, r.get(WritingMode.CREATIVE));
+        assertEquals(3, r.all().size());
+    }
+
+    @Test
+    void registeredMode_worksWithoutEditingWritingMode() {
+        assertThrows(IllegalArgumentException.class, () -> WritingMode.valueOf("HAIKU"));
+        assertThrows(IllegalArgumentException.class, () -> WritingMode.of("HAIKU")); // unknown names aren't interned
+
+        StrategyRegistry.shared().register(StrategyRegistry.instantiate(HaikuStrategy.class.getName()));
+        WritingMode haiku = WritingMode.valueOf("haiku");
+        WritingRequest req = RequestFactory.build(haiku, "Autumn", 64);
+
+        assertSame(WritingMode.of("HAIKU"), haiku);
+        assertEquals("Answer in haiku.", req.getSystemPrompt());
+        assertEquals(0.7, req.getTemperature());
+        assertSame(haiku, req.getMode());
+    }
+
+    @Test
+    void instantiate_rejectsUnknownOrWrongClasses() {
+        assertThrows(IllegalStateException.class, () -> StrategyRegistry.instantiate("no.such.Strategy"));
+        assertThrows(IllegalStateException.class, () -> StrategyRegistry.instantiate(String.class.getName()));
+    }
+}
@@ -14,10 +14,20 @@ import java.net.http.HttpClient;
 import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -40,7 +50,11 @@ class APIServiceTest {
     private static final class FakeHttpClient extends HttpClient {
         private int status = 200;
         private String body = "{}";
+        private HttpHeaders headers = HttpHeaders.of(Map.of(), (a, b) -> true);
         private HttpRequest lastRequest;
+        private final AtomicInteger sends = new AtomicInteger();
+        // one-shot responses served before falling back to the fixed one
+        private final Deque<Object[]> queued = new ArrayDeque<>();
 
         FakeHttpClient respond(int status, String body) {
             this.status = status;
@@ -48,17 +62,48 @@ class APIServiceTest {
             return this;
         }
 
+        FakeHttpClient thenRespond(int status, String body, Map<String, List<String>> headers) {
+            queued.add(new Object[] { status, body, HttpHeaders.of(headers, (a, b) -> true) });
+            return this;
+        }
+
         HttpRequest lastRequest() {
             return lastRequest;
         }
 
+        int sends() {
+            return sends.get();
+        }
+
         @Override
         public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler) {
             this.lastRequest = request;
-
-            @SuppressWarnings("unchecked")
-            T castBody = (T) body; // our tests only use BodyHandlers.ofString(...)
-            return new FakeHttpResponse<>(request, status, castBody);
+            sends.incrementAndGet();
+            int status;
+            String body;
+            HttpHeaders headers;
+            synchronized (queued) {
+                Object[] next = queued.poll();
+                status = next == null ? this.status : (Integer) next[0];
+                body = next == null ? this.body : (String) next[1];
+                headers = next == null ? this.headers : (HttpHeaders) next[2];
+            }
+
+            // Feed the canned body through the real handler so ofString, ofLines, etc. all behave normally
+            HttpResponse.ResponseInfo info = new HttpResponse.ResponseInfo() {
+                @Override public int statusCode() { return status; }
+                @Override public HttpHeaders headers() { return headers; }
+                @Override public Version version() { return Version.HTTP_1_1; }
+            };
+            HttpResponse.BodySubscriber<T> subscriber = responseBodyHandler.apply(info);
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override public void request(long n) { }
+                @Override public void cancel() { }
+            });
+            subscriber.onNext(List.of(ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8))));
+            subscriber.onComplete();
+            T decoded = subscriber.getBody().toCompletableFuture().join();
+            return new FakeHttpResponse<>(request, status, decoded, headers);
         }
 
         @Override
@@ -91,17 +136,19 @@ class APIServiceTest {
         private final HttpRequest request;
         private final int status;
         private final T body;
+        private final HttpHeaders headers;
 
-        FakeHttpResponse(HttpRequest request, int status, T body) {
+        FakeHttpResponse(HttpRequest request, int status, T body, HttpHeaders headers) {
             this.request = request;
             this.status = status;
             this.body = body;
+            this.headers = headers;
         }
 
         @Override public int statusCode() {return status; }
         @Override public HttpRequest request() {return request; }
         @Override public Optional<HttpResponse<T>> previousResponse() { return Optional.empty(); }
-        @Override public HttpHeaders headers() {return HttpHeaders.of(java.util.Map.of(), (a, b) -> true); }
+        @Override public HttpHeaders headers() {return headers; }
         @Override public T body() { return body; }
         @Override public Optional<javax.net.ssl.SSLSession> sslSession() {return Optional.empty(); }
         @Override public URI uri() {return request.uri(); }
@@ -214,5 +261,195 @@ class APIServiceTest {
         assertTrue(url.contains("/v1/models/gemini-2.5-flash:generateContent?key="));
         assertTrue(url.contains("a+b"));
     }
-}
 
+    @Test
+    void generateTextStream_deliversChunksInOrderAndReturnsFullText() {
+        FakeHttpClient http = new FakeHttpClient().respond(
+                200,
+                "data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hello \"}]}}]}\n\n"
+                        + "data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"world\\n\"}]},\"finishReason\":\"STOP\"}],"
+                        + "\"usageMetadata\":{\"promptTokenCount\":5,\"candidatesTokenCount\":3,\"totalTokenCount\":8}}\n\n"
+        );
+
+        APIService svc = new APIService(http, "k", "m", "https://example.com", 0);
+        List<String> chunks = new ArrayList<>();
+        WritingResponse r = svc.generateTextStream(sampleReq(), chunks::add);
+
+        assertEquals(List.of("Hello ", "world\n"), chunks);
+        assertEquals("Hello world\n", r.getText());
+        assertEquals("STOP", r.getFinishReason());
+        assertEquals(8, r.getTotalTokens());
+        assertTrue(http.lastRequest().uri().toString().contains(":streamGenerateContent?alt=sse&key="));
+    }
+
+    @Test
+    void generateTextStream_non2xx_throwsAPIExceptionWithStatus() {
+        FakeHttpClient http = new FakeHttpClient().respond(429, "{\"error\":\"slow down\"}");
+
+        APIService svc = new APIService(http, "k", "m", "https://example.com", 0);
+
+        APIException ex = assertThrows(APIException.class, () -> svc.generateTextStream(sampleReq(), c -> { }));
+        assertEquals(429, ex.getStatus());
+    }
+
+    @Test
+    void generateTextAsync_completesWithParsedResponse() {
+        FakeHttpClient http = new FakeHttpClient().respond(
+                200,
+                "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"async\"}]},\"finishReason\":\"STOP\"}]}"
+        );
+
+        APIService svc = new APIService(http, "k", "m", "https://example.com", 0);
+
+        assertEquals("async", svc.generateTextAsync(sampleReq()).join().getText());
+    }
+
+    @Test
+    void generateTextAsync_non2xx_completesExceptionallyWithStatus() {
+        FakeHttpClient http = new FakeHttpClient().respond(503, "{\"error\":\"busy\"}");
+
+        APIService svc = new APIService(http, "k", "m", "https://example.com", 0);
+
+        CompletionException ex = assertThrows(CompletionException.class, () -> svc.generateTextAsync(sampleReq()).join());
+        assertEquals(503, APIService.asAPIException(ex).getStatus());
+    }
+
+    @Test
+    void generateTextAsync_rateLimitIsScheduledNotBlocking() {
+        FakeHttpClient http = new FakeHttpClient().respond(
+                200,
+                "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"x\"}]},\"finishReason\":\"STOP\"}]}"
+        );
+        APIService svc = new APIService(http, "k", "m", "https://example.com", 200);
+
+        long start = System.nanoTime();
+        CompletableFuture<WritingResponse> first = svc.generateTextAsync(sampleReq());
+        CompletableFuture<WritingResponse> second = svc.generateTextAsync(sampleReq());
+        long submitMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(submitMs < 100, "submitting should not wait for the rate limit");
+        first.join();
+        second.join();
+        assertTrue((System.nanoTime() - start) / 1_000_000 >= 200, "second call should wait for its slot");
+    }
+
+    @Test
+    void generateTextAsync_identicalConcurrentRequestsShareOneCall() {
+        FakeHttpClient http = new FakeHttpClient().respond(
+                200,
+                "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"shared\"}]},\"finishReason\":\"STOP\"}]}"
+        );
+        // every call waits 50 ms for its slot, so both are in flight together
+        RateLimiter slow = new RateLimiter() {
+            @Override public boolean tryAcquire(long tokens) { return false; }
+            @Override public long reserve(long tokens) { return 50_000_000L; }
+            @Override public void refund(int requests, long tokens) { }
+        };
+        APIService svc = new APIService(http, "k", "m", "https://example.com", slow);
+
+        CompletableFuture<WritingResponse> a = svc.generateTextAsync(sampleReq());
+        CompletableFuture<WritingResponse> b = svc.generateTextAsync(sampleReq());
+
+        assertEquals("shared", a.join().getText());
+        assertEquals("shared", b.join().getText());
+        assertEquals(1, http.sends());
+        assertEquals(0, svc.inFlightCount());
+    }
+
+    @Test
+    void cachingWrapper_reportsTheWrappedServicesInFlightCalls() {
+        FakeHttpClient http = new FakeHttpClient().respond(
+                200,
+                "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"ok\"}]},\"finishReason\":\"STOP\"}]}"
+        );
+        RateLimiter slow = new RateLimiter() {
+            @Override public boolean tryAcquire(long tokens) { return false; }
+            @Override public long reserve(long tokens) { return 100_000_000L; }
+            @Override public void refund(int requests, long tokens) { }
+        };
+        APIService caching = new CachingAPIService(
+                new APIService(http, "k", "m", "https://example.com", slow), new ResponseCache(16, 1 << 20, 0));
+
+        CompletableFuture<WritingResponse> f = caching.generateTextAsync(sampleReq());
+        assertEquals(1, caching.inFlightCount());
+        assertEquals("ok", f.join().getText());
+        assertEquals(0, caching.inFlightCount());
+    }
+
+    @Test
+    void generateTextAsync_cancelBeforeSlotRefundsAndNeverSends() throws Exception {
+        FakeHttpClient http = new FakeHttpClient().respond(200, "{}");
+        AtomicInteger refunds = new AtomicInteger();
+        RateLimiter slow = new RateLimiter() {
+            @Override public boolean tryAcquire(long tokens) { return false; }
+            @Override public long reserve(long tokens) { return 200_000_000L; }
+            @Override public void refund(int requests, long tokens) { refunds.addAndGet(requests); }
+        };
+        APIService svc = new APIService(http, "k", "m", "https://example.com", slow);
+
+        CompletableFuture<WritingResponse> f = svc.generateTextAsync(sampleReq());
+        assertTrue(f.cancel(true));
+        Thread.sleep(300);
+
+        assertEquals(1, refunds.get());
+        assertEquals(0, http.sends());
+        assertEquals(0, svc.inFlightCount());
+    }
+
+    @Test
+    void generateText_retriesThrottledCallHonoringRetryAfter() {
+        FakeHttpClient http = new FakeHttpClient()
+                .thenRespond(429, "{\"error\":{\"code\":429}}", Map.of("Retry-After", List.of("1")))
+                .respond(200, "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hi\"}]},\"finishReason\":\"STOP\"}]}");
+        RetryPolicy retry = new RetryPolicy(3, 1, 5, 0, false, 0, 0);
+        APIService svc = new APIService(http, "k", "m", "https://example.com", RateLimiter.unlimited(), retry);
+
+        long start = System.nanoTime();
+        WritingResponse r = svc.generateText(sampleReq());
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals("Hi", r.getText());
+        assertEquals(2, http.sends());
+        assertTrue(elapsedMs >= 900, "waited only " + elapsedMs + " ms despite Retry-After: 1");
+    }
+
+    @Test
+    void generateText_doesNotRetryClientErrors() {
+        FakeHttpClient http = new FakeHttpClient().respond(400, "{\"error\":{\"code\":400}}");
+        RetryPolicy retry = new RetryPolicy(5, 1, 5, 0, false, 0, 0);
+        APIService svc = new APIService(http, "k", "m", "https://example.com", RateLimiter.unlimited(), retry);
+
+        APIException ex = assertThrows(APIException.class, () -> svc.generateText(sampleReq()));
+        assertEquals(400, ex.getStatus());
+        assertEquals(1, http.sends());
+    }
+
+    @Test
+    void generateText_givesUpAfterMaxAttempts() {
+        FakeHttpClient http = new FakeHttpClient().respond(503, "unavailable");
+        RetryPolicy retry = new RetryPolicy(3, 1, 5, 0, false, 0, 0);
+        APIService svc = new APIService(http, "k", "m", "https://example.com", RateLimiter.unlimited(), retry);
+
+        APIException ex = assertThrows(APIException.class, () -> svc.generateText(sampleReq()));
+        assertEquals(503, ex.getStatus());
+        assertEquals(3, http.sends());
+    }
+
+    @Test
+    void generateText_recordsMetrics() {
+        metrics.Metrics m = metrics.Metrics.global();
+        long ok = m.counter("status.200");
+        long stop = m.counter("finish.STOP");
+        long calls = m.total().count();
+        long parsed = m.parse().count();
+        FakeHttpClient http = new FakeHttpClient().respond(200,
+                "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hi\"}]},\"finishReason\":\"STOP\"}]}");
+
+        new APIService(http, "k", "m", "https://example.com", 0).generateText(sampleReq());
+
+        assertEquals(ok + 1, m.counter("status.200"));
+        assertEquals(stop + 1, m.counter("finish.STOP"));
+        assertEquals(calls + 1, m.total().count());
+        assertEquals(parsed + 1, m.parse().count());
+    }
+}
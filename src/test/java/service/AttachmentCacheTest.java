@@ -0,0 +1,82 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AttachmentCacheTest {
+
+    @Test
+    void secondReadOfUnchangedFileIsAHit(@TempDir Path dir) throws Exception {
+        Path f = dir.resolve("ref.txt");
+        Files.writeString(f, "reference text");
+        try (AttachmentCache cache = new AttachmentCache(1 << 20)) {
+            AttachmentLoader.Attachment first = cache.get(f, 1000);
+            AttachmentLoader.Attachment second = cache.get(f, 1000);
+
+            assertSame(first, second);
+            assertEquals(1, cache.hits());
+            assertEquals(1, cache.misses());
+        }
+    }
+
+    @Test
+    void changedFileIsReadAgain(@TempDir Path dir) throws Exception {
+        Path f = dir.resolve("ref.txt");
+        Files.writeString(f, "old");
+        try (AttachmentCache cache = new AttachmentCache(1 << 20)) {
+            assertEquals("old", cache.get(f, 1000).getText());
+
+            Files.writeString(f, "new contents");
+            // the size/mtime check catches the change right away, whether or not the watch event has arrived
+            assertEquals("new contents", cache.get(f, 1000).getText());
+        }
+    }
+
+    @Test
+    void changesToASiblingLeaveTheEntryAlone(@TempDir Path dir) throws Exception {
+        Path f = dir.resolve("ref.txt");
+        Path sibling = dir.resolve("notes.txt");
+        Files.writeString(f, "reference text");
+        try (AttachmentCache cache = new AttachmentCache(1 << 20)) {
+            AttachmentLoader.Attachment first = cache.get(f, 1000);
+            for (int i = 0; i < 5; i++) {
+                Files.writeString(sibling, "edit " + i);
+                Thread.sleep(20); // let the watch events arrive
+            }
+            assertSame(first, cache.get(f, 1000));
+            assertEquals(1, cache.hits());
+
+            cache.get(sibling, 1000);
+            cache.get(sibling, 1000); // cached although its directory keeps seeing events
+            assertEquals(2, cache.hits());
+        }
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedWithinBudget(@TempDir Path dir) throws Exception {
+        Path a = dir.resolve("a.txt");
+        Path b = dir.resolve("b.txt");
+        Path c = dir.resolve("c.txt");
+        Files.writeString(a, "a".repeat(100));
+        Files.writeString(b, "b".repeat(100));
+        Files.writeString(c, "c".repeat(100));
+        try (AttachmentCache cache = new AttachmentCache(2 * (200 + 160))) { // room for two entries
+            cache.get(a, 1000);
+            cache.get(b, 1000);
+            cache.get(a, 1000); // a is now most recent
+            cache.get(c, 1000); // evicts b
+
+            assertEquals(2, cache.size());
+            long misses = cache.misses();
+            cache.get(a, 1000);
+            assertEquals(misses, cache.misses());
+            cache.get(b, 1000);
+            assertEquals(misses + 1, cache.misses());
+        }
+    }
+}
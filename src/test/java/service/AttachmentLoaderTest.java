@@ -0,0 +1,66 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AttachmentLoaderTest {
+
+    @Test
+    void readStopsAtBudgetForLargeFiles(@TempDir Path dir) throws Exception {
+        Path big = dir.resolve("big.txt");
+        Files.writeString(big, "é".repeat(300_000)); // 600 KB, spans many read blocks
+
+        AttachmentLoader.Attachment a = AttachmentLoader.read(big, 1000);
+        assertTrue(a.isTruncated());
+        assertEquals("é".repeat(1000), a.getText());
+        assertEquals(StandardCharsets.UTF_8, a.getCharset());
+
+        AttachmentLoader.Attachment whole = AttachmentLoader.read(big, 400_000);
+        assertFalse(whole.isTruncated());
+        assertEquals(300_000, whole.getText().length());
+    }
+
+    @Test
+    void sniffsBomUtf16AndLegacyEncodings(@TempDir Path dir) throws Exception {
+        Path utf16 = dir.resolve("u16.txt");
+        Files.write(utf16, "\uFEFFhello wörld".getBytes(StandardCharsets.UTF_16LE));
+        Path latin = dir.resolve("latin.txt");
+        Files.write(latin, "café “quoted”".getBytes(Charset.forName("windows-1252")));
+        Path bom8 = dir.resolve("bom8.txt");
+        Files.write(bom8, ("\uFEFF" + "naïve").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("hello wörld", AttachmentLoader.read(utf16, 100).getText());
+        assertEquals("café “quoted”", AttachmentLoader.read(latin, 100).getText());
+        assertEquals("naïve", AttachmentLoader.read(bom8, 100).getText());
+        assertNull(AttachmentLoader.sniff(ByteBuffer.wrap(new byte[] { 'P', 'K', 3, 4, 0, 0, 9, 0, 0, 0 })));
+    }
+
+    @Test
+    void mergeKeepsAttachmentOrderAndReportsProgress(@TempDir Path dir) throws Exception {
+        Path a = dir.resolve("a.txt");
+        Path b = dir.resolve("b.txt");
+        Files.writeString(a, "alpha");
+        Files.writeString(b, "beta");
+        Path missing = dir.resolve("missing.txt");
+        List<String> progress = new CopyOnWriteArrayList<>();
+
+        String merged = AttachmentLoader.mergeAsync("essay", List.of(a, missing, b), progress::add).join();
+
+        assertTrue(merged.startsWith("essay\n\n---\nATTACHMENTS"));
+        assertTrue(merged.indexOf("[FILE: a.txt]\nalpha") < merged.indexOf("[FILE: missing.txt]\n(Could not read file"));
+        assertTrue(merged.indexOf("[FILE: missing.txt]") < merged.indexOf("[FILE: b.txt]\nbeta"));
+        assertEquals(3, progress.size());
+        assertTrue(progress.contains("Reading attachments (3/3)..."));
+        assertEquals("essay", AttachmentLoader.mergeAsync("essay", List.of(), null).join());
+    }
+}
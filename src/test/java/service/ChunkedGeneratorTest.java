@@ -0,0 +1,104 @@
+package service;
+
+import model.TokenEstimator;
+import model.WritingMode;
+import model.WritingRequest;
+import model.WritingResponse;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpClient;
+import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkedGeneratorTest {
+
+    // Answers in the strategy template after a delay; later parts finish first to check ordering
+    private static class FakeService extends APIService {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+
+        FakeService() {
+            super(HttpClient.newHttpClient(), "k", "m", "http://localhost", 0);
+        }
+
+        @Override
+        public CompletableFuture<WritingResponse> generateTextAsync(WritingRequest req) {
+            calls.incrementAndGet();
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+            String text = req.getUserText();
+            String part = text.substring(text.indexOf("Part ") + 5, text.indexOf(" of "));
+            long delay = 80 - Integer.parseInt(part) * 15L;
+            return CompletableFuture.supplyAsync(() -> {
+                active.decrementAndGet();
+                return new WritingResponse("Awesome start!\n- Shared tip\n- Tip for part " + part + "\n\n"
+                        + "Here is also a reworded essay that you can reference:\nSection " + part,
+                        "STOP", 10, 20, 30);
+            }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    void sendsChunksWithBoundedConcurrencyAndStitchesInOrder() {
+        FakeService api = new FakeService();
+        ChunkedGenerator gen = new ChunkedGenerator(api, new DocumentChunker(25, new TokenEstimator()), 2, 0);
+        String doc = "a".repeat(90) + "\n\n" + "b".repeat(90) + "\n\n" + "c".repeat(90) + "\n\n" + "d".repeat(90);
+        assertTrue(gen.needsChunking(doc));
+
+        WritingResponse r = gen.generate(WritingMode.ACADEMIC, doc, 256).join();
+
+        assertEquals(4, api.calls.get());
+        assertTrue(api.peak.get() <= 2, "peak " + api.peak.get());
+        assertEquals(120, r.getTotalTokens());
+        assertEquals("STOP", r.getFinishReason());
+        String text = r.getText();
+        assertEquals(1, text.split("Shared tip", -1).length - 1, "duplicate tips are merged");
+        assertTrue(text.indexOf("Section 1") < text.indexOf("Section 2"));
+        assertTrue(text.indexOf("Section 3") < text.indexOf("Section 4"));
+        assertTrue(text.startsWith("Awesome start!\n- Shared tip\n- Tip for part 1"));
+    }
+
+    @Test
+    void splitsOnlyTheWritersTextAndSendsAttachmentsWithEveryPart() {
+        List<String> sent = new CopyOnWriteArrayList<>();
+        FakeService api = new FakeService() {
+            @Override
+            public CompletableFuture<WritingResponse> generateTextAsync(WritingRequest req) {
+                sent.add(req.getUserText());
+                return super.generateTextAsync(req);
+            }
+        };
+        ChunkedGenerator gen = new ChunkedGenerator(api, new DocumentChunker(25, new TokenEstimator()), 2, 0);
+        String essay = "a".repeat(90) + "\n\n" + "b".repeat(90);
+        String reference = "r".repeat(600);
+        String merged = AttachmentLoader.merge(essay, List.of(new AttachmentLoader.Attachment(
+                Path.of("notes.txt"), reference, StandardCharsets.UTF_8, false, null)));
+        assertTrue(gen.needsChunking(merged));
+
+        WritingResponse r = gen.generate(WritingMode.ACADEMIC, merged, 256).join();
+
+        assertEquals(2, sent.size(), "the attachment isn't cut into parts of its own");
+        for (String s : sent) {
+            assertTrue(s.endsWith(AttachmentLoader.attachmentBlock(merged)), "every part carries the attachments");
+            assertTrue(s.contains("reference material, not part of the document"));
+        }
+        assertTrue(r.getText().endsWith("Section 1\n\nSection 2"), r.getText());
+        assertFalse(r.getText().contains(reference));
+    }
+
+    @Test
+    void stitchKeepsUntemplatedAnswersAndReportsTruncation() {
+        WritingResponse r = ChunkedGenerator.stitch(List.of(
+                new WritingResponse("free text", "STOP", 1, 1, 2),
+                new WritingResponse("cut off", "MAX_TOKENS", 1, 1, 2)));
+        assertEquals("free text\n\ncut off", r.getText());
+        assertEquals("MAX_TOKENS", r.getFinishReason());
+    }
+}
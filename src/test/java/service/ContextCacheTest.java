@@ -0,0 +1,132 @@
+package service;
+
+import metrics.Metrics;
+import model.WritingRequest;
+import model.WritingResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tools.MockGeminiServer;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Context caching against the local stand-in server
+class ContextCacheTest {
+
+    private static final String LONG_PROMPT = "Follow the house style guide closely. ".repeat(300);
+
+    private MockGeminiServer server;
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new MockGeminiServer(0).start().replyWords(10);
+    }
+
+    @AfterEach
+    void stop() {
+        server.close();
+    }
+
+    private ContextCache cache(int minTokens) {
+        return new ContextCache(http, "k", server.baseUrl(), 100, minTokens, clock::get);
+    }
+
+    private APIService service(ContextCache cache) {
+        return new APIService(http, "k", "gemini-test", server.baseUrl(), RateLimiter.unlimited(), RetryPolicy.none(), cache);
+    }
+
+    private static WritingRequest req(String prompt, String text) {
+        return new WritingRequest(text, prompt, 0.3, 0.85, 0.0, 64);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 200 && !condition.getAsBoolean(); i++) Thread.sleep(10);
+        assertTrue(condition.getAsBoolean(), "condition not reached");
+    }
+
+    @Test
+    void firstCallGoesInline_laterCallsReferenceTheCache() throws Exception {
+        ContextCache cache = cache(100);
+        APIService api = service(cache);
+
+        assertEquals("STOP", api.generateText(req(LONG_PROMPT, "one")).getFinishReason());
+        assertEquals(0, server.cacheHits());
+        await(() -> cache.lookup(req(LONG_PROMPT, "x"), "gemini-test") != null);
+
+        WritingResponse r = api.generateText(req(LONG_PROMPT, "two"));
+
+        assertEquals("STOP", r.getFinishReason());
+        assertEquals(1, server.cacheHits());
+        assertEquals(1, server.cacheCreates());
+    }
+
+    @Test
+    void expiredEntry_fallsBackInlineAndIsRecreated() throws Exception {
+        ContextCache cache = cache(100);
+        APIService api = service(cache);
+        cache.lookup(req(LONG_PROMPT, "x"), "gemini-test");
+        await(() -> cache.lookup(req(LONG_PROMPT, "x"), "gemini-test") != null);
+        long fallbacks = Metrics.global().counter("context_cache.fallback");
+
+        server.expireCachedContents();
+        List<String> chunks = new ArrayList<>();
+        WritingResponse streamed = api.generateTextStream(req(LONG_PROMPT, "streamed"), chunks::add);
+        WritingResponse whole = api.generateText(req(LONG_PROMPT, "whole"));
+
+        assertEquals("STOP", streamed.getFinishReason());
+        assertEquals(String.join("", chunks), streamed.getText());
+        assertEquals("STOP", whole.getFinishReason());
+        assertEquals(0, server.cacheHits());
+        assertTrue(Metrics.global().counter("context_cache.fallback") >= fallbacks + 1);
+        await(() -> server.cacheCreates() == 2);
+    }
+
+    @Test
+    void shortPrompt_isNeverCached() throws Exception {
+        ContextCache cache = cache(1024);
+
+        assertNull(cache.lookup(req("Be brief.", "x"), "gemini-test"));
+        Thread.sleep(100);
+
+        assertEquals(0, server.cacheCreates());
+        assertNull(cache.lookup(req("Be brief.", "x"), "gemini-test"));
+    }
+
+    @Test
+    void failedCreate_backsOffInsteadOfRetryingEveryCall() throws Exception {
+        server.minCacheTokens(1_000_000);
+        ContextCache cache = cache(100);
+        Metrics m = Metrics.global();
+        long failed = m.counter("context_cache.create_failed");
+
+        assertNull(cache.lookup(req(LONG_PROMPT, "x"), "gemini-test"));
+        await(() -> m.counter("context_cache.create_failed") == failed + 1);
+        for (int i = 0; i < 5; i++) assertNull(cache.lookup(req(LONG_PROMPT, "x"), "gemini-test"));
+        Thread.sleep(100);
+
+        assertEquals(failed + 1, m.counter("context_cache.create_failed"));
+    }
+
+    @Test
+    void nearExpiry_extendsTheTtl() throws Exception {
+        ContextCache cache = cache(100);
+        cache.lookup(req(LONG_PROMPT, "x"), "gemini-test");
+        await(() -> cache.lookup(req(LONG_PROMPT, "x"), "gemini-test") != null);
+        String name = cache.lookup(req(LONG_PROMPT, "x"), "gemini-test");
+
+        clock.addAndGet(95_000); // 5 s left of the 100 s TTL
+
+        assertEquals(name, cache.lookup(req(LONG_PROMPT, "x"), "gemini-test"));
+        await(() -> server.cacheRefreshes() == 1);
+        assertEquals(1, server.cacheCreates());
+    }
+}
@@ -0,0 +1,144 @@
+package service;
+
+import model.WritingResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiskResponseCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private static String key(int i) {
+        // same shape as ResponseCache.keyFor: 64 hex chars, of which the first 32 identify the record
+        return String.format("%016x%016x%032x", i * 0x9E3779B97F4A7C15L, (long) i, 0);
+    }
+
+    @Test
+    void survivesReopen() throws Exception {
+        try (DiskResponseCache c = new DiskResponseCache(dir, 1 << 20)) {
+            c.put(key(1), new WritingResponse("héllo\nworld", "STOP", 3, 4, 7));
+        }
+        try (DiskResponseCache c = new DiskResponseCache(dir, 1 << 20)) {
+            WritingResponse r = c.get(key(1));
+            assertNotNull(r);
+            assertEquals("héllo\nworld", r.getText());
+            assertEquals("STOP", r.getFinishReason());
+            assertEquals(7, r.getTotalTokens());
+            assertNull(c.get(key(2)));
+        }
+    }
+
+    @Test
+    void growsIndexAndKeepsLatestValue() throws Exception {
+        try (DiskResponseCache c = new DiskResponseCache(dir, 16 << 20)) {
+            for (int i = 0; i < 2000; i++) c.put(key(i), new WritingResponse("v" + i, "STOP", 1, 1, 2));
+            c.put(key(5), new WritingResponse("newer", "STOP", 1, 1, 2));
+            assertEquals(2000, c.size());
+            assertEquals("newer", c.get(key(5)).getText());
+            assertEquals("v1999", c.get(key(1999)).getText());
+        }
+    }
+
+    @Test
+    void resizedIndexIsANewGenerationAndTheNewestValidOneWins() throws Exception {
+        try (DiskResponseCache c = new DiskResponseCache(dir, 16 << 20)) {
+            for (int i = 0; i < 2000; i++) c.put(key(i), new WritingResponse("v" + i, "STOP", 1, 1, 2));
+        }
+        List<Path> indexes = indexFiles();
+        assertEquals(1, indexes.size(), "older generations are deleted");
+        // a stray older generation and a half-written newer one are both ignored and removed
+        Files.write(dir.resolve("responses.0.idx"), new byte[64]);
+        Files.write(dir.resolve("responses.999.idx"), new byte[7]);
+        try (DiskResponseCache c = new DiskResponseCache(dir, 16 << 20)) {
+            assertEquals(2000, c.size());
+            assertEquals("v1234", c.get(key(1234)).getText());
+        }
+        assertEquals(indexes, indexFiles());
+    }
+
+    private List<Path> indexFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".idx")).sorted().toList();
+        }
+    }
+
+    @Test
+    void compactsWhenOverCapAndKeepsNewest() throws Exception {
+        long cap = 64 * 1024;
+        try (DiskResponseCache c = new DiskResponseCache(dir, cap)) {
+            String text = "x".repeat(1000);
+            for (int i = 0; i < 200; i++) c.put(key(i), new WritingResponse(text + i, "STOP", 1, 1, 2));
+            assertTrue(c.logBytes() <= cap);
+            assertEquals(text + 199, c.get(key(199)).getText());
+            assertNull(c.get(key(0)));
+        }
+    }
+
+    @Test
+    void truncatedTailIsDroppedOnReopen() throws Exception {
+        try (DiskResponseCache c = new DiskResponseCache(dir, 1 << 20)) {
+            c.put(key(1), new WritingResponse("keep", "STOP", 1, 1, 2));
+            c.put(key(2), new WritingResponse("torn", "STOP", 1, 1, 2));
+        }
+        Path log = dir.resolve("responses.log");
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 3);
+        }
+        try (DiskResponseCache c = new DiskResponseCache(dir, 1 << 20)) {
+            assertEquals("keep", c.get(key(1)).getText());
+            assertNull(c.get(key(2)));
+        }
+    }
+
+    @Test
+    void tornRecordHeaderIsDroppedOnReopen() throws Exception {
+        long intact;
+        try (DiskResponseCache c = new DiskResponseCache(dir, 1 << 20)) {
+            c.put(key(1), new WritingResponse("keep", "STOP", 1, 1, 2));
+            intact = c.logBytes();
+        }
+        // a crash partway through the next record's header: magic, length and half a key
+        try (FileChannel ch = FileChannel.open(dir.resolve("responses.log"), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ch.write(ByteBuffer.allocate(16).putInt(0x52455331).putInt(64).putLong(42L).flip());
+        }
+        try (DiskResponseCache c = new DiskResponseCache(dir, 1 << 20)) {
+            assertEquals("keep", c.get(key(1)).getText());
+            assertEquals(intact, c.logBytes());
+        }
+    }
+
+    @Test
+    void directoryIsLockedWhileOpen() throws Exception {
+        try (DiskResponseCache c = new DiskResponseCache(dir, 1 << 20)) {
+            c.put(key(1), new WritingResponse("mine", "STOP", 1, 1, 2));
+            assertThrows(IOException.class, () -> new DiskResponseCache(dir, 1 << 20));
+        }
+        try (DiskResponseCache c = new DiskResponseCache(dir, 1 << 20)) { // released on close
+            assertEquals("mine", c.get(key(1)).getText());
+        }
+    }
+
+    @Test
+    void expiredEntriesReadAsMisses() throws Exception {
+        long[] now = { 1_000_000 };
+        try (DiskResponseCache c = new DiskResponseCache(dir, 1 << 20, 60_000, () -> now[0])) {
+            c.put(key(1), new WritingResponse("fresh", "STOP", 1, 1, 2));
+            now[0] += 59_000;
+            assertEquals("fresh", c.get(key(1)).getText());
+            now[0] += 2_000;
+            assertNull(c.get(key(1)));
+        }
+    }
+}
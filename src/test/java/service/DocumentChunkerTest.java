@@ -0,0 +1,60 @@
+package service;
+
+import model.TokenEstimator;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentChunkerTest {
+    // fresh, so calibration done by other tests doesn't shift the budgets
+    private static final TokenEstimator ESTIMATOR = new TokenEstimator();
+
+    // 'count' one-token words
+    private static String words(String word, int count) {
+        return (word + " ").repeat(count).strip();
+    }
+
+    private static int tokens(String s) {
+        return ESTIMATOR.estimate(s);
+    }
+
+    @Test
+    void shortTextIsOneChunk() {
+        DocumentChunker c = new DocumentChunker(100, ESTIMATOR);
+        assertTrue(c.fitsInOneChunk("short"));
+        assertEquals(List.of("short"), c.split("short"));
+    }
+
+    @Test
+    void splitsOnParagraphsWithinBudgetAndKeepsOrder() {
+        DocumentChunker c = new DocumentChunker(50, ESTIMATOR);
+        String a = words("aaaa", 30), b = words("bbbb", 30), cc = words("cccc", 12);
+        List<String> chunks = c.split(a + "\n\n" + b + "\n\n" + cc);
+
+        assertEquals(List.of(a, b + "\n\n" + cc), chunks);
+        chunks.forEach(ch -> assertTrue(tokens(ch) <= 50));
+    }
+
+    @Test
+    void startsNewChunksAtSectionHeadings() {
+        DocumentChunker c = new DocumentChunker(50, ESTIMATOR);
+        String text = "# Intro\n" + words("aaaa", 30) + "\n# Body\n" + words("bbbb", 30);
+        List<String> chunks = c.split(text);
+
+        assertEquals(2, chunks.size());
+        assertTrue(chunks.get(0).startsWith("# Intro"));
+        assertTrue(chunks.get(1).startsWith("# Body"));
+    }
+
+    @Test
+    void oversizedParagraphFallsBackToSentencesThenHardCuts() {
+        DocumentChunker c = new DocumentChunker(10, ESTIMATOR);
+        String text = "One short sentence here. Another short one too. " + "x".repeat(200);
+        List<String> chunks = c.split(text);
+
+        chunks.forEach(ch -> assertTrue(tokens(ch) <= 10, ch));
+        assertEquals(text.replace(" ", ""), String.join("", chunks).replace(" ", "").replace("\n", ""));
+    }
+}
@@ -0,0 +1,90 @@
+package service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.RequestFactory;
+import model.WritingMode;
+import model.WritingRequest;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeminiRequestEncoderTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void encode_roundTripsControlCharsQuotesAndUnicode() throws Exception {
+        String user = "line1\nline2\t\"quoted\" back\\slash \u0001 é 中 😀 {json}";
+        WritingRequest req = new WritingRequest(user, "Be helpful.\nAlways.", 0.3, 0.85, 0.0, 256);
+
+        JsonNode root = MAPPER.readTree(GeminiRequestEncoder.encode(req));
+
+        assertEquals(user, root.at("/contents/0/parts/0/text").asText());
+        assertEquals("user", root.at("/contents/0/role").asText());
+        assertEquals("Be helpful.\nAlways.", root.at("/systemInstruction/parts/0/text").asText());
+        assertEquals(0.3, root.at("/generationConfig/temperature").asDouble());
+        assertEquals(0.85, root.at("/generationConfig/topP").asDouble());
+        assertEquals(256, root.at("/generationConfig/maxOutputTokens").asInt());
+        assertEquals(1, root.at("/generationConfig/candidateCount").asInt());
+    }
+
+    @Test
+    void encode_omitsSystemInstructionWhenPromptEmpty() throws Exception {
+        WritingRequest req = new WritingRequest("hi", "", 0.5, 0.9, 0.0, 10);
+
+        JsonNode root = MAPPER.readTree(GeminiRequestEncoder.encode(req));
+
+        assertFalse(root.has("systemInstruction"));
+        assertEquals("hi", root.at("/contents/0/parts/0/text").asText());
+    }
+
+    @Test
+    void encode_unpairedSurrogateBecomesReplacementChar() throws Exception {
+        WritingRequest req = new WritingRequest("a\uD800b", "s", 0.5, 0.9, 0.0, 10);
+
+        JsonNode root = MAPPER.readTree(GeminiRequestEncoder.encode(req));
+
+        assertEquals("a�b", root.at("/contents/0/parts/0/text").asText());
+    }
+
+    @Test
+    void systemSegment_isEncodedOnce() {
+        String prompt = "constant prompt " + System.nanoTime();
+        assertSame(GeminiRequestEncoder.systemSegment(prompt), GeminiRequestEncoder.systemSegment(prompt));
+    }
+
+    @Test
+    void encode_strategyTemplateMatchesGenericEncoding() {
+        String user = "Draft with \"quotes\", tabs\t and é";
+        WritingRequest built = RequestFactory.build(WritingMode.CREATIVE, user, 512);
+        WritingRequest plain = new WritingRequest(user, built.getSystemPrompt(), built.getTemperature(),
+                built.getTopP(), built.getPresencePenalty(), built.getMaxTokens());
+
+        assertNotNull(GeminiRequestEncoder.templateFor(built));
+        assertNull(GeminiRequestEncoder.templateFor(plain));
+        assertArrayEquals(GeminiRequestEncoder.encode(plain), GeminiRequestEncoder.encode(built));
+    }
+
+    @Test
+    void encode_changedSettingsBypassTemplate() throws Exception {
+        WritingRequest built = RequestFactory.build(WritingMode.ACADEMIC, "hi", 64);
+        WritingRequest tweaked = new WritingRequest(WritingMode.ACADEMIC, "hi", built.getSystemPrompt(),
+                1.0, built.getTopP(), 0.0, 64);
+
+        assertNull(GeminiRequestEncoder.templateFor(tweaked));
+        assertEquals(1.0, MAPPER.readTree(GeminiRequestEncoder.encode(tweaked)).at("/generationConfig/temperature").asDouble());
+    }
+
+    @Test
+    void encode_withCachedContentReferencesItInsteadOfThePrompt() throws Exception {
+        WritingRequest built = RequestFactory.build(WritingMode.ACADEMIC, "hi", 64);
+
+        JsonNode root = MAPPER.readTree(GeminiRequestEncoder.encode(built, "cachedContents/abc"));
+
+        assertEquals("cachedContents/abc", root.path("cachedContent").asText());
+        assertFalse(root.has("systemInstruction"));
+        assertEquals("hi", root.at("/contents/0/parts/0/text").asText());
+        assertEquals(64, root.at("/generationConfig/maxOutputTokens").asInt());
+    }
+}
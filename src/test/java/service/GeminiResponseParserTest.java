@@ -0,0 +1,66 @@
+package service;
+
+import model.APIException;
+import model.WritingResponse;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeminiResponseParserTest {
+
+    private static WritingResponse parse(String json) {
+        return GeminiResponseParser.parse(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void parse_textWithBracesQuotesAndUnicodeEscapes() {
+        WritingResponse r = parse("{\"candidates\":[{\"content\":{\"role\":\"model\",\"parts\":"
+                + "[{\"text\":\"map {a} to \\\"b\\\" \\u00e9\\n\"}]},\"finishReason\":\"STOP\"}]}");
+
+        assertEquals("map {a} to \"b\" é\n", r.getText());
+        assertEquals("STOP", r.getFinishReason());
+    }
+
+    @Test
+    void parse_joinsPartsAndSkipsThoughts() {
+        WritingResponse r = parse("{\"candidates\":[{\"content\":{\"parts\":["
+                + "{\"text\":\"thinking...\",\"thought\":true},{\"text\":\"Hello \"},{\"text\":\"there\"}]}},"
+                + "{\"content\":{\"parts\":[{\"text\":\"second candidate\"}]}}]}");
+
+        assertEquals("Hello there", r.getText());
+    }
+
+    @Test
+    void parse_promptFeedbackBlockReason() {
+        WritingResponse r = parse("{\"promptFeedback\":{\"blockReason\":\"OTHER\"},"
+                + "\"usageMetadata\":{\"promptTokenCount\":3,\"totalTokenCount\":3}}");
+
+        assertTrue(r.getText().contains("OTHER"));
+        assertEquals(3, r.getPromptTokens());
+        assertEquals(3, r.getTotalTokens());
+    }
+
+    @Test
+    void parse_legacyTokenFieldsFallBack() {
+        WritingResponse r = parse("{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"x\"}]}}],"
+                + "\"usageMetadata\":{\"inputTokenCount\":4,\"outputTokenCount\":6}}");
+
+        assertEquals(4, r.getPromptTokens());
+        assertEquals(6, r.getCompletionTokens());
+        assertEquals(10, r.getTotalTokens());
+    }
+
+    @Test
+    void parse_wordErrorInsideTextIsNotAnApiError() {
+        WritingResponse r = parse("{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"the \\\"error\\\": field\"}]}}]}");
+
+        assertEquals("the \"error\": field", r.getText());
+    }
+
+    @Test
+    void parse_malformedJson_throws() {
+        assertThrows(APIException.class, () -> parse("{\"candidates\":[{"));
+    }
+}
@@ -0,0 +1,211 @@
+package service;
+
+import model.WritingMode;
+import model.WritingRequest;
+import model.WritingResponse;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalGeneratorTest {
+
+    // Answers every paragraph request in the strategy template, rewording the PARAGRAPH section
+    private static class FakeService extends APIService {
+        final List<String> sent = new CopyOnWriteArrayList<>();
+
+        FakeService() {
+            super(HttpClient.newHttpClient(), "k", "m", "http://localhost", 0);
+        }
+
+        @Override
+        public CompletableFuture<WritingResponse> generateTextAsync(WritingRequest req) {
+            sent.add(req.getUserText());
+            String text = req.getUserText();
+            int start = text.indexOf("PARAGRAPH:\n") + "PARAGRAPH:\n".length();
+            int end = text.indexOf("\n\nAFTER", start);
+            String paragraph = text.substring(start, end < 0 ? text.length() : end);
+            return CompletableFuture.completedFuture(new WritingResponse("Awesome start!\n- New tip\n- Shared tip\n\n"
+                    + "Here is also a reworded essay that you can reference:\nReworded " + paragraph, "STOP", 10, 5, 15));
+        }
+    }
+
+    // Stands in for the caller's full generation and counts how often it was needed
+    private static final class Full implements Supplier<CompletableFuture<WritingResponse>> {
+        int calls;
+
+        @Override
+        public CompletableFuture<WritingResponse> get() {
+            calls++;
+            return CompletableFuture.completedFuture(FULL);
+        }
+    }
+
+    private static final String FIRST = "One.\n\nTwo.\n\nThree.";
+    private static final WritingResponse FULL = new WritingResponse("Awesome start!\n- Old tip\n- Shared tip\n\n"
+            + "Here is also a reworded essay that you can reference:\nR1.\n\nR2.\n\nR3.", "STOP", 100, 50, 150);
+
+    @Test
+    void resubmit_sendsOnlyChangedParagraphWithContext_andMerges() {
+        FakeService api = new FakeService();
+        IncrementalGenerator gen = new IncrementalGenerator(api, 0.5, 2, 0);
+        Full full = new Full();
+        assertSame(FULL, gen.generate(WritingMode.PROFESSIONAL, FIRST, 256, full).join()); // nothing to merge into yet
+        assertEquals(1, full.calls);
+
+        WritingResponse r = gen.generate(WritingMode.PROFESSIONAL, "One.\n\nTwo, edited.\n\nThree.", 256, full).join();
+        assertEquals(1, full.calls);
+
+        assertEquals(1, api.sent.size());
+        String sent = api.sent.get(0);
+        assertTrue(sent.contains("PARAGRAPH:\nTwo, edited."), sent);
+        assertTrue(sent.contains("One.") && sent.contains("Three."), "neighbours go along as context");
+        // the full generation's tips may be about the edited paragraph, so they aren't carried over
+        assertEquals("Awesome start!\n- New tip\n- Shared tip\n\n"
+                + "Here is also a reworded essay that you can reference:\nR1.\n\nReworded Two, edited.\n\nR3.", r.getText());
+        assertEquals(15, r.getTotalTokens());
+
+        // re-wrapping a line isn't an edit: the merged result comes back as it was
+        WritingResponse again = gen.generate(WritingMode.PROFESSIONAL, "One.\n\nTwo,\n  edited.\n\nThree.  ", 256, full).join();
+        assertEquals(1, api.sent.size());
+        assertSame(r, again);
+    }
+
+    @Test
+    void fullGenerationNeeded_whenTooMuchChangedOrOutputDoesNotLineUp() {
+        FakeService api = new FakeService();
+        IncrementalGenerator gen = new IncrementalGenerator(api, 0.5, 2, 0);
+        gen.remember(WritingMode.PROFESSIONAL, FIRST, FULL);
+        Full full = new Full();
+
+        gen.generate(WritingMode.PROFESSIONAL, "One.\n\nNew two.\n\nNew three.", 256, full).join();
+        gen.generate(WritingMode.CREATIVE, FIRST, 256, full).join(); // cached per mode
+        assertEquals(2, full.calls);
+
+        gen.remember(WritingMode.ACADEMIC, FIRST, new WritingResponse("Awesome start!\n- Tip\n\n"
+                + "Here is also a reworded essay that you can reference:\nAll three merged into one.", "STOP", 1, 1, 2));
+        gen.generate(WritingMode.ACADEMIC, "One.\n\nTwo.\n\nThree, edited.", 256, full).join();
+        assertEquals(3, full.calls);
+        assertTrue(api.sent.isEmpty());
+    }
+
+    @Test
+    void identicalResubmit_returnsTheFullResultWithItsTips() {
+        FakeService api = new FakeService();
+        IncrementalGenerator gen = new IncrementalGenerator(api, 0.5, 2, 0);
+        gen.remember(WritingMode.PROFESSIONAL, FIRST, FULL);
+        Full full = new Full();
+
+        assertSame(FULL, gen.generate(WritingMode.PROFESSIONAL, FIRST, 256, full).join());
+        assertTrue(api.sent.isEmpty());
+        assertEquals(0, full.calls);
+
+        // the same paragraphs in another order are a new document, not a merge without tips
+        gen.generate(WritingMode.PROFESSIONAL, "Three.\n\nTwo.\n\nOne.", 256, full).join();
+        assertEquals(1, full.calls);
+        assertTrue(api.sent.isEmpty());
+    }
+
+    @Test
+    void attachmentsAreReferenceNotParagraphs() {
+        FakeService api = new FakeService();
+        IncrementalGenerator gen = new IncrementalGenerator(api, 0.5, 2, 0);
+        String notes = "Note one.\n\nNote two.";
+        String first = AttachmentLoader.merge(FIRST, List.of(attachment(notes)));
+        gen.remember(WritingMode.PROFESSIONAL, first, FULL);
+        Full full = new Full();
+
+        String edited = AttachmentLoader.merge("One.\n\nTwo, edited.\n\nThree.", List.of(attachment(notes)));
+        WritingResponse r = gen.generate(WritingMode.PROFESSIONAL, edited, 256, full).join();
+
+        assertEquals(0, full.calls, "the essay's paragraphs lined up despite the attachment");
+        assertEquals(1, api.sent.size());
+        assertTrue(api.sent.get(0).endsWith(AttachmentLoader.attachmentBlock(edited)), "attachments go along as reference");
+        assertTrue(r.getText().endsWith("R1.\n\nReworded Two, edited.\n\nR3."), r.getText());
+
+        // other attachments may change every answer, so they need a full generation
+        gen.generate(WritingMode.PROFESSIONAL, AttachmentLoader.merge("One.\n\nTwo, edited.\n\nThree.",
+                List.of(attachment("Other notes."))), 256, full).join();
+        assertEquals(1, full.calls);
+    }
+
+    private static AttachmentLoader.Attachment attachment(String text) {
+        return new AttachmentLoader.Attachment(Path.of("notes.txt"), text, StandardCharsets.UTF_8, false, null);
+    }
+
+    @Test
+    void tipsFollowTheirParagraph() {
+        FakeService api = new FakeService() {
+            @Override
+            public CompletableFuture<WritingResponse> generateTextAsync(WritingRequest req) {
+                String text = req.getUserText();
+                int start = text.indexOf("PARAGRAPH:\n") + "PARAGRAPH:\n".length();
+                int end = text.indexOf("\n\nAFTER", start);
+                String paragraph = text.substring(start, end < 0 ? text.length() : end);
+                return CompletableFuture.completedFuture(new WritingResponse("Awesome start!\n- About " + paragraph + "\n\n"
+                        + "Here is also a reworded essay that you can reference:\nReworded " + paragraph, "STOP", 1, 1, 2));
+            }
+        };
+        IncrementalGenerator gen = new IncrementalGenerator(api, 0.5, 2, 0);
+        gen.remember(WritingMode.PROFESSIONAL, FIRST, FULL);
+        Full full = new Full();
+
+        gen.generate(WritingMode.PROFESSIONAL, "One.\n\nTwo, edited.\n\nThree.", 256, full).join();
+        String text = gen.generate(WritingMode.PROFESSIONAL, "One.\n\nTwo, edited.\n\nThree, edited.", 256, full).join().getText();
+        assertTrue(text.startsWith("Awesome start!\n- About Three, edited.\n- About Two, edited.\n\n"), text);
+
+        // editing the paragraph again drops the tip about its old text
+        text = gen.generate(WritingMode.PROFESSIONAL, "One.\n\nTwo, again.\n\nThree, edited.", 256, full).join().getText();
+        assertTrue(text.startsWith("Awesome start!\n- About Two, again.\n- About Three, edited.\n\n"), text);
+        assertEquals(0, full.calls);
+    }
+
+    @Test
+    void answerOutsideTheTemplate_fallsBackToFullGeneration() {
+        FakeService api = new FakeService() {
+            @Override
+            public CompletableFuture<WritingResponse> generateTextAsync(WritingRequest req) {
+                sent.add(req.getUserText());
+                return CompletableFuture.completedFuture(new WritingResponse("Just some prose.", "STOP", 1, 1, 2));
+            }
+        };
+        IncrementalGenerator gen = new IncrementalGenerator(api, 0.5, 2, 0);
+        gen.remember(WritingMode.PROFESSIONAL, FIRST, FULL);
+        Full full = new Full();
+
+        assertSame(FULL, gen.generate(WritingMode.PROFESSIONAL, "One.\n\nTwo, edited.\n\nThree.", 256, full).join());
+        assertEquals(1, api.sent.size());
+        assertEquals(1, full.calls);
+    }
+
+    @Test
+    void changedParagraphsGoOutThroughTheConcurrencyWindow() {
+        List<CompletableFuture<WritingResponse>> pending = new CopyOnWriteArrayList<>();
+        FakeService api = new FakeService() {
+            @Override
+            public CompletableFuture<WritingResponse> generateTextAsync(WritingRequest req) {
+                CompletableFuture<WritingResponse> answer = super.generateTextAsync(req);
+                CompletableFuture<WritingResponse> f = new CompletableFuture<>();
+                pending.add(f);
+                return f.thenCompose(v -> answer);
+            }
+        };
+        IncrementalGenerator gen = new IncrementalGenerator(api, 1.0, 2, 0);
+        gen.remember(WritingMode.PROFESSIONAL, FIRST, FULL);
+
+        CompletableFuture<WritingResponse> r = gen.generate(WritingMode.PROFESSIONAL, "One!\n\nTwo!\n\nThree!", 256, new Full());
+        assertEquals(2, pending.size());
+        pending.get(0).complete(null);
+        assertEquals(3, pending.size());
+        pending.get(1).complete(null);
+        pending.get(2).complete(null);
+        assertTrue(r.join().getText().endsWith("Reworded One!\n\nReworded Two!\n\nReworded Three!"), r.join().getText());
+    }
+}
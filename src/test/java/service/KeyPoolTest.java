@@ -0,0 +1,106 @@
+package service;
+
+import model.APIException;
+import model.WritingRequest;
+import org.junit.jupiter.api.Test;
+import tools.MockGeminiServer;
+
+import java.net.http.HttpClient;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyPoolTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    private static KeyPool.Lane lane(String label) {
+        return new KeyPool.Lane(label, label, "http://unused", RateLimiter.unlimited(), null);
+    }
+
+    private KeyPool pool(KeyPool.Lane... lanes) {
+        return new KeyPool(List.of(lanes), 1_000, 60_000, now::get);
+    }
+
+    @Test
+    void acquire_picksLeastLoadedKey() {
+        KeyPool.Lane a = lane("a"), b = lane("b");
+        KeyPool keys = pool(a, b);
+
+        KeyPool.Lane first = keys.acquire();
+        KeyPool.Lane second = keys.acquire();
+        assertNotSame(first, second);
+
+        keys.release(first, null);
+        assertSame(first, keys.acquire());
+        assertEquals(1, a.inFlight());
+        assertEquals(1, b.inFlight());
+    }
+
+    @Test
+    void throttledKey_isEjectedUntilRetryAfter_withGrowingBackoff() {
+        KeyPool keys = pool(lane("a"), lane("b"));
+        APIException throttled = new APIException(429, "Gemini error 429", -1);
+
+        KeyPool.Lane l = keys.acquire();
+        KeyPool.Lane other = keys.lanes().get(0) == l ? keys.lanes().get(1) : keys.lanes().get(0);
+        keys.release(l, throttled);
+        assertEquals(now.get() + 1_000, l.ejectedUntilMs());
+        assertTrue(keys.failsOver(throttled));
+        for (int i = 0; i < 3; i++) {
+            KeyPool.Lane x = keys.acquire();
+            assertSame(other, x);
+            keys.release(x, null);
+        }
+
+        now.addAndGet(1_000); // back in rotation: two calls land on both keys
+        keys.acquire();
+        keys.acquire();
+        keys.release(l, throttled); // second strike in a row doubles the ejection
+        assertEquals(now.get() + 2_000, l.ejectedUntilMs());
+        keys.release(other, new APIException(429, "Gemini error 429", 30_000)); // a longer Retry-After wins
+        assertEquals(now.get() + 30_000, other.ejectedUntilMs());
+
+        assertFalse(keys.failsOver(throttled)); // nothing healthy left
+        assertSame(l, keys.acquire());          // so the key that comes back first is used
+    }
+
+    @Test
+    void forbiddenKey_isEjectedLonger_butCacheRejectionsAreIgnored() {
+        KeyPool.Lane a = lane("a"), b = lane("b");
+        KeyPool keys = pool(a, b);
+
+        keys.acquire();
+        keys.release(a, new APIException(403, "Gemini error 403: CachedContent not found (or permission denied)", -1));
+        assertEquals(0, a.ejectedUntilMs());
+
+        keys.acquire();
+        keys.release(a, new APIException(403, "Gemini error 403: API key not valid", -1));
+        assertEquals(now.get() + 60_000, a.ejectedUntilMs());
+
+        keys.acquire();
+        keys.release(b, new APIException(500, "Gemini error 500", -1));
+        assertEquals(0, b.ejectedUntilMs());
+    }
+
+    @Test
+    void apiService_failsOverFromThrottledEndpoint() throws Exception {
+        try (MockGeminiServer throttled = new MockGeminiServer(0).start();
+             MockGeminiServer healthy = new MockGeminiServer(0).start()) {
+            throttled.throttleRate(1.0).retryAfterSeconds(60);
+            KeyPool keys = new KeyPool(List.of(
+                    new KeyPool.Lane("key 1", "k1", throttled.baseUrl(), RateLimiter.unlimited(), null),
+                    new KeyPool.Lane("key 2", "k2", healthy.baseUrl(), RateLimiter.unlimited(), null)), 1_000, 60_000);
+            APIService api = new APIService(HttpClient.newHttpClient(), "gemini-test", keys, RetryPolicy.none());
+
+            for (int i = 0; i < 6; i++) {
+                assertEquals("STOP", api.generateText(new WritingRequest("call " + i, "System", 0.3, 0.85, 0.0, 64)).getFinishReason());
+            }
+
+            assertTrue(throttled.requests() <= 1, "throttled endpoint saw " + throttled.requests());
+            assertEquals(6, healthy.requests());
+            assertEquals(0, keys.lanes().get(0).inFlight() + keys.lanes().get(1).inFlight());
+        }
+    }
+}
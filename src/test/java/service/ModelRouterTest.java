@@ -0,0 +1,87 @@
+package service;
+
+import model.APIException;
+import model.RequestFactory;
+import model.WritingMode;
+import model.WritingRequest;
+import org.junit.jupiter.api.Test;
+import tools.MockGeminiServer;
+
+import java.net.http.HttpClient;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelRouterTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    private ModelRouter router(String light) {
+        return new ModelRouter(List.of("pro", "flash"), Map.of("CREATIVE", List.of("flash", "pro")), light, 400, 1_000, now::get);
+    }
+
+    private static WritingRequest req(WritingMode mode, String text) {
+        return RequestFactory.build(mode, text, 256);
+    }
+
+    @Test
+    void route_prefersFirstModelThatMeetsTheBudget() {
+        ModelRouter r = router(null);
+        WritingRequest q = req(WritingMode.PROFESSIONAL, "Some text");
+        assertEquals("pro", r.route(q, 0)); // no history: the preferred model
+        assertEquals("flash", r.route(req(WritingMode.CREATIVE, "Some text"), 0)); // per-mode order
+
+        for (int i = 0; i < 10; i++) {
+            r.record("pro", 4_000, null);
+            r.record("flash", 900, null);
+        }
+        assertEquals("pro", r.route(q, 10_000));
+        assertEquals("flash", r.route(q, 2_000)); // pro won't make it
+        assertEquals("flash", r.route(q, 500));   // neither will: the fastest
+    }
+
+    @Test
+    void overloadedModel_coolsDownAndFailsOver() {
+        ModelRouter r = router(null);
+        WritingRequest q = req(WritingMode.PROFESSIONAL, "Some text");
+        APIException unavailable = new APIException(503, "Gemini error 503", -1);
+
+        r.record("pro", 0, new APIException(400, "Gemini error 400", -1)); // not the model's fault
+        assertEquals("pro", r.route(q, 0));
+
+        r.record("pro", 0, unavailable);
+        assertTrue(r.failsOver(q, unavailable));
+        assertEquals("flash", r.route(q, 0));
+
+        now.addAndGet(1_000);
+        assertEquals("pro", r.route(q, 0));
+        r.record("flash", 0, new APIException(429, "Gemini error 429", -1));
+        r.record("pro", 0, unavailable); // second strike: 2 s
+        assertFalse(r.failsOver(q, unavailable));
+        assertEquals("flash", r.route(q, 0)); // both cooling: the one back first
+    }
+
+    @Test
+    void shortInput_goesToLightModel_whenStrategyAllows() {
+        ModelRouter r = router("lite");
+        assertEquals(List.of("lite", "pro", "flash"), r.candidates(req(WritingMode.PROFESSIONAL, "Short text")));
+        assertEquals(List.of("pro", "flash"), r.candidates(req(WritingMode.ACADEMIC, "Short text")));
+        assertEquals(List.of("pro", "flash"), r.candidates(req(WritingMode.PROFESSIONAL, "word ".repeat(2_000))));
+    }
+
+    @Test
+    void apiService_movesToNextModelOnServerError() throws Exception {
+        try (MockGeminiServer server = new MockGeminiServer(0).start()) {
+            server.retryAfterSeconds(0).failNext(1, 503);
+            ModelRouter r = new ModelRouter(List.of("gemini-a", "gemini-b"), Map.of(), null, 0, 60_000);
+            APIService api = new APIService(HttpClient.newHttpClient(), r,
+                    KeyPool.single("k", server.baseUrl(), RateLimiter.unlimited(), null), RetryPolicy.none());
+
+            assertEquals("STOP", api.generateText(req(WritingMode.PROFESSIONAL, "Hello")).getFinishReason());
+            assertEquals(2, server.requests());
+            assertEquals("gemini-b", r.route(req(WritingMode.PROFESSIONAL, "Hello"), 0));
+        }
+    }
+}
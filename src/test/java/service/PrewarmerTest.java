@@ -0,0 +1,34 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+import tools.MockGeminiServer;
+
+import java.net.http.HttpClient;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrewarmerTest {
+
+    @Test
+    void connect_opensConnectionWithoutSpendingARequest() throws Exception {
+        try (MockGeminiServer server = new MockGeminiServer(0).start()) {
+            int status = Prewarmer.connect(HttpClient.newHttpClient(), server.baseUrl(), "gemini-test", "k").join();
+
+            assertEquals(200, status);
+            assertEquals(0, server.requests());
+        }
+    }
+
+    @Test
+    void connect_failureCompletesExceptionally() {
+        // nothing listens on port 9 (discard) here
+        assertThrows(Exception.class,
+                () -> Prewarmer.connect(HttpClient.newHttpClient(), "http://127.0.0.1:9", "m", "k").join());
+    }
+
+    @Test
+    void resolve_andWarmCodecs() throws Exception {
+        assertTrue(Prewarmer.resolve("http://127.0.0.1:8089") >= 1);
+        assertTrue(Prewarmer.warmCodecs(3) > 0);
+    }
+}
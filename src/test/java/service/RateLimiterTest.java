@@ -0,0 +1,111 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void tokenBucket_allowsBurstThenSpacesAtSustainedRate() {
+        AtomicLong now = new AtomicLong(0);
+        // 60 rpm = one per second, burst of 3
+        TokenBucketRateLimiter rl = new TokenBucketRateLimiter(60, 3, 0, 0, now::get);
+
+        assertTrue(rl.tryAcquire(0));
+        assertTrue(rl.tryAcquire(0));
+        assertTrue(rl.tryAcquire(0));
+        assertFalse(rl.tryAcquire(0));
+
+        now.addAndGet(SECOND);
+        assertTrue(rl.tryAcquire(0));
+        assertFalse(rl.tryAcquire(0));
+    }
+
+    @Test
+    void tokenBucket_reservationsAreQueuedInOrder() {
+        AtomicLong now = new AtomicLong(0);
+        TokenBucketRateLimiter rl = new TokenBucketRateLimiter(60, 1, 0, 0, now::get);
+
+        assertEquals(0, rl.reserve(0));
+        assertEquals(SECOND, rl.reserve(0));
+        assertEquals(2 * SECOND, rl.reserve(0));
+
+        rl.refund(1, 0); // the last caller gave up
+        assertEquals(2 * SECOND, rl.reserve(0));
+    }
+
+    @Test
+    void tokenBucket_tokenBudgetLimitsLargeRequests() {
+        AtomicLong now = new AtomicLong(0);
+        // 6000 tokens per minute = 100 per second, no request cap
+        TokenBucketRateLimiter rl = new TokenBucketRateLimiter(0, 1, 6000, 1000, now::get);
+
+        assertTrue(rl.tryAcquire(800));
+        assertFalse(rl.tryAcquire(800));
+        assertEquals(6 * SECOND, rl.reserve(800), SECOND / 1000);
+
+        rl.refund(0, 800);
+        now.addAndGet(6 * SECOND);
+        assertTrue(rl.tryAcquire(600));
+    }
+
+    @Test
+    void slidingWindow_capsRequestsPerMinuteAndBooksNextFreeSecond() {
+        AtomicLong now = new AtomicLong(100 * SECOND);
+        SlidingWindowRateLimiter rl = new SlidingWindowRateLimiter(2, 0, now::get);
+
+        assertTrue(rl.tryAcquire(0));
+        assertTrue(rl.tryAcquire(0));
+        assertFalse(rl.tryAcquire(0));
+
+        // the oldest call leaves the window 60 s after it was made
+        assertEquals(60 * SECOND, rl.reserve(0));
+
+        // both earlier calls have left the window; the reservation holds one of the two places
+        now.addAndGet(60 * SECOND);
+        assertTrue(rl.tryAcquire(0));
+        assertFalse(rl.tryAcquire(0));
+    }
+
+    @Test
+    void slidingWindow_tokenBudget() {
+        AtomicLong now = new AtomicLong(0);
+        SlidingWindowRateLimiter rl = new SlidingWindowRateLimiter(0, 1000, now::get);
+
+        assertTrue(rl.tryAcquire(700));
+        assertFalse(rl.tryAcquire(400));
+        rl.refund(0, 200);
+        assertTrue(rl.tryAcquire(400));
+    }
+
+    @Test
+    void slidingWindow_refundGoesToTheBookedSecond() {
+        AtomicLong now = new AtomicLong(0);
+        SlidingWindowRateLimiter rl = new SlidingWindowRateLimiter(0, 1000, now::get);
+
+        RateLimiter.Reservation first = rl.reserveSlot(600);
+        RateLimiter.Reservation second = rl.reserveSlot(600);
+        assertEquals(0, first.waitNanos());
+        assertEquals(60 * SECOND, second.waitNanos());
+
+        // the first call used 100 tokens: second 0 gets 500 back, the later booking keeps its 600
+        rl.refund(first, 0, 500);
+        assertTrue(rl.tryAcquire(500));
+
+        // once second 0 has left the window a late refund for it is dropped, not moved to second 60
+        now.set(61 * SECOND);
+        rl.refund(first, 0, 500);
+        assertFalse(rl.tryAcquire(500));
+    }
+
+    @Test
+    void fixedInterval_zeroMeansUnlimited() {
+        RateLimiter rl = RateLimiter.fixedInterval(0);
+        for (int i = 0; i < 100; i++) assertTrue(rl.tryAcquire(1_000_000));
+    }
+}
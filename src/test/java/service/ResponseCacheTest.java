@@ -0,0 +1,79 @@
+package service;
+
+import model.WritingMode;
+import model.WritingRequest;
+import model.WritingResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+
+    private static WritingResponse resp(String text) {
+        return new WritingResponse(text, "STOP", 1, 1, 2);
+    }
+
+    private static WritingRequest req(WritingMode mode, String text, double temperature) {
+        return new WritingRequest(mode, text, "sys", temperature, 0.9, 0.0, 256);
+    }
+
+    @Test
+    void getCountsHitsAndMisses() {
+        ResponseCache cache = new ResponseCache(10, 1 << 20, 0);
+        assertNull(cache.get("a"));
+        cache.put("a", resp("x"));
+        assertEquals("x", cache.get("a").getText());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedWhenOverEntryLimit() {
+        ResponseCache cache = new ResponseCache(2, 1 << 20, 0);
+        cache.put("a", resp("1"));
+        cache.put("b", resp("2"));
+        cache.get("a"); // a is now most recent
+        cache.put("c", resp("3"));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    void evictsWhenOverByteBudget() {
+        ResponseCache cache = new ResponseCache(100, 600, 0);
+        cache.put("a", resp("x".repeat(100)));
+        cache.put("b", resp("y".repeat(100)));
+        cache.put("c", resp("z".repeat(100)));
+
+        assertTrue(cache.weightBytes() <= 600);
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    void expiresAfterTtl() {
+        AtomicLong now = new AtomicLong(1_000);
+        ResponseCache cache = new ResponseCache(10, 1 << 20, 500, now::get);
+        cache.put("a", resp("x"));
+        now.addAndGet(400);
+        assertNotNull(cache.get("a"));
+        now.addAndGet(200);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void keyIgnoresCosmeticWhitespaceButNotModeOrSettings() {
+        String k = ResponseCache.keyFor(req(WritingMode.ACADEMIC, "Hello  world\r\n", 0.3));
+        assertEquals(k, ResponseCache.keyFor(req(WritingMode.ACADEMIC, "  Hello world\n", 0.3)));
+        assertNotEquals(k, ResponseCache.keyFor(req(WritingMode.CREATIVE, "Hello world", 0.3)));
+        assertNotEquals(k, ResponseCache.keyFor(req(WritingMode.ACADEMIC, "Hello world", 0.9)));
+        // the planned output budget isn't part of the key
+        assertEquals(k, ResponseCache.keyFor(new WritingRequest(WritingMode.ACADEMIC, "Hello world", "sys", 0.3, 0.9, 0.0, 8192)));
+    }
+}
@@ -0,0 +1,59 @@
+package service;
+
+import model.APIException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryPolicyTest {
+
+    @Test
+    void classifiesThrottlingServerAndNetworkErrorsAsRetryable() {
+        assertTrue(RetryPolicy.isRetryable(new APIException(429, "x")));
+        assertTrue(RetryPolicy.isRetryable(new APIException(503, "x")));
+        assertTrue(RetryPolicy.isRetryable(APIService.asAPIException(new IOException("reset"))));
+        assertTrue(RetryPolicy.isRetryable(APIService.asAPIException(new HttpTimeoutException("slow"))));
+        assertFalse(RetryPolicy.isRetryable(new APIException(400, "x")));
+        assertFalse(RetryPolicy.isRetryable(new APIException(401, "x")));
+        assertFalse(RetryPolicy.isRetryable(APIException.cancelled()));
+        assertFalse(RetryPolicy.isRetryable(APIService.asAPIException(new CompletionException(new CancellationException()))));
+        assertFalse(RetryPolicy.isRetryable(APIService.asAPIException(new NullPointerException("bug"))));
+        assertFalse(RetryPolicy.isRetryable(APIService.asAPIException(new IllegalStateException("bug"))));
+        assertFalse(RetryPolicy.isRetryable(new APIException("Empty response from API")));
+    }
+
+    @Test
+    void backoffIsCappedJitteredAndStopsAtMaxAttempts() {
+        RetryPolicy p = new RetryPolicy(4, 100, 250, 0, false, 0, 0);
+        APIException e = new APIException(503, "x");
+        for (int i = 0; i < 50; i++) {
+            long d1 = p.delayBeforeRetry(1, e);
+            long d3 = p.delayBeforeRetry(3, e);
+            assertTrue(d1 >= 0 && d1 <= 100, "attempt 1 delay " + d1);
+            assertTrue(d3 >= 0 && d3 <= 250, "attempt 3 delay " + d3);
+        }
+        assertEquals(-1, p.delayBeforeRetry(4, e));
+    }
+
+    @Test
+    void retryAfterIsTheMinimumWait() {
+        RetryPolicy p = new RetryPolicy(4, 10, 20, 0, false, 0, 0);
+        assertTrue(p.delayBeforeRetry(1, new APIException(429, "x", 5000)) >= 5000);
+    }
+
+    @Test
+    void hedgeDelayUsesP95OnceThereIsEnoughHistory() {
+        LatencyTracker t = new LatencyTracker(100);
+        RetryPolicy p = new RetryPolicy(1, 1, 1, 0, true, 0, 20);
+        for (int i = 1; i <= 10; i++) t.record(i * 10);
+        assertEquals(-1, p.hedgeDelayMs(t));
+        for (int i = 11; i <= 100; i++) t.record(i * 10);
+        assertEquals(950, p.hedgeDelayMs(t));
+        assertEquals(-1, RetryPolicy.none().hedgeDelayMs(t));
+    }
+}
@@ -0,0 +1,60 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    @Test
+    void concurrentCallsWithSameKeyShareOneExecution() {
+        SingleFlight<String, String> sf = new SingleFlight<>();
+        AtomicInteger started = new AtomicInteger();
+        CompletableFuture<String> work = new CompletableFuture<>();
+
+        CompletableFuture<String> a = sf.execute("k", () -> { started.incrementAndGet(); return work; });
+        CompletableFuture<String> b = sf.execute("k", () -> { started.incrementAndGet(); return work; });
+        CompletableFuture<String> other = sf.execute("other", () -> CompletableFuture.completedFuture("x"));
+
+        assertEquals(1, started.get());
+        assertEquals(1, sf.inFlight());
+        work.complete("done");
+        assertEquals("done", a.join());
+        assertEquals("done", b.join());
+        assertEquals("x", other.join());
+        assertEquals(0, sf.inFlight());
+    }
+
+    @Test
+    void failureReachesEveryCallerAndNextCallStartsFresh() {
+        SingleFlight<String, String> sf = new SingleFlight<>();
+        CompletableFuture<String> work = new CompletableFuture<>();
+
+        CompletableFuture<String> a = sf.execute("k", () -> work);
+        CompletableFuture<String> b = sf.execute("k", () -> work);
+        work.completeExceptionally(new IllegalStateException("boom"));
+
+        assertThrows(CompletionException.class, a::join);
+        assertThrows(CompletionException.class, b::join);
+        assertEquals("again", sf.execute("k", () -> CompletableFuture.completedFuture("again")).join());
+    }
+
+    @Test
+    void sharedWorkIsCancelledOnlyWhenAllCallersCancel() {
+        SingleFlight<String, String> sf = new SingleFlight<>();
+        CompletableFuture<String> work = new CompletableFuture<>();
+
+        CompletableFuture<String> a = sf.execute("k", () -> work);
+        CompletableFuture<String> b = sf.execute("k", () -> work);
+
+        a.cancel(true);
+        assertFalse(work.isCancelled());
+        b.cancel(true);
+        assertTrue(work.isCancelled());
+        assertEquals(0, sf.inFlight());
+    }
+}
@@ -0,0 +1,84 @@
+package tools;
+
+import model.WritingMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import service.APIService;
+import service.RateLimiter;
+import service.RetryPolicy;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Short load runs against the local stand-in server
+class LoadGeneratorTest {
+
+    private MockGeminiServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new MockGeminiServer(0).start().replyWords(20);
+    }
+
+    @AfterEach
+    void stop() {
+        server.close();
+    }
+
+    private LoadGenerator generator(RateLimiter limiter) {
+        APIService api = new APIService(HttpClient.newHttpClient(), "k", "gemini-test", server.baseUrl(),
+                limiter, RetryPolicy.none());
+        return new LoadGenerator(api, LoadGenerator.requestsFor(WritingMode.ACADEMIC, "Some text.", 256), false, 5_000);
+    }
+
+    @Test
+    void openLoop_sustainsTargetRate() {
+        server.latency(MockGeminiServer.Latency.fixed(20));
+
+        LoadGenerator.Result r = generator(RateLimiter.unlimited()).runOpen(50, 200, 1_000);
+
+        assertEquals(50, r.sent(), 2);
+        assertEquals(r.sent(), r.ok());
+        assertEquals(0, r.failed());
+        assertTrue(r.throughput() > 40, "throughput " + r.throughput());
+        assertTrue(r.corrected().percentileMillis(50) >= 19, "p50 " + r.corrected().percentileMillis(50));
+        assertTrue(r.csvRow().startsWith("open,50,1.0,"), r.csvRow());
+    }
+
+    @Test
+    void openLoop_countsQueueingBehindTheClientLimiter() {
+        // the limiter admits 10/s while 40/s are offered, so calls queue up in the client
+        LoadGenerator.Result r = generator(RateLimiter.fixedInterval(100)).runOpen(40, 0, 500);
+
+        assertEquals(r.sent(), r.ok());
+        assertTrue(r.corrected().maxMicros() >= 1_000_000, "max " + r.corrected().maxMicros());
+        assertTrue(r.throughput() < 15, "throughput " + r.throughput());
+    }
+
+    @Test
+    void closedLoop_backFillsMissedIntervals() {
+        server.latency(MockGeminiServer.Latency.fixed(100));
+
+        LoadGenerator.Result r = generator(RateLimiter.unlimited()).runClosed(2, 0, 600, 20);
+
+        assertTrue(r.ok() >= 8, "ok " + r.ok());
+        assertEquals(r.ok(), r.serviceTime().count());
+        // each ~100 ms call stands for the ~4 more samples a caller every 20 ms would have recorded
+        assertTrue(r.corrected().count() >= 4 * r.ok(), r.corrected().count() + " vs " + r.ok());
+        assertTrue(r.serviceTime().percentileMillis(50) >= 99);
+    }
+
+    @Test
+    void failures_areCategorized() {
+        server.throttleRate(1.0);
+
+        LoadGenerator.Result r = generator(RateLimiter.unlimited()).runOpen(20, 0, 300);
+
+        assertEquals(r.sent(), r.failed());
+        assertEquals(r.sent(), r.errors().get("status.429"));
+        assertTrue(r.toString().contains("status.429"));
+    }
+}
@@ -0,0 +1,149 @@
+package tools;
+
+import model.APIException;
+import model.WritingRequest;
+import model.WritingResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import service.APIService;
+import service.RateLimiter;
+import service.RetryPolicy;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Drives the real APIService over loopback sockets against the mock server
+class MockGeminiServerTest {
+
+    private MockGeminiServer server;
+    private final HttpClient http = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new MockGeminiServer(0).start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.close();
+    }
+
+    private APIService service(RetryPolicy retry) {
+        return new APIService(http, "test-key", "gemini-test", server.baseUrl(), RateLimiter.unlimited(), retry);
+    }
+
+    private static WritingRequest req(String text) {
+        return new WritingRequest(text, "System prompt", 0.3, 0.85, 0.0, 256);
+    }
+
+    @Test
+    void generateText_returnsReplyWithUsage() {
+        server.replyWords(12);
+
+        WritingResponse r = service(RetryPolicy.none()).generateText(req("Hello"));
+
+        assertTrue(r.getText().startsWith("Mock reply:"), r.getText());
+        assertEquals("STOP", r.getFinishReason());
+        assertTrue(r.getPromptTokens() > 0);
+        assertTrue(r.getTotalTokens() > r.getPromptTokens());
+        assertEquals(1, server.requests());
+    }
+
+    @Test
+    void stream_dripsChunksAndAssemblesFullText() {
+        server.replyWords(40).drip(5, 10);
+        List<String> chunks = new ArrayList<>();
+
+        WritingResponse r = service(RetryPolicy.none()).generateTextStream(req("Hello"), chunks::add);
+
+        assertEquals(5, chunks.size());
+        assertEquals(String.join("", chunks), r.getText());
+        assertEquals("STOP", r.getFinishReason());
+    }
+
+    @Test
+    void stalledStream_isCutOffAtTheDeadline() {
+        server.replyWords(40).drip(5, 5_000);
+        List<String> chunks = new ArrayList<>();
+        long start = System.nanoTime();
+
+        APIException ex = assertThrows(APIException.class, () -> service(new RetryPolicy(3, 1, 10, 300, false, 0, 0))
+                .generateTextStream(req("Hello"), chunks::add));
+
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        assertEquals("Request timed out after 300 ms", ex.getMessage());
+        assertEquals(1, chunks.size(), "the first event arrived before the stall");
+        assertTrue(ms < 3_000, "took " + ms + " ms");
+    }
+
+    @Test
+    void slowDripBody_isReassembled() {
+        server.replyWords(200).drip(8, 5);
+
+        WritingResponse r = service(RetryPolicy.none()).generateText(req("Hello"));
+
+        assertEquals("STOP", r.getFinishReason());
+        assertTrue(r.getText().endsWith("word") || r.getText().endsWith("sentence."));
+    }
+
+    @Test
+    void throttled_carriesRetryAfter() {
+        server.throttleRate(1.0).retryAfterSeconds(7);
+
+        APIException ex = assertThrows(APIException.class,
+                () -> service(RetryPolicy.none()).generateText(req("Hello")));
+
+        assertEquals(429, ex.getStatus());
+        assertEquals(7000, ex.getRetryAfterMs());
+    }
+
+    @Test
+    void retries_recoverFromInjectedFaults() {
+        server.retryAfterSeconds(0).failNext(1, 503);
+        WritingResponse r = service(new RetryPolicy(4, 1, 10, 0, false, 0, 0)).generateText(req("one"));
+        assertEquals("STOP", r.getFinishReason());
+        assertEquals(2, server.requests());
+
+        server.failNext(1, 0); // dropped connection
+        r = service(new RetryPolicy(4, 1, 10, 0, false, 0, 0)).generateText(req("two"));
+        assertEquals("STOP", r.getFinishReason());
+        assertEquals(1, server.resets());
+    }
+
+    @Test
+    void reset_surfacesAsNetworkError() {
+        server.resetRate(1.0);
+
+        APIException ex = assertThrows(APIException.class,
+                () -> service(RetryPolicy.none()).generateText(req("Hello")));
+
+        assertTrue(ex.getMessage().startsWith("Network error"), ex.getMessage());
+    }
+
+    @Test
+    void concurrentCalls_areServedInParallel() {
+        server.latency(MockGeminiServer.Latency.fixed(50));
+        APIService api = service(RetryPolicy.none());
+
+        List<CompletableFuture<WritingResponse>> calls = new ArrayList<>();
+        for (int i = 0; i < 20; i++) calls.add(api.generateTextAsync(req("request " + i)));
+        for (CompletableFuture<WritingResponse> f : calls) assertEquals("STOP", f.join().getFinishReason());
+
+        assertEquals(20, server.requests());
+        assertTrue(server.peakInFlight() > 1, "peak " + server.peakInFlight());
+    }
+
+    @Test
+    void latencySpec_parses() {
+        assertEquals(25, MockGeminiServer.Latency.parse("fixed:25").sampleMs());
+        long u = MockGeminiServer.Latency.parse("uniform:10-20").sampleMs();
+        assertTrue(u >= 10 && u <= 20);
+        assertThrows(IllegalArgumentException.class, () -> MockGeminiServer.Latency.parse("bogus:1"));
+    }
+}